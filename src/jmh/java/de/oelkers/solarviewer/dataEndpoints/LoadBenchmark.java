@@ -0,0 +1,99 @@
+package de.oelkers.solarviewer.dataEndpoints;
+
+import de.oelkers.solarviewer.storage.ImageReaderPool;
+import de.oelkers.solarviewer.storage.TiledElevationStore;
+import de.oelkers.solarviewer.storage.TiledElevationStoreBuilder;
+import de.oelkers.solarviewer.utils.ShortRaster;
+import org.openjdk.jmh.annotations.*;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.nio.ShortBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares loading a tile from the original data with reading it from the tiled store, for different tile sizes,
+ * strides and positions. The synthetic data has the size of 2x1 chunks, so tiles at the border overflow it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class LoadBenchmark {
+
+    private static final int WIDTH = 5760, HEIGHT = 2880, CHUNK_SIZE = 2880, LEVELS = 5;
+
+    /**
+     * Where the tile is positioned in the data, which decides which overflow paths are taken.
+     */
+    public enum Region {
+        INNER, X_WRAP, Z_OVERFLOW, CORNER
+    }
+
+    @Param({"320", "1280", "2880"})
+    private int tileSize;
+    @Param({"1", "4", "16"})
+    private int stride;
+    @Param({"INNER", "X_WRAP", "Z_OVERFLOW", "CORNER"})
+    private Region region;
+
+    private Path tiff, tiles;
+    private ImageInputStream input;
+    private ImageReader reader;
+    private TiledElevationStore store;
+    private short[] buffer;
+    private ShortBuffer destination;
+    private int x, z;
+
+    @Setup
+    public void setUp() throws IOException {
+        tiff = SyntheticTerrain.MIXED.writeTiff(WIDTH, HEIGHT);
+        tiles = Files.createTempFile("terrain", ".tiles");
+        try (ImageReaderPool readers = new ImageReaderPool(tiff.toString(), Runtime.getRuntime().availableProcessors())) {
+            TiledElevationStoreBuilder.TileSource source = (x, z, width, height, stride) ->
+                    readers.read(reader -> RasterDataEndpoint.load(reader, x, z, width, height, stride, null));
+            new TiledElevationStoreBuilder(source, WIDTH, HEIGHT, CHUNK_SIZE).levels(LEVELS).build(tiles);
+        }
+        store = TiledElevationStore.open(tiles);
+        input = new FileImageInputStream(tiff.toFile());
+        reader = ImageIO.getImageReaders(input).next();
+        reader.setInput(input, true, true);
+        boolean wraps = region == Region.X_WRAP || region == Region.CORNER;
+        boolean overflows = region == Region.Z_OVERFLOW || region == Region.CORNER;
+        x = wraps ? WIDTH - tileSize / 2 : (WIDTH - tileSize) / 2;
+        z = overflows ? HEIGHT - tileSize / 2 : (HEIGHT - tileSize) / 2;
+        if (!store.canRead(x, z, tileSize, tileSize, stride)) {
+            throw new IllegalStateException("The tiled store can not read the region of the benchmark");
+        }
+        buffer = new short[(tileSize / stride + 1) * (tileSize / stride + 1)];
+        destination = ShortBuffer.allocate((tileSize / stride) * (tileSize / stride));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        reader.dispose();
+        input.close();
+        store.close();
+        Files.delete(tiff);
+        Files.delete(tiles);
+    }
+
+    @Benchmark
+    public ShortRaster loadOriginal() throws IOException {
+        return RasterDataEndpoint.load(reader, x, z, tileSize, tileSize, stride, buffer);
+    }
+
+    @Benchmark
+    public ShortBuffer readTiledStore() throws IOException {
+        destination.clear();
+        store.read(x, z, tileSize, tileSize, stride, destination);
+        return destination;
+    }
+}
@@ -0,0 +1,47 @@
+package de.oelkers.solarviewer.dataEndpoints;
+
+import de.oelkers.solarviewer.utils.ShortRaster;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static de.oelkers.solarviewer.utils.RasterDataRedundancy.findRedundancies;
+
+/**
+ * Measures encoding a tile of the size requested by the client in all formats and content encodings. The size of the
+ * resulting response is printed in the setup, since it matters as much as the time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SerializationBenchmark {
+
+    private static final int TILE_SIZE = 2881;
+
+    @Param({"TEXT", "INT16", "SPARSE"})
+    private TileFormat format;
+    @Param({"IDENTITY", "GZIP"})
+    private ContentEncoding encoding;
+    @Param({"FLAT", "NOISY", "MIXED"})
+    private SyntheticTerrain terrain;
+
+    private ShortRaster data;
+
+    @Setup
+    public void setUp() throws IOException {
+        data = new ShortRaster(terrain.generate(TILE_SIZE, TILE_SIZE), TILE_SIZE, TILE_SIZE, TILE_SIZE);
+        if (format == TileFormat.SPARSE) {
+            findRedundancies(data, TileFormat.MARKER, Integer.MAX_VALUE);
+        }
+    }
+
+    @Benchmark
+    public ByteBuffer encode() throws IOException {
+        return encoding.encode(format.encode(data, 0, 0, 1));
+    }
+}
@@ -0,0 +1,67 @@
+package de.oelkers.solarviewer.utils;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ShortBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the transformations of {@link ArrayUtils} with the equivalent operations of {@link ShortRaster}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ArrayUtilsBenchmark {
+
+    @Param({"360", "2880"})
+    private int size;
+
+    private short[] flat;
+    private short[][] rows;
+    private short[] additional;
+    private ShortRaster raster;
+    private ShortBuffer destination;
+
+    @Setup
+    public void setUp() {
+        flat = new short[size * size];
+        for (int i = 0; i < flat.length; i++) {
+            flat[i] = (short) i;
+        }
+        rows = ArrayUtils.expand(flat, size, size);
+        additional = new short[size];
+        raster = new ShortRaster(flat, size, size, size);
+        destination = ShortBuffer.allocate(flat.length);
+    }
+
+    @Benchmark
+    public short[][] expand() {
+        return ArrayUtils.expand(flat, size, size);
+    }
+
+    @Benchmark
+    public short[] flatten() {
+        return ArrayUtils.flatten(rows);
+    }
+
+    @Benchmark
+    public short[][] addColumn() {
+        // only the outer array is copied, since the rows are replaced instead of modified
+        return ArrayUtils.addColumn(rows.clone(), additional);
+    }
+
+    @Benchmark
+    public short[][] addRow() {
+        return ArrayUtils.addRow(rows, additional);
+    }
+
+    @Benchmark
+    public ShortBuffer rasterCopy() {
+        destination.clear();
+        raster.copyTo(destination);
+        return destination;
+    }
+}
@@ -0,0 +1,42 @@
+package de.oelkers.solarviewer.utils;
+
+import de.oelkers.solarviewer.dataEndpoints.SyntheticTerrain;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the redundancy detection on terrain with different amounts of planar regions. Since the detection modifies
+ * the data, each invocation works on a fresh copy, which is included in the measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RasterDataRedundancyBenchmark {
+
+    private static final int CHUNK_SIZE = 2880;
+
+    @Param({"720", "2880"})
+    private int size;
+    @Param({"FLAT", "TILTED", "NOISY", "MIXED"})
+    private SyntheticTerrain terrain;
+
+    private short[] data;
+    private ShortRaster copy;
+
+    @Setup
+    public void setUp() {
+        data = terrain.generate(size, size);
+        copy = new ShortRaster(size, size);
+    }
+
+    @Benchmark
+    public ShortRaster findRedundancies() {
+        System.arraycopy(data, 0, copy.getData(), 0, data.length);
+        RasterDataRedundancy.findRedundancies(copy, Short.MIN_VALUE, CHUNK_SIZE);
+        return copy;
+    }
+}
@@ -0,0 +1,118 @@
+package de.oelkers.solarviewer.loadtest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The path of a camera orbiting a body and always looking at its center, like the orbit camera of the client. The path
+ * is given by keyframes, between which the camera moves linearly.
+ */
+public final class CameraFlight {
+
+    private final double[] seconds, latitudes, longitudes, altitudes;
+
+    private CameraFlight(double[] seconds, double[] latitudes, double[] longitudes, double[] altitudes) {
+        this.seconds = seconds;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.altitudes = altitudes;
+    }
+
+    /**
+     * Reads a recorded flight from a file with one keyframe per line, which consists of the time in seconds, the latitude
+     * and longitude in degrees north and east and the altitude above the surface in meters, separated by commas. Lines
+     * starting with # are ignored. The keyframes have to be ordered by time.
+     */
+    public static CameraFlight read(Path file) throws IOException {
+        List<double[]> keyframes = new ArrayList<>();
+        for (String line : Files.readAllLines(file)) {
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            String[] values = line.split(",");
+            if (values.length != 4) {
+                throw new IllegalArgumentException("Expected time, latitude, longitude and altitude: " + line);
+            }
+            double[] keyframe = new double[4];
+            for (int i = 0; i < 4; i++) {
+                keyframe[i] = Double.parseDouble(values[i].trim());
+            }
+            if (!keyframes.isEmpty() && keyframe[0] < keyframes.get(keyframes.size() - 1)[0]) {
+                throw new IllegalArgumentException("The keyframes are not ordered by time: " + line);
+            }
+            keyframes.add(keyframe);
+        }
+        if (keyframes.isEmpty()) {
+            throw new IllegalArgumentException("The flight " + file + " does not contain any keyframes");
+        }
+        double[][] columns = new double[4][keyframes.size()];
+        for (int i = 0; i < keyframes.size(); i++) {
+            for (int column = 0; column < 4; column++) {
+                columns[column][i] = keyframes.get(i)[column];
+            }
+        }
+        return new CameraFlight(columns[0], columns[1], columns[2], columns[3]);
+    }
+
+    /**
+     * Scripts a flight once around the equator, which starts far away with the whole body in view, descends close to
+     * the surface and climbs back up. The stride requested by the client changes throughout, so every tile is requested
+     * several times with different strides, like when a user zooms in and out.
+     *
+     * @param radius the radius of the body in meters
+     * @param duration the duration of the flight in seconds
+     */
+    public static CameraFlight orbit(double radius, double duration) {
+        int keyframes = 9;
+        double[] seconds = new double[keyframes], latitudes = new double[keyframes];
+        double[] longitudes = new double[keyframes], altitudes = new double[keyframes];
+        for (int i = 0; i < keyframes; i++) {
+            double progress = (double) i / (keyframes - 1);
+            seconds[i] = progress * duration;
+            latitudes[i] = 30 * Math.sin(2 * Math.PI * progress);
+            longitudes[i] = -180 + 360 * progress;
+            // from two radii above the surface down to a twentieth of the radius and back
+            altitudes[i] = radius * (0.05 + 1.95 * Math.abs(2 * progress - 1));
+        }
+        return new CameraFlight(seconds, latitudes, longitudes, altitudes);
+    }
+
+    public double getDuration() {
+        return seconds[seconds.length - 1];
+    }
+
+    /**
+     * Gets the position of the camera in the coordinates of the spherical projection of the client, where the y axis
+     * points to the north pole and longitude 0 lies on the z axis.
+     *
+     * @param time the time since the start of the flight in seconds
+     * @param radius the radius of the body in meters
+     * @param longitudeOffset rotates the whole flight by the amount of degrees to the east
+     * @return the position in meters
+     */
+    public double[] getPosition(double time, double radius, double longitudeOffset) {
+        int next = 1;
+        while (next < seconds.length - 1 && seconds[next] < time) {
+            next++;
+        }
+        int previous = Math.max(0, next - 1);
+        next = Math.min(next, seconds.length - 1);
+        double length = seconds[next] - seconds[previous];
+        double t = length <= 0 ? 0 : Math.max(0, Math.min(1, (time - seconds[previous]) / length));
+        double latitude = Math.toRadians(interpolate(latitudes, previous, next, t));
+        double longitude = Math.toRadians(interpolate(longitudes, previous, next, t) + longitudeOffset);
+        double distance = radius + interpolate(altitudes, previous, next, t);
+        return new double[]{
+                distance * Math.cos(latitude) * Math.sin(longitude),
+                distance * Math.sin(latitude),
+                distance * Math.cos(latitude) * Math.cos(longitude)
+        };
+    }
+
+    private static double interpolate(double[] values, int previous, int next, double t) {
+        return values[previous] + t * (values[next] - values[previous]);
+    }
+}
@@ -0,0 +1,150 @@
+package de.oelkers.solarviewer.loadtest;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Collects the results of all simulated clients in buckets of one second, so the latency can be reported both over
+ * the whole run and over time. Thread safe.
+ */
+final class LoadRecorder {
+
+    private final long start = System.nanoTime();
+    private final List<Bucket> buckets = new ArrayList<>();
+
+    /**
+     * Records a tile that was received.
+     *
+     * @param latencyNanos the time since the view change which requested the tile
+     */
+    synchronized void recordTile(long latencyNanos, int bytes) {
+        Bucket bucket = getBucket();
+        bucket.latencies = append(bucket.latencies, bucket.tiles++, latencyNanos);
+        bucket.bytes += bytes;
+    }
+
+    /**
+     * Records a tile the server did not send, either because it failed to load it or dropped it, since a newer
+     * generation of the view was requested.
+     */
+    synchronized void recordFailure() {
+        getBucket().failures++;
+    }
+
+    /**
+     * Records a tile that was not received, because the client aborted the request or the whole request failed.
+     */
+    synchronized void recordAborted() {
+        getBucket().aborted++;
+    }
+
+    synchronized void recordRequest() {
+        getBucket().requests++;
+    }
+
+    /**
+     * Records the amount of requests the server is handling or which are waiting for a worker.
+     */
+    synchronized void recordInFlight(long inFlight) {
+        Bucket bucket = getBucket();
+        bucket.inFlight = Math.max(bucket.inFlight, inFlight);
+    }
+
+    private Bucket getBucket() {
+        int second = (int) ((System.nanoTime() - start) / 1_000_000_000L);
+        while (buckets.size() <= second) {
+            buckets.add(new Bucket());
+        }
+        return buckets.get(second);
+    }
+
+    private static long[] append(long[] values, int size, long value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, Math.max(16, 2 * values.length));
+        }
+        values[size] = value;
+        return values;
+    }
+
+    /**
+     * Prints the latency, throughput and queue depth of every second, followed by a summary of the whole run.
+     */
+    synchronized void report(PrintStream output) {
+        output.println("second  requests  tiles  failures  aborted      MB  p50 ms  p95 ms  in flight");
+        long[] all = new long[0];
+        int tiles = 0, failures = 0, aborted = 0, requests = 0;
+        long bytes = 0, maxInFlight = 0;
+        for (int second = 0; second < buckets.size(); second++) {
+            Bucket bucket = buckets.get(second);
+            long[] latencies = bucket.getSortedLatencies();
+            output.println(String.format(Locale.ROOT, "%6d  %8d  %5d  %8d  %7d  %6.1f  %6.0f  %6.0f  %9d", second, bucket.requests,
+                    bucket.tiles, bucket.failures, bucket.aborted, bucket.bytes / 1e6, percentile(latencies, 0.5), percentile(latencies, 0.95),
+                    bucket.inFlight));
+            all = Arrays.copyOf(all, tiles + bucket.tiles);
+            System.arraycopy(latencies, 0, all, tiles, bucket.tiles);
+            tiles += bucket.tiles;
+            failures += bucket.failures;
+            aborted += bucket.aborted;
+            requests += bucket.requests;
+            bytes += bucket.bytes;
+            maxInFlight = Math.max(maxInFlight, bucket.inFlight);
+        }
+        Arrays.sort(all);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        output.println();
+        output.println(String.format(Locale.ROOT, "%d requests, %d tiles, %d failures, %d aborted in %.1f s", requests, tiles, failures,
+                aborted, seconds));
+        output.println(String.format(Locale.ROOT, "latency p50 %.0f ms, p95 %.0f ms, p99 %.0f ms, max %.0f ms", percentile(all, 0.5),
+                percentile(all, 0.95), percentile(all, 0.99), percentile(all, 1)));
+        output.println(String.format(Locale.ROOT, "throughput %.1f tiles/s, %.1f MB/s, %.1f MB in total", tiles / seconds,
+                bytes / 1e6 / seconds, bytes / 1e6));
+        output.println("max in flight " + maxInFlight);
+    }
+
+    /**
+     * Writes the buckets as CSV, so runs can be compared with each other or plotted.
+     */
+    synchronized void writeCsv(Path file) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file))) {
+            writer.println("second,requests,tiles,failures,aborted,bytes,p50_ms,p95_ms,p99_ms,in_flight");
+            for (int second = 0; second < buckets.size(); second++) {
+                Bucket bucket = buckets.get(second);
+                long[] latencies = bucket.getSortedLatencies();
+                writer.println(String.format(Locale.ROOT, "%d,%d,%d,%d,%d,%d,%.1f,%.1f,%.1f,%d", second, bucket.requests, bucket.tiles,
+                        bucket.failures, bucket.aborted, bucket.bytes, percentile(latencies, 0.5), percentile(latencies, 0.95),
+                        percentile(latencies, 0.99), bucket.inFlight));
+            }
+        }
+    }
+
+    /**
+     * @return the value at the percentile of the sorted latencies in milliseconds, using the nearest rank
+     */
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return Double.NaN;
+        }
+        int rank = (int) Math.ceil(percentile * sorted.length);
+        return sorted[Math.max(0, rank - 1)] / 1e6;
+    }
+
+    private static final class Bucket {
+
+        private long[] latencies = new long[0];
+        private int tiles, failures, aborted, requests;
+        private long bytes, inFlight;
+
+        private long[] getSortedLatencies() {
+            long[] result = Arrays.copyOf(latencies, tiles);
+            Arrays.sort(result);
+            return result;
+        }
+    }
+}
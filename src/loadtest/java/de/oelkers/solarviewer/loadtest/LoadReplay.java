@@ -0,0 +1,193 @@
+package de.oelkers.solarviewer.loadtest;
+
+import de.oelkers.solarviewer.Preprocessor;
+import de.oelkers.solarviewer.SolarViewerServer;
+import de.oelkers.solarviewer.dataEndpoints.SyntheticTerrain;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Replays camera flights of several simulated clients against a local {@link SolarViewerServer} serving synthetic
+ * terrain, to measure how the tile latency develops under load. The clients change their view once per second, like
+ * the throttled view changes of the browser client, and request the new tiles without waiting for earlier requests.
+ * The latency, throughput and the amount of requests in flight on the server are reported per second and for the whole
+ * run. The options are:
+ *
+ * <pre>
+ * --clients 4          the amount of simulated clients, whose flights are rotated against each other
+ * --flight orbit       "orbit" for a scripted flight around the body or a file with a recorded flight, see {@link CameraFlight#read}
+ * --duration 60        the duration of the scripted flight in seconds
+ * --chunks 4x2         the size of the synthetic terrain in chunks of {@value ViewSimulator#CHUNK_SIZE_PIXELS} pixels
+ * --terrain MIXED      the kind of the synthetic terrain, see {@link SyntheticTerrain}
+ * --port 8089          the port the server is started on
+ * --preprocess         runs the {@link Preprocessor} on the terrain before starting the server
+ * --csv file           writes the results per second into the file
+ * </pre>
+ */
+public final class LoadReplay {
+
+    private static final String DATASET_ID = "synthetic";
+    private static final double METER_PER_PIXEL = 463.0835744;
+    private static final int VIEW_CHANGE_THROTTLE_MILLIS = 1000;
+    private static final int DRAIN_TIMEOUT_SECONDS = 60;
+    private static final int STARTUP_TIMEOUT_SECONDS = 600;
+    private static final String IN_FLIGHT_METRIC = "solarviewer_dispatcher_in_flight ";
+
+    private LoadReplay() {}
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        int clients = Integer.parseInt(options.getOrDefault("clients", "4"));
+        String[] chunks = options.getOrDefault("chunks", "4x2").split("x");
+        int width = Integer.parseInt(chunks[0]) * ViewSimulator.CHUNK_SIZE_PIXELS;
+        int height = Integer.parseInt(chunks[1]) * ViewSimulator.CHUNK_SIZE_PIXELS;
+        double radius = width * METER_PER_PIXEL / (2 * Math.PI);
+        String flightOption = options.getOrDefault("flight", "orbit");
+        CameraFlight flight = flightOption.equals("orbit")
+                ? CameraFlight.orbit(radius, Double.parseDouble(options.getOrDefault("duration", "60")))
+                : CameraFlight.read(Path.of(flightOption));
+        SyntheticTerrain terrain = SyntheticTerrain.valueOf(options.getOrDefault("terrain", "MIXED"));
+        int port = Integer.parseInt(options.getOrDefault("port", "8089"));
+
+        Path directory = Files.createTempDirectory("loadtest");
+        try {
+            System.out.println("Writing " + width + "x" + height + " pixels of " + terrain + " terrain to " + directory);
+            Path original = directory.resolve(DATASET_ID + ".tif");
+            terrain.writeTiff(original, width, height);
+            Path config = directory.resolve("datasets.properties");
+            try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(config))) {
+                writer.println("datasets=" + DATASET_ID);
+                // the properties format treats backslashes as escapes
+                writer.println(DATASET_ID + ".original=" + original.toString().replace('\\', '/'));
+                writer.println(DATASET_ID + ".width=" + width);
+                writer.println(DATASET_ID + ".height=" + height);
+                writer.println(DATASET_ID + ".meterPerPixel=" + METER_PER_PIXEL);
+                writer.println(DATASET_ID + ".radius=" + radius);
+            }
+            System.setProperty("solarviewer.datasets", config.toString());
+            System.setProperty("solarviewer.port", Integer.toString(port));
+            if (options.containsKey("preprocess")) {
+                Preprocessor.main(new String[0]);
+            }
+            SolarViewerServer.main(new String[0]);
+
+            HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            URI base = URI.create("http://localhost:" + port + "/");
+            awaitReady(httpClient, base);
+            LoadRecorder recorder = run(httpClient, base, flight, radius, width, height, clients);
+            recorder.report(System.out);
+            if (options.containsKey("csv")) {
+                recorder.writeCsv(Path.of(options.get("csv")));
+            }
+        } finally {
+            deleteRecursively(directory);
+        }
+        // the server has no way to be stopped
+        System.exit(0);
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> result = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+            String name = args[i].substring(2);
+            if (name.equals("preprocess")) {
+                result.put(name, "");
+            } else if (i + 1 < args.length) {
+                result.put(name, args[++i]);
+            } else {
+                throw new IllegalArgumentException("Missing value of " + args[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Waits until the dataset is initialized, i.e. its preprocessed data was opened.
+     */
+    private static void awaitReady(HttpClient httpClient, URI base) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(STARTUP_TIMEOUT_SECONDS);
+        while (System.nanoTime() < deadline) {
+            String available = httpClient.send(HttpRequest.newBuilder(base.resolve("available")).build(),
+                    HttpResponse.BodyHandlers.ofString()).body();
+            if (available.contains("\"ready\":true")) {
+                return;
+            }
+            Thread.sleep(VIEW_CHANGE_THROTTLE_MILLIS);
+        }
+        throw new IOException("The dataset was not ready within " + STARTUP_TIMEOUT_SECONDS + " seconds");
+    }
+
+    private static LoadRecorder run(HttpClient httpClient, URI base, CameraFlight flight, double radius, int width, int height,
+                                    int clientCount) throws InterruptedException {
+        LoadRecorder recorder = new LoadRecorder();
+        ExecutorService requestExecutor = Executors.newCachedThreadPool();
+        List<SimulatedClient> clients = new ArrayList<>();
+        for (int i = 0; i < clientCount; i++) {
+            clients.add(new SimulatedClient(httpClient, base.resolve(DATASET_ID + "/tiles?format=rle"), "client" + i, flight, radius,
+                    360.0 * i / clientCount, new ViewSimulator(width, height, METER_PER_PIXEL, radius), recorder, requestExecutor));
+        }
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+        long start = System.nanoTime();
+        scheduler.scheduleAtFixedRate(() -> {
+            double time = (System.nanoTime() - start) / 1e9;
+            for (SimulatedClient client : clients) {
+                client.onViewChange(time);
+            }
+        }, 0, VIEW_CHANGE_THROTTLE_MILLIS, TimeUnit.MILLISECONDS);
+        scheduler.scheduleAtFixedRate(() -> recordInFlight(httpClient, base, recorder), 0, VIEW_CHANGE_THROTTLE_MILLIS / 4,
+                TimeUnit.MILLISECONDS);
+        System.out.println("Flying " + clientCount + " clients for " + flight.getDuration() + " seconds");
+        Thread.sleep((long) (flight.getDuration() * 1000));
+        scheduler.shutdownNow();
+        scheduler.awaitTermination(DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        // the requests still running are part of the measurement, since they were caused by the flight
+        requestExecutor.shutdown();
+        if (!requestExecutor.awaitTermination(DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            System.out.println("Some requests did not finish within " + DRAIN_TIMEOUT_SECONDS + " seconds");
+        }
+        return recorder;
+    }
+
+    private static void recordInFlight(HttpClient httpClient, URI base, LoadRecorder recorder) {
+        try {
+            String metrics = httpClient.send(HttpRequest.newBuilder(base.resolve("metrics")).build(),
+                    HttpResponse.BodyHandlers.ofString()).body();
+            metrics.lines()
+                    .filter(line -> line.startsWith(IN_FLIGHT_METRIC))
+                    .findFirst()
+                    .ifPresent(line -> recorder.recordInFlight(Long.parseLong(line.substring(IN_FLIGHT_METRIC.length()).trim())));
+        } catch (IOException e) {
+            // a missing sample only leaves a gap in the report
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
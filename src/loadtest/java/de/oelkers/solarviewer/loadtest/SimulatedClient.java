@@ -0,0 +1,141 @@
+package de.oelkers.solarviewer.loadtest;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * A client flying the camera along a path and loading the chunks in view like the browser client does. After every
+ * view change, all new tiles are requested with a single batch request, without waiting for earlier batches to finish.
+ * If the server is slower than the view changes, batches overlap and compete for the same workers, which is the pile-up
+ * this is meant to reproduce. Batches whose chunks are no longer needed are aborted by closing their connection.
+ */
+final class SimulatedClient {
+
+    private static final int MAX_RETRIES = 5;
+    private static final int FRAME_HEADER_BYTES = 2 * Integer.BYTES;
+
+    private final HttpClient httpClient;
+    private final URI tilesUri;
+    private final String viewId;
+    private final CameraFlight flight;
+    private final double radius, longitudeOffset;
+    private final ViewSimulator view;
+    private final LoadRecorder recorder;
+    private final Executor executor;
+
+    /**
+     * @param tilesUri the uri of the batch endpoint of the dataset including the format
+     * @param viewId identifies the view of this client on the server
+     * @param longitudeOffset rotates the flight of this client, so several clients do not look at the same chunks
+     * @param executor the executor running the batch requests, which needs a thread per concurrent request
+     */
+    SimulatedClient(HttpClient httpClient, URI tilesUri, String viewId, CameraFlight flight, double radius, double longitudeOffset,
+                    ViewSimulator view, LoadRecorder recorder, Executor executor) {
+        this.httpClient = httpClient;
+        this.tilesUri = tilesUri;
+        this.viewId = viewId;
+        this.flight = flight;
+        this.radius = radius;
+        this.longitudeOffset = longitudeOffset;
+        this.view = view;
+        this.recorder = recorder;
+        this.executor = executor;
+    }
+
+    /**
+     * Moves the camera to its position at the given time of the flight and requests the tiles which came into view.
+     */
+    void onViewChange(double time) {
+        ViewSimulator.Load load;
+        synchronized (view) {
+            load = view.onViewChange(flight.getPosition(time, radius, longitudeOffset));
+        }
+        if (load != null) {
+            long start = System.nanoTime();
+            executor.execute(() -> load(load, start));
+        }
+    }
+
+    private void load(ViewSimulator.Load load, long start) {
+        List<ViewSimulator.TileRequest> requests = load.requests;
+        ByteBuffer body = ByteBuffer.allocate(requests.size() * 5 * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (ViewSimulator.TileRequest request : requests) {
+            body.putInt(request.x).putInt(request.z).putInt(request.width).putInt(request.height).putInt(request.stride);
+        }
+        HttpRequest httpRequest = HttpRequest.newBuilder(URI.create(tilesUri + "&view=" + viewId + "&generation=" + load.generation))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body.array()))
+                .build();
+        boolean[] received = new boolean[requests.size()];
+        try (InputStream input = send(httpRequest)) {
+            synchronized (view) {
+                if (!load.setConnection(input)) {
+                    return;
+                }
+            }
+            DataInputStream data = new DataInputStream(input);
+            ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < requests.size(); i++) {
+                data.readFully(header.array());
+                int index = header.getInt(0), length = header.getInt(Integer.BYTES);
+                if (length >= 0) {
+                    if (data.readNBytes(length).length != length) {
+                        throw new EOFException("The response ended within a tile");
+                    }
+                    recorder.recordTile(System.nanoTime() - start, FRAME_HEADER_BYTES + length);
+                } else {
+                    recorder.recordFailure();
+                }
+                received[index] = true;
+                if (length >= 0) {
+                    synchronized (view) {
+                        view.onLoaded(load, requests.get(index));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // the remaining tiles are restored below, like the client does when the request fails or was aborted
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (boolean tile : received) {
+                if (!tile) {
+                    recorder.recordAborted();
+                }
+            }
+            synchronized (view) {
+                view.onFinished(load);
+            }
+        }
+    }
+
+    /**
+     * Sends the request and retries it after the delay requested by the server, if it was rejected because of overload.
+     */
+    private InputStream send(HttpRequest request) throws IOException, InterruptedException {
+        for (int retries = MAX_RETRIES; ; retries--) {
+            recorder.recordRequest();
+            HttpResponse<InputStream> response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            if (response.statusCode() == 503 && retries > 0) {
+                response.body().close();
+                long retryAfter = response.headers().firstValueAsLong("Retry-After").orElse(1);
+                Thread.sleep(retryAfter * 1000);
+                continue;
+            }
+            if (response.statusCode() != 200) {
+                response.body().close();
+                throw new IOException("Request to " + request.uri() + " failed with status " + response.statusCode());
+            }
+            return response.body();
+        }
+    }
+}
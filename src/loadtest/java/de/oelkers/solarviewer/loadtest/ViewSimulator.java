@@ -0,0 +1,341 @@
+package de.oelkers.solarviewer.loadtest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Decides which chunks a client requests after a view change, like the WorldController of the client does with the
+ * spherical projection. Each chunk is approximated by a flat plane on the surface, which is visible if its bounding
+ * sphere intersects the view frustum of the camera and it faces the camera. The latter replaces the raycast of the
+ * client against all chunk planes, which results in the same chunks for a sphere. All chunks in view are requested
+ * with the same stride, the highest power of two not bigger than the amount of chunks in view.
+ * <p>
+ * Like the client, chunks which are still loading are not requested again and chunks which are no longer in view are
+ * forgotten, unless they are still loading. Once a loading chunk left the view or is needed with a different stride,
+ * all loads are aborted, the generation of the view is incremented and the chunks still in view are requested again.
+ * The tiles of a load are ordered by the distance of their chunk to the camera. Not thread safe.
+ */
+final class ViewSimulator {
+
+    static final int CHUNK_SIZE_PIXELS = 2880;
+    private static final double FIELD_OF_VIEW = Math.toRadians(75);
+    private static final double ASPECT = 16.0 / 9;
+    private static final double NEAR_METERS = 1000;
+    private static final double FAR_METERS = 1e8;
+
+    private final int chunkWidth, chunkHeight;
+    private final double meterPerPixel, radius;
+    private final double[][] centers;
+    private final double[] radii;
+    private final Chunk[] chunks;
+    private final Set<Load> loads = new HashSet<>();
+    private long generation;
+
+    ViewSimulator(int pixelsWidth, int pixelsHeight, double meterPerPixel, double radius) {
+        chunkWidth = pixelsWidth / CHUNK_SIZE_PIXELS;
+        chunkHeight = pixelsHeight / CHUNK_SIZE_PIXELS;
+        this.meterPerPixel = meterPerPixel;
+        this.radius = radius;
+        centers = new double[chunkWidth * chunkHeight][];
+        radii = new double[chunkWidth * chunkHeight];
+        chunks = new Chunk[chunkWidth * chunkHeight];
+        for (int z = 0; z < chunkHeight; z++) {
+            for (int x = 0; x < chunkWidth; x++) {
+                computeBoundingSphere(x, z);
+            }
+        }
+    }
+
+    /**
+     * Computes the bounding sphere of the plane of a chunk the same way three.js does, around the center of the
+     * bounding box of its vertices.
+     */
+    private void computeBoundingSphere(int x, int z) {
+        double meterPerChunk = CHUNK_SIZE_PIXELS * meterPerPixel;
+        double[][] vertices = new double[5][];
+        for (int i = 0; i < 4; i++) {
+            vertices[i] = project((x + i % 2) * meterPerChunk, (z + i / 2) * meterPerChunk);
+        }
+        vertices[4] = project((x + 0.5) * meterPerChunk, (z + 0.5) * meterPerChunk);
+        double[] min = vertices[4].clone(), max = vertices[4].clone();
+        for (int i = 0; i < 5; i++) {
+            for (int axis = 0; axis < 3; axis++) {
+                min[axis] = Math.min(min[axis], vertices[i][axis]);
+                max[axis] = Math.max(max[axis], vertices[i][axis]);
+            }
+        }
+        double[] center = new double[3];
+        for (int axis = 0; axis < 3; axis++) {
+            center[axis] = (min[axis] + max[axis]) / 2;
+        }
+        double sphereRadius = 0;
+        for (int i = 0; i < 5; i++) {
+            sphereRadius = Math.max(sphereRadius, distance(center, vertices[i]));
+        }
+        centers[z * chunkWidth + x] = center;
+        radii[z * chunkWidth + x] = sphereRadius;
+    }
+
+    /**
+     * Projects a point on the flat map in meters onto the sphere, like the SphericalProjection of the client.
+     */
+    private double[] project(double x, double z) {
+        double latitude = z / radius - Math.PI / 2;
+        double longitude = x / radius - Math.PI;
+        return new double[]{
+                radius * Math.cos(latitude) * Math.sin(longitude),
+                -radius * Math.sin(latitude),
+                radius * Math.cos(latitude) * Math.cos(longitude)
+        };
+    }
+
+    /**
+     * Updates the chunks for the camera at the given position, which looks at the center of the body.
+     *
+     * @return the load of the tiles to request or null, if nothing has to be requested
+     */
+    Load onViewChange(double[] camera) {
+        boolean[] visible = new boolean[chunks.length];
+        int count = 0;
+        double[][] axes = getCameraAxes(camera);
+        for (int i = 0; i < chunks.length; i++) {
+            if (isInCameraView(camera, axes, centers[i], radii[i])) {
+                visible[i] = true;
+                count++;
+            }
+        }
+        int stride = Integer.highestOneBit(Math.max(1, count));
+        if (hasStaleLoads(visible, stride)) {
+            abortLoads();
+        }
+        for (int i = 0; i < chunks.length; i++) {
+            if (chunks[i] != null && !visible[i] && !chunks[i].isLoading) {
+                chunks[i] = null;
+            }
+        }
+        List<TileRequest> result = new ArrayList<>();
+        for (int i = 0; i < chunks.length; i++) {
+            if (visible[i]) {
+                TileRequest request = prepareLoad(i % chunkWidth, i / chunkWidth, stride);
+                if (request != null) {
+                    result.add(request);
+                }
+            }
+        }
+        if (result.isEmpty()) {
+            return null;
+        }
+        result.sort(Comparator.comparingDouble(request -> distance(camera, centers[request.chunkZ * chunkWidth + request.chunkX])));
+        Load load = new Load(result, generation);
+        loads.add(load);
+        return load;
+    }
+
+    private boolean hasStaleLoads(boolean[] visible, int stride) {
+        for (Load load : loads) {
+            for (TileRequest request : load.requests) {
+                if (request.chunk.isLoading && (!visible[request.chunkZ * chunkWidth + request.chunkX] || request.stride != stride)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void abortLoads() {
+        for (Load load : loads) {
+            load.abort();
+            restore(load);
+        }
+        loads.clear();
+        generation++;
+    }
+
+    /**
+     * Puts back the previous chunk in place of every chunk of the load that did not arrive, unless it was replaced since.
+     */
+    private void restore(Load load) {
+        for (TileRequest request : load.requests) {
+            int index = request.chunkZ * chunkWidth + request.chunkX;
+            if (request.chunk.isLoading && chunks[index] == request.chunk) {
+                chunks[index] = request.existing;
+            }
+        }
+    }
+
+    private TileRequest prepareLoad(int x, int z, int stride) {
+        Chunk existing = chunks[z * chunkWidth + x];
+        if (existing != null && (existing.isLoading || existing.stride == stride)) {
+            return null;
+        }
+        Chunk chunk = new Chunk(stride);
+        chunks[z * chunkWidth + x] = chunk;
+        int loadX = x * CHUNK_SIZE_PIXELS, loadZ = z * CHUNK_SIZE_PIXELS;
+        int loadWidth = CHUNK_SIZE_PIXELS, loadHeight = CHUNK_SIZE_PIXELS;
+        // the additional pixels connect the chunk to its neighbours
+        if (x != 0) {
+            loadX -= stride;
+            loadWidth += stride;
+        }
+        if (z != 0) {
+            loadZ -= stride;
+            loadHeight += stride;
+        }
+        if (x == chunkWidth - 1) {
+            loadWidth += stride;
+        }
+        if (z == chunkHeight - 1) {
+            loadHeight += stride;
+        }
+        return new TileRequest(x, z, loadX, loadZ, loadWidth, loadHeight, stride, chunk, existing);
+    }
+
+    /**
+     * Finishes loading a chunk, unless its load was aborted.
+     */
+    void onLoaded(Load load, TileRequest request) {
+        if (!load.aborted) {
+            request.chunk.isLoading = false;
+        }
+    }
+
+    /**
+     * Finishes the load. The chunks that could not be loaded are restored, so they are requested again with the next
+     * view change.
+     */
+    void onFinished(Load load) {
+        loads.remove(load);
+        restore(load);
+    }
+
+    /**
+     * @return the forward, right and up axis of a camera looking at the origin with the y axis up, like three.js
+     */
+    private static double[][] getCameraAxes(double[] camera) {
+        double[] forward = normalize(new double[]{-camera[0], -camera[1], -camera[2]});
+        double[] right = cross(forward, new double[]{0, 1, 0});
+        if (length(right) < 1e-9) {
+            right = cross(forward, new double[]{0, 0, 1});
+        }
+        right = normalize(right);
+        return new double[][]{forward, right, cross(right, forward)};
+    }
+
+    private static boolean isInCameraView(double[] camera, double[][] axes, double[] center, double sphereRadius) {
+        double[] offset = {center[0] - camera[0], center[1] - camera[1], center[2] - camera[2]};
+        double depth = dot(offset, axes[0]);
+        if (depth + sphereRadius < NEAR_METERS || depth - sphereRadius > FAR_METERS) {
+            return false;
+        }
+        double tanY = Math.tan(FIELD_OF_VIEW / 2), tanX = tanY * ASPECT;
+        double horizontal = Math.abs(dot(offset, axes[1])), vertical = Math.abs(dot(offset, axes[2]));
+        if ((horizontal - depth * tanX) / Math.sqrt(1 + tanX * tanX) > sphereRadius
+                || (vertical - depth * tanY) / Math.sqrt(1 + tanY * tanY) > sphereRadius) {
+            return false;
+        }
+        // the chunk faces the camera if the camera is above the plane through its center, tangent to the sphere
+        return dot(center, new double[]{camera[0] - center[0], camera[1] - center[1], camera[2] - center[2]}) > 0;
+    }
+
+    private static double dot(double[] a, double[] b) {
+        return a[0] * b[0] + a[1] * b[1] + a[2] * b[2];
+    }
+
+    private static double[] cross(double[] a, double[] b) {
+        return new double[]{a[1] * b[2] - a[2] * b[1], a[2] * b[0] - a[0] * b[2], a[0] * b[1] - a[1] * b[0]};
+    }
+
+    private static double length(double[] a) {
+        return Math.sqrt(dot(a, a));
+    }
+
+    private static double[] normalize(double[] a) {
+        double length = length(a);
+        return new double[]{a[0] / length, a[1] / length, a[2] / length};
+    }
+
+    private static double distance(double[] a, double[] b) {
+        return length(new double[]{a[0] - b[0], a[1] - b[1], a[2] - b[2]});
+    }
+
+    private static final class Chunk {
+
+        private final int stride;
+        private boolean isLoading = true;
+
+        private Chunk(int stride) {
+            this.stride = stride;
+        }
+    }
+
+    /**
+     * The tiles requested together after a view change.
+     */
+    static final class Load {
+
+        final List<TileRequest> requests;
+        final long generation;
+        private boolean aborted;
+        private Closeable connection;
+
+        private Load(List<TileRequest> requests, long generation) {
+            this.requests = requests;
+            this.generation = generation;
+        }
+
+        /**
+         * Sets the connection the tiles are received with, which is closed once the load is aborted.
+         *
+         * @return false if the load was aborted already, in which case the connection was closed
+         */
+        boolean setConnection(Closeable connection) {
+            this.connection = connection;
+            if (aborted) {
+                close();
+            }
+            return !aborted;
+        }
+
+        private void abort() {
+            aborted = true;
+            close();
+        }
+
+        private void close() {
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (IOException e) {
+                    // the connection is gone either way
+                }
+            }
+        }
+    }
+
+    /**
+     * A tile requested for a chunk, in pixel space.
+     */
+    static final class TileRequest {
+
+        final int chunkX, chunkZ;
+        final int x, z, width, height, stride;
+        private final Chunk chunk, existing;
+
+        private TileRequest(int chunkX, int chunkZ, int x, int z, int width, int height, int stride, Chunk chunk, Chunk existing) {
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+            this.x = x;
+            this.z = z;
+            this.width = width;
+            this.height = height;
+            this.stride = stride;
+            this.chunk = chunk;
+            this.existing = existing;
+        }
+    }
+}
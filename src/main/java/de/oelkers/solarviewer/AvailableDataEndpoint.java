@@ -1,30 +1,61 @@
 package de.oelkers.solarviewer;
 
-import de.oelkers.solarviewer.dataEndpoints.LolaDataEndpoint;
-import de.oelkers.solarviewer.dataEndpoints.MessengerDataEndpoint;
-import de.oelkers.solarviewer.dataEndpoints.MolaDataEndpoint;
+import de.oelkers.solarviewer.dataEndpoints.Dataset;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
 
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.List;
-
+/**
+ * Lists the available datasets as JSON, with everything the client needs to display them and whether they are fully
+ * initialized. The state is kept in memory, so this never touches the file system.
+ */
 public class AvailableDataEndpoint implements HttpHandler {
 
+    private final DatasetRegistry registry;
+
+    public AvailableDataEndpoint(DatasetRegistry registry) {
+        this.registry = registry;
+    }
+
     @Override
     public void handleRequest(HttpServerExchange exchange) throws Exception {
-        List<String> result = new ArrayList<>();
-        if (Files.exists(Path.of(MolaDataEndpoint.ORIGINAL_DATA))) {
-            result.add("Mars");
+        StringBuilder builder = new StringBuilder("[");
+        for (Dataset dataset : registry.getDatasets()) {
+            DatasetRegistry.State state = registry.getState(dataset.getId());
+            if (state == DatasetRegistry.State.UNAVAILABLE) {
+                continue;
+            }
+            if (builder.length() > 1) {
+                builder.append(',');
+            }
+            builder.append("{\"url\":");
+            appendString(builder, dataset.getId());
+            builder.append(",\"name\":");
+            appendString(builder, dataset.getName());
+            builder.append(",\"meterPerPixel\":").append(dataset.getMeterPerPixel())
+                    .append(",\"pixelsWidth\":").append(dataset.getWidth())
+                    .append(",\"pixelsHeight\":").append(dataset.getHeight())
+                    .append(",\"radiusMeters\":").append(dataset.getRadiusMeters())
+                    .append(",\"ready\":").append(state == DatasetRegistry.State.READY)
+                    .append('}');
         }
-        if (Files.exists(Path.of(LolaDataEndpoint.ORIGINAL_DATA))) {
-            result.add("Moon");
-        }
-        if (Files.exists(Path.of(MessengerDataEndpoint.ORIGINAL_DATA))) {
-            result.add("Mercury");
+        builder.append(']');
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+        exchange.getResponseSender().send(builder.toString());
+    }
+
+    private static void appendString(StringBuilder builder, String value) {
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < ' ') {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
         }
-        exchange.getResponseSender().send(String.join(",", result));
+        builder.append('"');
     }
 }
@@ -0,0 +1,90 @@
+package de.oelkers.solarviewer;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.StatusCodes;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Moves blocking handlers off the IO threads of the server onto a dedicated executor. The amount of requests that are
+ * either running or waiting for a thread is bounded, additional requests are rejected immediately with a 503 and a
+ * Retry-After header instead of piling up.
+ */
+public final class BoundedDispatcher {
+
+    private final ExecutorService executor;
+    private final Semaphore admissions;
+    private final int maxAdmissions;
+    private final String retryAfterSeconds;
+
+    /**
+     * @param executor the executor running the handlers
+     * @param maxAdmissions the maximum amount of requests which are either running or waiting to be run
+     * @param retryAfterSeconds the amount of seconds a client should wait before retrying a rejected request
+     */
+    public BoundedDispatcher(ExecutorService executor, int maxAdmissions, int retryAfterSeconds) {
+        this.executor = executor;
+        this.maxAdmissions = maxAdmissions;
+        admissions = new Semaphore(maxAdmissions);
+        this.retryAfterSeconds = String.valueOf(retryAfterSeconds);
+    }
+
+    /**
+     * Creates an executor with virtual threads if the runtime supports them, otherwise a fixed pool of platform threads.
+     */
+    public static ExecutorService createExecutor(int platformThreads) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(platformThreads, new WorkerThreadFactory());
+        }
+    }
+
+    /**
+     * Wraps the handler, so it is dispatched to the executor if there is capacity left or rejected otherwise.
+     */
+    public HttpHandler dispatching(HttpHandler next) {
+        return exchange -> {
+            if (!exchange.isInIoThread()) {
+                next.handleRequest(exchange);
+            } else if (admissions.tryAcquire()) {
+                // the response may still be sent asynchronously after the handler returned
+                exchange.addExchangeCompleteListener((completed, nextListener) -> {
+                    admissions.release();
+                    nextListener.proceed();
+                });
+                exchange.dispatch(executor, next);
+            } else {
+                reject(exchange);
+            }
+        };
+    }
+
+    private void reject(HttpServerExchange exchange) {
+        exchange.setStatusCode(StatusCodes.SERVICE_UNAVAILABLE);
+        exchange.getResponseHeaders().put(Headers.RETRY_AFTER, retryAfterSeconds);
+        exchange.endExchange();
+    }
+
+    public int getInFlight() {
+        return maxAdmissions - admissions.availablePermits();
+    }
+
+    private static final class WorkerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "tile-worker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package de.oelkers.solarviewer;
+
+import de.oelkers.solarviewer.dataEndpoints.Dataset;
+import de.oelkers.solarviewer.dataEndpoints.RasterDataEndpoint;
+import de.oelkers.solarviewer.dataEndpoints.TileKey;
+import de.oelkers.solarviewer.storage.OffHeapCache;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Holds the endpoints of all configured datasets. Whether a dataset is available is only checked once, when the
+ * registry is created. Creating the endpoints is cheap, so the server can start accepting requests right away, while
+ * the datasets are initialized in the background.
+ */
+public final class DatasetRegistry implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(DatasetRegistry.class.getName());
+    /**
+     * The system property with the path of the dataset configuration, which is loaded from the classpath if not set.
+     */
+    private static final String CONFIG_PROPERTY = "solarviewer.datasets";
+    private static final String DEFAULT_CONFIG = "datasets.properties";
+
+    public enum State {
+        /**
+         * The original data of the dataset does not exist.
+         */
+        UNAVAILABLE,
+        /**
+         * Tiles can be requested, but are loaded from the original data until the preprocessed data is opened.
+         */
+        INITIALIZING,
+        READY,
+        /**
+         * The preprocessed data could not be opened, tiles are still loaded from the original data.
+         */
+        FAILED
+    }
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    /**
+     * @param cache the cache shared by all endpoints, or null to disable caching
+     */
+    public DatasetRegistry(List<Dataset> datasets, OffHeapCache<TileKey> cache) throws IOException {
+        for (Dataset dataset : datasets) {
+            if (Files.exists(Path.of(dataset.getOriginalDataPath()))) {
+                entries.put(dataset.getId(), new Entry(dataset, new RasterDataEndpoint(dataset, cache), State.INITIALIZING));
+            } else {
+                entries.put(dataset.getId(), new Entry(dataset, null, State.UNAVAILABLE));
+            }
+        }
+    }
+
+    /**
+     * Loads the configured datasets, see {@link Dataset} for the format of the configuration.
+     */
+    public static List<Dataset> loadDatasets() throws IOException {
+        Properties properties = new Properties();
+        String path = System.getProperty(CONFIG_PROPERTY);
+        try (InputStream input = path == null ? ClassLoader.getSystemResourceAsStream(DEFAULT_CONFIG) : Files.newInputStream(Path.of(path))) {
+            if (input == null) {
+                throw new FileNotFoundException("No dataset configuration " + DEFAULT_CONFIG + " on the classpath");
+            }
+            properties.load(input);
+        }
+        return Dataset.fromProperties(properties);
+    }
+
+    /**
+     * Initializes all available datasets on the executor. Failures are logged and only affect the failed dataset.
+     */
+    public void initialize(Executor executor) {
+        for (Entry entry : entries.values()) {
+            if (entry.endpoint != null) {
+                executor.execute(() -> initialize(entry));
+            }
+        }
+    }
+
+    private static void initialize(Entry entry) {
+        String id = entry.dataset.getId();
+        try {
+            long start = System.nanoTime();
+            entry.endpoint.initialize();
+            entry.state = State.READY;
+            LOGGER.info(() -> "Initialized " + id + " in " + (System.nanoTime() - start) / 1_000_000 + "ms");
+        } catch (IOException | RuntimeException e) {
+            entry.state = State.FAILED;
+            LOGGER.log(Level.SEVERE, e, () -> "Could not initialize " + id);
+        }
+    }
+
+    public List<Dataset> getDatasets() {
+        List<Dataset> result = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) {
+            result.add(entry.dataset);
+        }
+        return result;
+    }
+
+    /**
+     * @return the endpoint of the dataset or null, if it is not available
+     */
+    public RasterDataEndpoint getEndpoint(String id) {
+        Entry entry = entries.get(id);
+        return entry == null ? null : entry.endpoint;
+    }
+
+    public State getState(String id) {
+        Entry entry = entries.get(id);
+        return entry == null ? State.UNAVAILABLE : entry.state;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Entry entry : entries.values()) {
+            if (entry.endpoint != null) {
+                entry.endpoint.close();
+            }
+        }
+    }
+
+    private static final class Entry {
+
+        private final Dataset dataset;
+        private final RasterDataEndpoint endpoint;
+        private volatile State state;
+
+        private Entry(Dataset dataset, RasterDataEndpoint endpoint, State state) {
+            this.dataset = dataset;
+            this.endpoint = endpoint;
+            this.state = state;
+        }
+    }
+}
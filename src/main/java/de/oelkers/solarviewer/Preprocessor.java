@@ -0,0 +1,30 @@
+package de.oelkers.solarviewer;
+
+import de.oelkers.solarviewer.dataEndpoints.Dataset;
+import de.oelkers.solarviewer.dataEndpoints.RasterDataEndpoint;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Builds the marked data, the elevation index and the tiled representation of all available datasets, which are
+ * served by the {@link SolarViewerServer} without decoding the original data on each request. The server only opens
+ * them, so this has to be run before and again whenever the original data changes.
+ */
+public final class Preprocessor {
+
+    private Preprocessor() {}
+
+    public static void main(String[] args) throws IOException {
+        for (Dataset dataset : DatasetRegistry.loadDatasets()) {
+            if (Files.exists(Path.of(dataset.getOriginalDataPath()))) {
+                try (RasterDataEndpoint endpoint = new RasterDataEndpoint(dataset, null)) {
+                    endpoint.buildMarkedData();
+                    endpoint.buildIndex();
+                    endpoint.buildTiledData();
+                }
+            }
+        }
+    }
+}
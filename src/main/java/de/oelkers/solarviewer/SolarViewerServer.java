@@ -1,10 +1,21 @@
 package de.oelkers.solarviewer;
 
-import de.oelkers.solarviewer.dataEndpoints.LolaDataEndpoint;
-import de.oelkers.solarviewer.dataEndpoints.MessengerDataEndpoint;
-import de.oelkers.solarviewer.dataEndpoints.MolaDataEndpoint;
+import de.oelkers.solarviewer.dataEndpoints.ChunkBoundsEndpoint;
+import de.oelkers.solarviewer.dataEndpoints.Dataset;
+import de.oelkers.solarviewer.dataEndpoints.ExtremaEndpoint;
+import de.oelkers.solarviewer.dataEndpoints.MeshEndpoint;
+import de.oelkers.solarviewer.dataEndpoints.MeshKey;
+import de.oelkers.solarviewer.dataEndpoints.RasterDataEndpoint;
+import de.oelkers.solarviewer.dataEndpoints.SampleEndpoint;
+import de.oelkers.solarviewer.dataEndpoints.TileBatchEndpoint;
+import de.oelkers.solarviewer.dataEndpoints.TileKey;
+import de.oelkers.solarviewer.dataEndpoints.TilePrefetcher;
+import de.oelkers.solarviewer.dataEndpoints.ViewGenerations;
+import de.oelkers.solarviewer.metrics.MetricsEndpoint;
+import de.oelkers.solarviewer.storage.OffHeapCache;
 import io.undertow.Handlers;
 import io.undertow.Undertow;
+import io.undertow.UndertowOptions;
 import io.undertow.server.RoutingHandler;
 import io.undertow.server.handlers.resource.ClassPathResourceManager;
 import io.undertow.server.handlers.resource.ResourceHandler;
@@ -12,24 +23,118 @@ import io.undertow.server.handlers.resource.ResourceManager;
 import io.undertow.util.Methods;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public final class SolarViewerServer {
 
+    private static final int PORT = Integer.getInteger("solarviewer.port", 8080);
+    /**
+     * The budget of the tile cache in bytes, which is allocated in direct memory. If it is bigger than the maximum heap
+     * size, -XX:MaxDirectMemorySize has to be increased accordingly.
+     */
+    private static final long CACHE_BYTES = Long.getLong("solarviewer.cacheBytes", 512L * 1024 * 1024);
+    private static final int AVERAGE_TILE_BYTES = 256 * 1024;
+    /**
+     * The budget of the cache of adaptive meshes in bytes, which is allocated in direct memory as well.
+     */
+    private static final long MESH_CACHE_BYTES = Long.getLong("solarviewer.meshCacheBytes", 64L * 1024 * 1024);
+    private static final int AVERAGE_MESH_BYTES = 64 * 1024;
+    /**
+     * The amount of platform threads loading tiles, if the runtime does not support virtual threads.
+     */
+    private static final int WORKER_THREADS = Integer.getInteger("solarviewer.workerThreads", 2 * Runtime.getRuntime().availableProcessors());
+    /**
+     * The amount of tile requests waiting for a free worker, before new requests are rejected.
+     */
+    private static final int MAX_QUEUED_REQUESTS = Integer.getInteger("solarviewer.maxQueuedRequests", 256);
+    private static final int RETRY_AFTER_SECONDS = 1;
+    private static final int PREFETCH_THREADS = Integer.getInteger("solarviewer.prefetchThreads", 1);
+    /**
+     * The amount of predicted tiles which are either being prefetched or waiting to be, before further predictions are
+     * dropped.
+     */
+    private static final int MAX_PENDING_PREFETCHES = Integer.getInteger("solarviewer.maxPendingPrefetches", 64);
+    /**
+     * Tiles are only prefetched while at most this many requests are handled, so prefetching never competes with
+     * requests waiting for a worker.
+     */
+    private static final int PREFETCH_MAX_IN_FLIGHT = Integer.getInteger("solarviewer.prefetchMaxInFlight", Math.max(1, WORKER_THREADS / 2));
+    /**
+     * The amount of datasets initialized at the same time. Their preprocessed data is only opened, but the elevation
+     * index of a whole planet still takes a moment to read.
+     */
+    private static final int INIT_THREADS = Integer.getInteger("solarviewer.initThreads", 2);
+
     private SolarViewerServer() {}
 
     public static void main(String[] args) throws IOException {
+        OffHeapCache<TileKey> cache = new OffHeapCache<>(CACHE_BYTES, (int) (CACHE_BYTES / AVERAGE_TILE_BYTES));
+        OffHeapCache<MeshKey> meshCache = new OffHeapCache<>(MESH_CACHE_BYTES, (int) (MESH_CACHE_BYTES / AVERAGE_MESH_BYTES));
+        ExecutorService executor = BoundedDispatcher.createExecutor(WORKER_THREADS);
+        BoundedDispatcher dispatcher = new BoundedDispatcher(executor, WORKER_THREADS + MAX_QUEUED_REQUESTS, RETRY_AFTER_SECONDS);
         ResourceManager resourceManager = new ClassPathResourceManager(ClassLoader.getSystemClassLoader(), "static");
         ResourceHandler resourceHandler = Handlers.resource(resourceManager);
         RoutingHandler routingHandler = new RoutingHandler();
         routingHandler.add(Methods.GET, "/*", resourceHandler);
-        routingHandler.add(Methods.GET, "/available", new AvailableDataEndpoint());
-        routingHandler.add(Methods.GET, "/mola", new MolaDataEndpoint());
-        routingHandler.add(Methods.GET, "/lola", new LolaDataEndpoint());
-        routingHandler.add(Methods.GET, "/messenger", new MessengerDataEndpoint());
+        DatasetRegistry registry = new DatasetRegistry(DatasetRegistry.loadDatasets(), cache);
+        routingHandler.add(Methods.GET, "/available", new AvailableDataEndpoint(registry));
+        TilePrefetcher prefetcher = new TilePrefetcher(PREFETCH_THREADS, MAX_PENDING_PREFETCHES,
+                () -> dispatcher.getInFlight() <= PREFETCH_MAX_IN_FLIGHT);
+        MetricsEndpoint metrics = createMetrics(cache, meshCache, dispatcher, prefetcher);
+        routingHandler.add(Methods.GET, "/metrics", metrics);
+        ExecutorService batchExecutor = TileBatchEndpoint.createExecutor(Runtime.getRuntime().availableProcessors());
+        ViewGenerations generations = new ViewGenerations();
+        for (Dataset dataset : registry.getDatasets()) {
+            RasterDataEndpoint endpoint = registry.getEndpoint(dataset.getId());
+            if (endpoint != null) {
+                addDataset(routingHandler, dispatcher, batchExecutor, generations, meshCache, metrics, prefetcher, dataset.getId(), endpoint);
+            }
+        }
         Undertow server = Undertow.builder()
-                .addHttpListener(8080, "0.0.0.0")
+                .addHttpListener(PORT, "0.0.0.0")
+                // required to measure how long tile requests wait for a worker
+                .setServerOption(UndertowOptions.RECORD_REQUEST_START_TIME, true)
                 .setHandler(routingHandler)
                 .build();
         server.start();
+        ExecutorService initExecutor = Executors.newFixedThreadPool(INIT_THREADS);
+        registry.initialize(initExecutor);
+        // the threads terminate once all datasets are initialized
+        initExecutor.shutdown();
+    }
+
+    private static MetricsEndpoint createMetrics(OffHeapCache<TileKey> cache, OffHeapCache<MeshKey> meshCache, BoundedDispatcher dispatcher,
+                                                 TilePrefetcher prefetcher) {
+        MetricsEndpoint metrics = new MetricsEndpoint();
+        metrics.addGauge("solarviewer_dispatcher_in_flight", "Requests being handled or waiting for a worker", dispatcher::getInFlight);
+        metrics.addCounter("solarviewer_cache_hits_total", "Tiles served from the cache", cache::getHits);
+        metrics.addCounter("solarviewer_cache_misses_total", "Tiles that were not cached", cache::getMisses);
+        metrics.addCounter("solarviewer_cache_evictions_total", "Tiles evicted from the cache", cache::getEvictions);
+        metrics.addCounter("solarviewer_cache_rejections_total", "Tiles not admitted to the cache", cache::getRejections);
+        metrics.addGauge("solarviewer_cache_bytes", "Bytes currently used by the cache", cache::getSize);
+        metrics.addGauge("solarviewer_cache_entries", "Tiles currently cached", cache::getEntryCount);
+        metrics.addCounter("solarviewer_mesh_cache_hits_total", "Meshes served from the cache", meshCache::getHits);
+        metrics.addCounter("solarviewer_mesh_cache_misses_total", "Meshes that were not cached", meshCache::getMisses);
+        metrics.addGauge("solarviewer_mesh_cache_bytes", "Bytes currently used by the mesh cache", meshCache::getSize);
+        metrics.addCounter("solarviewer_prefetched_tiles_total", "Tiles loaded into the cache before being requested", prefetcher::getPrefetched);
+        metrics.addCounter("solarviewer_prefetch_skipped_tiles_total", "Predicted tiles which were already cached or not loaded",
+                prefetcher::getSkipped);
+        return metrics;
+    }
+
+    private static void addDataset(RoutingHandler routingHandler, BoundedDispatcher dispatcher, ExecutorService batchExecutor,
+                                   ViewGenerations generations, OffHeapCache<MeshKey> meshCache, MetricsEndpoint metrics,
+                                   TilePrefetcher prefetcher, String name, RasterDataEndpoint endpoint) {
+        String route = "/" + name;
+        routingHandler.add(Methods.GET, route, dispatcher.dispatching(endpoint));
+        routingHandler.add(Methods.POST, route + "/tiles", dispatcher.dispatching(new TileBatchEndpoint(endpoint, batchExecutor, generations)));
+        routingHandler.add(Methods.POST, route + "/samples", dispatcher.dispatching(new SampleEndpoint(endpoint)));
+        routingHandler.add(Methods.GET, route + "/mesh", dispatcher.dispatching(new MeshEndpoint(endpoint, meshCache)));
+        // both only read the elevation index in memory, so they are cheap enough to run on the IO threads
+        routingHandler.add(Methods.GET, route + "/extrema", new ExtremaEndpoint(endpoint));
+        routingHandler.add(Methods.GET, route + "/bounds", new ChunkBoundsEndpoint(endpoint));
+        metrics.addDataset(name, endpoint.getMetrics());
+        endpoint.setPrefetcher(prefetcher);
     }
 }
@@ -0,0 +1,56 @@
+package de.oelkers.solarviewer.dataEndpoints;
+
+import de.oelkers.solarviewer.storage.ElevationIndex;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+
+/**
+ * Sends the minimum, maximum and mean elevation of every chunk of a dataset as JSON, which the client uses to build
+ * bounding volumes of the chunks before loading them. The arrays are ordered row by row. Since the bounds never change,
+ * the response is only created once, after the dataset was initialized.
+ */
+public class ChunkBoundsEndpoint implements HttpHandler {
+
+    private final RasterDataEndpoint endpoint;
+    private volatile String response;
+
+    public ChunkBoundsEndpoint(RasterDataEndpoint endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) {
+        String result = response;
+        if (result == null) {
+            ElevationIndex index = endpoint.getIndex();
+            if (index == null) {
+                ExtremaEndpoint.notReady(exchange);
+                return;
+            }
+            result = createResponse(index, RasterDataEndpoint.CHUNK_SIZE);
+            response = result;
+        }
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+        exchange.getResponseSender().send(result);
+    }
+
+    static String createResponse(ElevationIndex index, int chunkSize) {
+        int chunksX = (index.getWidth() + chunkSize - 1) / chunkSize;
+        int chunksZ = (index.getHeight() + chunkSize - 1) / chunkSize;
+        StringBuilder min = new StringBuilder(), max = new StringBuilder(), mean = new StringBuilder();
+        for (int chunkZ = 0; chunkZ < chunksZ; chunkZ++) {
+            for (int chunkX = 0; chunkX < chunksX; chunkX++) {
+                int x = chunkX * chunkSize, z = chunkZ * chunkSize;
+                ElevationIndex.Summary summary = index.query(x, z, Math.min(chunkSize, index.getWidth() - x),
+                        Math.min(chunkSize, index.getHeight() - z));
+                String separator = min.length() == 0 ? "" : ",";
+                min.append(separator).append(summary.getMin());
+                max.append(separator).append(summary.getMax());
+                mean.append(separator).append(Math.round(summary.getMean()));
+            }
+        }
+        return "{\"chunkSize\":" + chunkSize + ",\"chunksX\":" + chunksX + ",\"chunksZ\":" + chunksZ
+                + ",\"min\":[" + min + "],\"max\":[" + max + "],\"mean\":[" + mean + "]}";
+    }
+}
@@ -0,0 +1,99 @@
+package de.oelkers.solarviewer.dataEndpoints;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The content encodings an encoded tile can be compressed with. The encoding is negotiated per request with the
+ * "Accept-Encoding" header, preferring gzip over deflate, since it is supported more reliably.
+ */
+public enum ContentEncoding {
+
+    IDENTITY("identity") {
+        @Override
+        public ByteBuffer encode(ByteBuffer data) {
+            return data;
+        }
+    },
+
+    GZIP("gzip") {
+        @Override
+        public ByteBuffer encode(ByteBuffer data) throws IOException {
+            ByteArrayOutputStream output = new ByteArrayOutputStream(data.remaining() / 2);
+            try (OutputStream gzip = new GZIPOutputStream(output)) {
+                write(data, gzip);
+            }
+            return ByteBuffer.wrap(output.toByteArray());
+        }
+    },
+
+    /**
+     * The zlib format, which is what HTTP means by deflate, not the raw deflate format.
+     */
+    DEFLATE("deflate") {
+        @Override
+        public ByteBuffer encode(ByteBuffer data) throws IOException {
+            ByteArrayOutputStream output = new ByteArrayOutputStream(data.remaining() / 2);
+            try (OutputStream deflate = new DeflaterOutputStream(output)) {
+                write(data, deflate);
+            }
+            return ByteBuffer.wrap(output.toByteArray());
+        }
+    };
+
+    private static final int COPY_BUFFER_SIZE = 8192;
+
+    private final String name;
+
+    ContentEncoding(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Compresses the data, without modifying the position of the given buffer.
+     *
+     * @return the compressed data, ready to be sent
+     */
+    public abstract ByteBuffer encode(ByteBuffer data) throws IOException;
+
+    public String getName() {
+        return name;
+    }
+
+    private static void write(ByteBuffer data, OutputStream output) throws IOException {
+        ByteBuffer source = data.duplicate();
+        byte[] buffer = new byte[Math.min(COPY_BUFFER_SIZE, source.remaining())];
+        while (source.hasRemaining()) {
+            int length = Math.min(buffer.length, source.remaining());
+            source.get(buffer, 0, length);
+            output.write(buffer, 0, length);
+        }
+    }
+
+    public static ContentEncoding negotiate(HttpServerExchange exchange) {
+        String acceptEncoding = exchange.getRequestHeaders().getFirst(Headers.ACCEPT_ENCODING);
+        if (acceptEncoding == null) {
+            return IDENTITY;
+        }
+        boolean deflate = false;
+        for (String candidate : acceptEncoding.split(",")) {
+            String[] parameters = candidate.split(";");
+            String name = parameters[0].trim();
+            if (parameters.length > 1 && parameters[1].trim().matches("q=0(\\.0*)?")) {
+                continue;
+            }
+            if (name.equalsIgnoreCase(GZIP.name)) {
+                return GZIP;
+            }
+            deflate |= name.equalsIgnoreCase(DEFLATE.name);
+        }
+        return deflate ? DEFLATE : IDENTITY;
+    }
+}
@@ -0,0 +1,137 @@
+package de.oelkers.solarviewer.dataEndpoints;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Describes an elevation dataset of a single body. The datasets are configured in a properties file, where the
+ * property "datasets" lists the ids of all datasets separated by commas and each dataset is configured by properties
+ * prefixed with its id:
+ *
+ * <pre>
+ * datasets=mola
+ * mola.name=Mars
+ * mola.original=data/Mars_MGS_MOLA_DEM_mosaic_global_463m.tif
+ * mola.width=46080
+ * mola.height=23040
+ * mola.meterPerPixel=463.0835744
+ * mola.radius=3396190
+ * </pre>
+ *
+ * The paths of the marked data, the tiled data and the elevation index are derived from the path of the original data,
+ * unless they are configured with "marked", "tiled" and "index".
+ */
+public final class Dataset {
+
+    private static final String ORIGINAL_EXTENSION = ".tif";
+
+    private final String id, name;
+    private final String originalDataPath, markedDataPath, tiledDataPath, indexDataPath;
+    private final int width, height;
+    private final double meterPerPixel, radiusMeters;
+
+    /**
+     * @param id the id of the dataset, which is also the route it is served under
+     * @param name the name of the body shown to the user
+     */
+    public Dataset(String id, String name, String originalDataPath, String markedDataPath, String tiledDataPath,
+                   String indexDataPath, int width, int height, double meterPerPixel, double radiusMeters) {
+        this.id = id;
+        this.name = name;
+        this.originalDataPath = originalDataPath;
+        this.markedDataPath = markedDataPath;
+        this.tiledDataPath = tiledDataPath;
+        this.indexDataPath = indexDataPath;
+        this.width = width;
+        this.height = height;
+        this.meterPerPixel = meterPerPixel;
+        this.radiusMeters = radiusMeters;
+    }
+
+    /**
+     * @throws IllegalArgumentException if a required property is missing or not a valid number
+     */
+    public static List<Dataset> fromProperties(Properties properties) {
+        List<Dataset> result = new ArrayList<>();
+        for (String id : getRequired(properties, "datasets").split(",")) {
+            id = id.trim();
+            if (id.isEmpty()) {
+                continue;
+            }
+            String original = getRequired(properties, id + ".original");
+            String base = original.endsWith(ORIGINAL_EXTENSION) ? original.substring(0, original.length() - ORIGINAL_EXTENSION.length()) : original;
+            result.add(new Dataset(id, properties.getProperty(id + ".name", id), original,
+                    properties.getProperty(id + ".marked", base + "_marked.tiles"),
+                    properties.getProperty(id + ".tiled", base + ".tiles"),
+                    properties.getProperty(id + ".index", base + ".index"),
+                    getInt(properties, id + ".width"), getInt(properties, id + ".height"),
+                    getDouble(properties, id + ".meterPerPixel"), getDouble(properties, id + ".radius")));
+        }
+        return result;
+    }
+
+    private static String getRequired(Properties properties, String key) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing dataset property " + key);
+        }
+        return value.trim();
+    }
+
+    private static int getInt(Properties properties, String key) {
+        try {
+            return Integer.parseInt(getRequired(properties, key));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid dataset property " + key, e);
+        }
+    }
+
+    private static double getDouble(Properties properties, String key) {
+        try {
+            return Double.parseDouble(getRequired(properties, key));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid dataset property " + key, e);
+        }
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getOriginalDataPath() {
+        return originalDataPath;
+    }
+
+    public String getMarkedDataPath() {
+        return markedDataPath;
+    }
+
+    public String getTiledDataPath() {
+        return tiledDataPath;
+    }
+
+    public String getIndexDataPath() {
+        return indexDataPath;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public double getMeterPerPixel() {
+        return meterPerPixel;
+    }
+
+    public double getRadiusMeters() {
+        return radiusMeters;
+    }
+}
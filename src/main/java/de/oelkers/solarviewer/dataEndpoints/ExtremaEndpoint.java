@@ -0,0 +1,98 @@
+package de.oelkers.solarviewer.dataEndpoints;
+
+import de.oelkers.solarviewer.storage.ElevationIndex;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.StatusCodes;
+
+import java.util.Deque;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Finds the lowest and highest point and the mean elevation within a box of latitudes and longitudes, which are given
+ * in degrees north and east by the query parameters "minLat", "maxLat", "minLon" and "maxLon" and default to the whole
+ * dataset. If "minLon" is greater than "maxLon", the box crosses the antimeridian. The answer is computed from the
+ * elevation index, so it is only available once the dataset is initialized and the box is resolved to the cells of the
+ * index.
+ */
+public class ExtremaEndpoint implements HttpHandler {
+
+    static final String RETRY_AFTER_SECONDS = "5";
+
+    private final RasterDataEndpoint endpoint;
+
+    public ExtremaEndpoint(RasterDataEndpoint endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) {
+        ElevationIndex index = endpoint.getIndex();
+        if (index == null) {
+            notReady(exchange);
+            return;
+        }
+        Map<String, Deque<String>> params = exchange.getQueryParameters();
+        double minLat, maxLat, minLon, maxLon;
+        try {
+            minLat = getDegrees(params, "minLat", -90);
+            maxLat = getDegrees(params, "maxLat", 90);
+            minLon = getDegrees(params, "minLon", -180);
+            maxLon = getDegrees(params, "maxLon", 180);
+        } catch (NumberFormatException e) {
+            exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+            return;
+        }
+        if (minLat < -90 || maxLat > 90 || minLat >= maxLat || minLon < -180 || maxLon > 180 || minLon == maxLon) {
+            exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+            return;
+        }
+        ElevationIndex.Summary summary;
+        if (minLon < maxLon) {
+            summary = query(index, minLat, maxLat, minLon, maxLon);
+        } else {
+            summary = query(index, minLat, maxLat, minLon, 180).merge(query(index, minLat, maxLat, -180, maxLon));
+        }
+        StringBuilder builder = new StringBuilder("{\"min\":");
+        appendPoint(builder, index, summary.getMin(), summary.getMinX(), summary.getMinZ());
+        builder.append(",\"max\":");
+        appendPoint(builder, index, summary.getMax(), summary.getMaxX(), summary.getMaxZ());
+        builder.append(",\"mean\":").append(String.format(Locale.ROOT, "%.1f", summary.getMean())).append('}');
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+        exchange.getResponseSender().send(builder.toString());
+    }
+
+    static void notReady(HttpServerExchange exchange) {
+        exchange.setStatusCode(StatusCodes.SERVICE_UNAVAILABLE);
+        exchange.getResponseHeaders().put(Headers.RETRY_AFTER, RETRY_AFTER_SECONDS);
+    }
+
+    private static double getDegrees(Map<String, Deque<String>> params, String name, double defaultValue) {
+        Deque<String> value = params.get(name);
+        return value == null ? defaultValue : Double.parseDouble(value.getFirst());
+    }
+
+    /**
+     * Queries the smallest region of whole pixels covering the box, which always contains at least one pixel.
+     */
+    static ElevationIndex.Summary query(ElevationIndex index, double minLat, double maxLat, double minLon, double maxLon) {
+        int left = (int) Math.floor((minLon + 180) / 360 * index.getWidth());
+        int right = (int) Math.ceil((maxLon + 180) / 360 * index.getWidth());
+        int top = (int) Math.floor((90 - maxLat) / 180 * index.getHeight());
+        int bottom = (int) Math.ceil((90 - minLat) / 180 * index.getHeight());
+        left = Math.min(left, index.getWidth() - 1);
+        top = Math.min(top, index.getHeight() - 1);
+        return index.query(left, top, Math.max(1, right - left), Math.max(1, bottom - top));
+    }
+
+    private static void appendPoint(StringBuilder builder, ElevationIndex index, short elevation, int x, int z) {
+        double latitude = 90 - (z + 0.5) / index.getHeight() * 180;
+        double longitude = (x + 0.5) / index.getWidth() * 360 - 180;
+        builder.append("{\"elevation\":").append(elevation)
+                .append(",\"latitude\":").append(String.format(Locale.ROOT, "%.5f", latitude))
+                .append(",\"longitude\":").append(String.format(Locale.ROOT, "%.5f", longitude))
+                .append('}');
+    }
+}
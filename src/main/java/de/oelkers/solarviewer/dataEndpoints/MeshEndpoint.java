@@ -0,0 +1,148 @@
+package de.oelkers.solarviewer.dataEndpoints;
+
+import de.oelkers.solarviewer.storage.OffHeapCache;
+import de.oelkers.solarviewer.utils.SingleFlight;
+import de.oelkers.solarviewer.utils.TerrainMesher;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.StatusCodes;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the terrain of a chunk as an adaptive triangle mesh, which only uses as many triangles as necessary to stay
+ * within a vertical error tolerance, see {@link TerrainMesher}. The query parameters are the position of the chunk "x"
+ * and "z" in chunk space, the "tolerance" in meters and the "size", which is the amount of cells per side of the grid
+ * the chunk is sampled with and must be a power of two up to {@link #MAX_GRID_SIZE}. The vertices on the border of a
+ * chunk are the same as the ones of its neighbours with the same size, so they can be rendered without cracks.
+ * <p>
+ * The response contains a header of {@link #HEADER_BYTES} with the size, the amount of vertices, the amount of indices
+ * and the position (x, z) and width of the chunk in pixel space as 32 bit integers. It is followed by the column and
+ * row of each vertex in the grid as unsigned 16 bit integers, the elevation of each vertex in meters as 32 bit floats
+ * and the indices of the triangles as unsigned 16 bit integers, or 32 bit integers if there are more than 65536
+ * vertices. All values are in little-endian byte order and aligned, so they can be viewed as typed arrays by the client
+ * without any parsing. Must be dispatched to a worker thread, since meshing a chunk takes a while.
+ */
+public class MeshEndpoint implements HttpHandler {
+
+    public static final int MAX_GRID_SIZE = 1024;
+    public static final int HEADER_BYTES = 6 * Integer.BYTES;
+    private static final double MAX_TOLERANCE = 10_000;
+    private static final List<String> PARAMETERS = List.of("x", "z", "size", "tolerance");
+
+    private final RasterDataEndpoint endpoint;
+    private final OffHeapCache<MeshKey> cache;
+    private final int chunkSize;
+    private final SingleFlight<MeshKey, ByteBuffer> loading = new SingleFlight<>(RasterDataEndpoint.COALESCING_TIMEOUT_MILLIS,
+            TimeUnit.MILLISECONDS, () -> {}, () -> {});
+
+    /**
+     * @param cache the cache of the meshes or null, if they should not be cached
+     */
+    public MeshEndpoint(RasterDataEndpoint endpoint, OffHeapCache<MeshKey> cache) {
+        this(endpoint, cache, RasterDataEndpoint.CHUNK_SIZE);
+    }
+
+    MeshEndpoint(RasterDataEndpoint endpoint, OffHeapCache<MeshKey> cache, int chunkSize) {
+        this.endpoint = endpoint;
+        this.cache = cache;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        Map<String, Deque<String>> params = exchange.getQueryParameters();
+        if (!params.keySet().containsAll(PARAMETERS)) {
+            exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+            return;
+        }
+        int x, z, size;
+        double tolerance;
+        try {
+            x = Integer.parseInt(params.get("x").getFirst());
+            z = Integer.parseInt(params.get("z").getFirst());
+            size = Integer.parseInt(params.get("size").getFirst());
+            tolerance = Double.parseDouble(params.get("tolerance").getFirst());
+        } catch (NumberFormatException e) {
+            exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+            return;
+        }
+        if (x < 0 || z < 0 || x >= endpoint.getWidth() / chunkSize || z >= endpoint.getHeight() / chunkSize
+                || size < 2 || size > MAX_GRID_SIZE || Integer.bitCount(size) != 1 || !(tolerance >= 0 && tolerance <= MAX_TOLERANCE)) {
+            exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+            return;
+        }
+        ByteBuffer mesh = getMesh(endpoint.createMeshKey(x, z, size, tolerance));
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/octet-stream");
+        exchange.getResponseSender().send(mesh);
+    }
+
+    /**
+     * Gets the encoded mesh from the cache if possible, otherwise creates and caches it. Concurrent requests for the
+     * same mesh share a single creation.
+     */
+    private ByteBuffer getMesh(MeshKey key) throws IOException {
+        if (cache != null) {
+            ByteBuffer cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        return loading.load(key, () -> {
+            // the previous creation of the mesh may have completed right after this request missed the cache
+            ByteBuffer cached = cache == null ? null : cache.peek(key);
+            if (cached != null) {
+                return cached;
+            }
+            ByteBuffer mesh = createMesh(key);
+            return cache == null ? mesh : cache.put(key, mesh);
+        }).duplicate();
+    }
+
+    private ByteBuffer createMesh(MeshKey key) throws IOException {
+        int samples = key.getSize() + 1;
+        int left = key.getX() * chunkSize, top = key.getZ() * chunkSize;
+        double[] positions = new double[2 * samples * samples];
+        for (int row = 0; row < samples; row++) {
+            for (int column = 0; column < samples; column++) {
+                // the vertices are at the center of the pixels, like the vertices of the uniform tiles
+                positions[2 * (row * samples + column)] = left + (double) column * chunkSize / key.getSize() + 0.5;
+                positions[2 * (row * samples + column) + 1] = top + (double) row * chunkSize / key.getSize() + 0.5;
+            }
+        }
+        float[] elevations = SampleEndpoint.sample(positions, endpoint.getWidth(), endpoint.getHeight(), SampleEndpoint.TILE_SIZE,
+                endpoint::getSamples);
+        return encode(new TerrainMesher(elevations, samples).createMesh(key.getTolerance()), elevations, key.getSize(),
+                left, top, chunkSize);
+    }
+
+    static ByteBuffer encode(TerrainMesher.Mesh mesh, float[] elevations, int size, int x, int z, int width) {
+        int vertices = mesh.getVertexCount();
+        int[] indices = mesh.getIndices();
+        int indexBytes = vertices > 1 << 16 ? Integer.BYTES : Short.BYTES;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + vertices * (2 * Short.BYTES + Float.BYTES) + indices.length * indexBytes)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(size).putInt(vertices).putInt(indices.length).putInt(x).putInt(z).putInt(width);
+        for (int vertex = 0; vertex < vertices; vertex++) {
+            buffer.putShort((short) mesh.getX(vertex)).putShort((short) mesh.getZ(vertex));
+        }
+        for (int vertex = 0; vertex < vertices; vertex++) {
+            buffer.putFloat(elevations[mesh.getZ(vertex) * (size + 1) + mesh.getX(vertex)]);
+        }
+        for (int index : indices) {
+            if (indexBytes == Short.BYTES) {
+                buffer.putShort((short) index);
+            } else {
+                buffer.putInt(index);
+            }
+        }
+        return buffer.flip();
+    }
+}
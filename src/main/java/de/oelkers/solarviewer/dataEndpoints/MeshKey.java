@@ -0,0 +1,64 @@
+package de.oelkers.solarviewer.dataEndpoints;
+
+import java.util.Objects;
+
+/**
+ * Identifies the adaptive mesh of a chunk, which is always the same for the same grid size and tolerance.
+ */
+public final class MeshKey {
+
+    private final String dataset;
+    private final int x, z, size;
+    private final double tolerance;
+
+    public MeshKey(String dataset, int x, int z, int size, double tolerance) {
+        this.dataset = dataset;
+        this.x = x;
+        this.z = z;
+        this.size = size;
+        this.tolerance = tolerance;
+    }
+
+    public String getDataset() {
+        return dataset;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getZ() {
+        return z;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (other == null || getClass() != other.getClass()) {
+            return false;
+        }
+        MeshKey meshKey = (MeshKey) other;
+        return x == meshKey.x && z == meshKey.z && size == meshKey.size && Double.compare(tolerance, meshKey.tolerance) == 0
+                && dataset.equals(meshKey.dataset);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(dataset, x, z, size, tolerance);
+    }
+
+    @Override
+    public String toString() {
+        return dataset + "[x=" + x + ", z=" + z + ", size=" + size + ", tolerance=" + tolerance + "]";
+    }
+}
@@ -1,45 +1,149 @@
 package de.oelkers.solarviewer.dataEndpoints;
 
+import de.oelkers.solarviewer.metrics.TileMetrics;
+import de.oelkers.solarviewer.storage.ElevationIndex;
+import de.oelkers.solarviewer.storage.ImageReaderPool;
+import de.oelkers.solarviewer.storage.OffHeapCache;
+import de.oelkers.solarviewer.storage.TiledElevationStore;
+import de.oelkers.solarviewer.storage.TiledElevationStoreBuilder;
+import de.oelkers.solarviewer.utils.Cancellation;
+import de.oelkers.solarviewer.utils.ShortRaster;
+import de.oelkers.solarviewer.utils.SingleFlight;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.util.ETag;
+import io.undertow.util.ETagUtils;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.Headers;
+import io.undertow.util.StatusCodes;
 
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
 import javax.imageio.ImageWriter;
+import javax.imageio.stream.FileImageInputStream;
 import javax.imageio.stream.ImageInputStream;
 import javax.imageio.stream.ImageOutputStream;
 import java.awt.*;
 import java.awt.color.ColorSpace;
 import java.awt.image.*;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Arrays;
 import java.util.Deque;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import static de.oelkers.solarviewer.utils.ArrayUtils.*;
 import static de.oelkers.solarviewer.utils.RasterDataRedundancy.findRedundancies;
 
-public abstract class RasterDataEndpoint implements HttpHandler {
+/**
+ * Serves tiles of a single dataset. Creating an endpoint is cheap, the preprocessed data is only opened by
+ * {@link #initialize()}. Until then, or if it was never built, all tiles are loaded from the original data.
+ */
+public class RasterDataEndpoint implements HttpHandler, Closeable {
 
-    private static final short REPLACEMENT = Short.MIN_VALUE;
-    private static final int CHUNK_SIZE = 2880;
+    private static final short REPLACEMENT = TileFormat.MARKER;
+    static final int CHUNK_SIZE = 2880;
+    /**
+     * The size of the smallest cells of the elevation index, which is the resolution of its queries.
+     */
+    private static final int INDEX_CELL_SIZE = CHUNK_SIZE / 32;
+    /**
+     * Tiles never change for the same version of a dataset, so they may be cached for a year without revalidation.
+     */
+    private static final String CACHE_CONTROL = "public, max-age=31536000, immutable";
+    private static final String VARY = Headers.ACCEPT_STRING + ", " + Headers.ACCEPT_ENCODING_STRING;
+    /**
+     * How long a request waits for a concurrent request loading the same tile, before it fails.
+     */
+    static final long COALESCING_TIMEOUT_MILLIS = Long.getLong("solarviewer.coalescingTimeoutMillis", 30_000);
+    private static final Cancellation NOT_CANCELLED = new Cancellation();
 
     private final String dataPath;
+    private final String version;
+    private final String markedDataPath;
+    private final String tiledDataPath;
+    private final String indexDataPath;
+    private final int width, height;
+    private final OffHeapCache<TileKey> cache;
+    private final ImageReaderPool readers;
+    /**
+     * Arrays the original data is decoded into, each of them is owned by a single load until it is offered again. The
+     * rasters backed by them never leave {@link #loadTile(TileKey, Cancellation)}, since they are encoded into a copy.
+     */
+    private final Queue<short[]> buffers = new ConcurrentLinkedQueue<>();
+    private final TileMetrics metrics = new TileMetrics();
+    private final SingleFlight<TileKey, ByteBuffer> loading = new SingleFlight<>(COALESCING_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS,
+            metrics::addCoalesced, metrics::addCoalescingTimeout);
+    private volatile TiledElevationStore tiledStore;
+    private volatile TiledElevationStore markedStore;
+    private volatile ElevationIndex index;
+    private volatile TilePrefetcher prefetcher;
+
+    /**
+     * @param cache the cache for encoded tiles, which may be shared between multiple endpoints, or null to disable caching
+     */
+    public RasterDataEndpoint(Dataset dataset, OffHeapCache<TileKey> cache) throws IOException {
+        this(dataset.getOriginalDataPath(), dataset.getMarkedDataPath(), dataset.getTiledDataPath(), dataset.getIndexDataPath(),
+                dataset.getWidth(), dataset.getHeight(), cache);
+    }
 
     protected RasterDataEndpoint(String originalDataPath, String markedDataPath, int width, int height) throws IOException {
+        this(originalDataPath, markedDataPath, null, width, height, null);
+    }
+
+    /**
+     * @param cache the cache for encoded tiles, which may be shared between multiple endpoints, or null to disable caching
+     */
+    protected RasterDataEndpoint(String originalDataPath, String markedDataPath, String tiledDataPath, int width, int height,
+                                 OffHeapCache<TileKey> cache) throws IOException {
+        this(originalDataPath, markedDataPath, tiledDataPath, null, width, height, cache);
+    }
+
+    protected RasterDataEndpoint(String originalDataPath, String markedDataPath, String tiledDataPath, String indexDataPath,
+                                 int width, int height, OffHeapCache<TileKey> cache) throws IOException {
         dataPath = originalDataPath;
-        if (dataPath.equals(markedDataPath) && !Files.exists(Path.of(markedDataPath))) {
-            short[][] data = load(originalDataPath, 0, 0, width, height, 1);
-            findRedundancies(data, REPLACEMENT, CHUNK_SIZE);
-            write(flatten(data), markedDataPath, width, height);
+        version = getVersion(originalDataPath);
+        this.markedDataPath = markedDataPath;
+        this.tiledDataPath = tiledDataPath;
+        this.indexDataPath = indexDataPath;
+        this.cache = cache;
+        readers = new ImageReaderPool(originalDataPath, Runtime.getRuntime().availableProcessors());
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Opens the preprocessed data which exists, i.e. the tiled data, the marked data and the elevation index. They are
+     * only built by the {@link de.oelkers.solarviewer.Preprocessor}, since building them for a whole planet takes long
+     * and would compete with the requests. Tiles can be requested while this is running and calling it again only opens
+     * data which was not opened before.
+     */
+    public synchronized void initialize() throws IOException {
+        if (tiledStore == null && exists(tiledDataPath)) {
+            tiledStore = TiledElevationStore.open(Path.of(tiledDataPath));
+        }
+        if (markedStore == null && exists(markedDataPath)) {
+            markedStore = TiledElevationStore.open(Path.of(markedDataPath));
+        }
+        if (index == null && exists(indexDataPath)) {
+            index = ElevationIndex.read(Path.of(indexDataPath));
         }
     }
 
+    private static boolean exists(String path) {
+        return path != null && Files.exists(Path.of(path));
+    }
+
     @Override
     public void handleRequest(HttpServerExchange exchange) throws Exception {
         Map<String, Deque<String>> params = exchange.getQueryParameters();
@@ -48,47 +152,465 @@ public abstract class RasterDataEndpoint implements HttpHandler {
         int width = Integer.parseInt(params.get("width").getFirst());
         int height = Integer.parseInt(params.get("height").getFirst());
         int stride = params.get("stride") == null ? 1 : Integer.parseInt(params.get("stride").getFirst());
-        short[][] data = load(dataPath, x, z, width, height, stride);
-        exchange.getResponseSender().send(Arrays.toString(flatten(data)));
+        TileFormat format = TileFormat.negotiate(exchange);
+        if (format == null) {
+            exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+            return;
+        }
+        recordRequest(exchange, stride);
+        TileKey key = createKey(format, x, z, width, height, stride).withEncoding(ContentEncoding.negotiate(exchange));
+        ETag etag = getETag(key);
+        HeaderMap headers = exchange.getResponseHeaders();
+        headers.put(Headers.ETAG, etag.toString());
+        headers.put(Headers.CACHE_CONTROL, CACHE_CONTROL);
+        headers.put(Headers.VARY, VARY);
+        if (!ETagUtils.handleIfNoneMatch(exchange, etag, true)) {
+            exchange.setStatusCode(StatusCodes.NOT_MODIFIED);
+            return;
+        }
+        headers.put(Headers.CONTENT_TYPE, format.getContentType());
+        if (key.getEncoding() != ContentEncoding.IDENTITY) {
+            headers.put(Headers.CONTENT_ENCODING, key.getEncoding().getName());
+        }
+        ByteBuffer tile = getTile(key);
+        long sendStart = System.nanoTime();
+        exchange.addExchangeCompleteListener((completed, next) -> {
+            metrics.record(TileMetrics.Phase.SEND, stride, System.nanoTime() - sendStart);
+            next.proceed();
+        });
+        metrics.addBytesSent(tile.remaining());
+        exchange.getResponseSender().send(tile);
+        prefetchAfter(List.of(key));
+    }
+
+    /**
+     * Lets the prefetcher warm the cache with the tiles likely to be requested after the given ones, if there is one.
+     */
+    void prefetchAfter(List<TileKey> keys) {
+        TilePrefetcher prefetcher = this.prefetcher;
+        if (prefetcher != null && cache != null) {
+            prefetcher.prefetch(this, keys);
+        }
+    }
+
+    /**
+     * Records the time the request waited for a worker and the total time once it is complete. The time the request
+     * was received is only known if the server records it.
+     */
+    private void recordRequest(HttpServerExchange exchange, int stride) {
+        long start = System.nanoTime();
+        long received = exchange.getRequestStartTime() > 0 ? exchange.getRequestStartTime() : start;
+        metrics.record(TileMetrics.Phase.QUEUE, stride, start - received);
+        metrics.requestStarted();
+        exchange.addExchangeCompleteListener((completed, next) -> {
+            metrics.requestCompleted();
+            metrics.record(TileMetrics.Phase.TOTAL, stride, System.nanoTime() - received);
+            next.proceed();
+        });
+    }
+
+    /**
+     * Gets a strong entity tag of the tile, which changes whenever the original data file is replaced.
+     */
+    ETag getETag(TileKey key) {
+        return new ETag(false, version + "-" + key.getFormat() + "-" + key.getEncoding() + "-" + key.getX() + "-"
+                + key.getZ() + "-" + key.getWidth() + "-" + key.getHeight() + "-" + key.getStride());
+    }
+
+    private static String getVersion(String path) throws IOException {
+        Path file = Path.of(path);
+        if (!Files.exists(file)) {
+            return "0";
+        }
+        return Long.toString(Files.size(file), Character.MAX_RADIX)
+                + Long.toString(Files.getLastModifiedTime(file).toMillis(), Character.MAX_RADIX);
+    }
+
+    TileKey createKey(TileFormat format, int x, int z, int width, int height, int stride) {
+        return new TileKey(dataPath, format, x, z, width, height, stride);
+    }
+
+    MeshKey createMeshKey(int x, int z, int size, double tolerance) {
+        return new MeshKey(dataPath, x, z, size, tolerance);
+    }
+
+    /**
+     * Gets the encoded tile from the cache if possible, otherwise loads and caches it. Compressed tiles are compressed
+     * from the uncompressed tile, which is cached as well. Concurrent requests for the same tile share a single load.
+     */
+    ByteBuffer getTile(TileKey key) throws IOException {
+        return getTile(key, NOT_CANCELLED);
+    }
+
+    /**
+     * Gets the tile like {@link #getTile(TileKey)}, but stops waiting for it once the cancellation is cancelled. Decoding
+     * the original data is only aborted once no other request waits for the same tile either, loads from the tiled data
+     * are short enough to always be completed.
+     *
+     * @throws java.io.InterruptedIOException if loading the tile was stopped
+     */
+    ByteBuffer getTile(TileKey key, Cancellation cancellation) throws IOException {
+        if (cache != null) {
+            ByteBuffer cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        return loadShared(key, cancellation);
+    }
+
+    /**
+     * Gets the elevation data of a region at full resolution, which is cached like any other tile.
+     *
+     * @return the samples of the region row by row
+     */
+    ShortBuffer getSamples(int x, int z, int width, int height) throws IOException {
+        return TileFormat.samples(getTile(createKey(TileFormat.INT16, x, z, width, height, 1)));
+    }
+
+    /**
+     * Loads the tile into the cache, unless it is already cached or the cache would not admit it. Unlike
+     * {@link #getTile(TileKey)}, neither the tile nor the uncompressed tile it is encoded from are counted as requests.
+     *
+     * @return whether the tile had to be loaded
+     */
+    boolean prefetchTile(TileKey key) throws IOException {
+        if (cache == null || cache.contains(key) || !cache.admitsPrefetched()) {
+            return false;
+        }
+        loadShared(key, NOT_CANCELLED, true);
+        return true;
+    }
+
+    private ByteBuffer loadShared(TileKey key, Cancellation cancellation) throws IOException {
+        return loadShared(key, cancellation, false);
+    }
+
+    /**
+     * @param prefetched whether the tile is loaded without being requested, which is decided by the first caller
+     * @return a view of the loaded tile, which can be consumed independently of the other requests sharing the load
+     */
+    private ByteBuffer loadShared(TileKey key, Cancellation cancellation, boolean prefetched) throws IOException {
+        return loading.load(key, cancellation, shared -> {
+            // the previous load of the tile may have completed right after this request missed the cache
+            ByteBuffer cached = cache == null ? null : cache.peek(key);
+            return cached != null ? cached : loadAndCache(key, shared, prefetched);
+        }).duplicate();
+    }
+
+    private ByteBuffer loadAndCache(TileKey key, Cancellation cancellation, boolean prefetched) throws IOException {
+        ByteBuffer tile;
+        if (key.getEncoding() == ContentEncoding.IDENTITY) {
+            tile = loadTile(key, cancellation);
+        } else {
+            TileKey uncompressedKey = key.withEncoding(ContentEncoding.IDENTITY);
+            ByteBuffer uncompressed = prefetched
+                    ? loadShared(uncompressedKey, cancellation, true)
+                    : getTile(uncompressedKey, cancellation);
+            long start = System.nanoTime();
+            tile = key.getEncoding().encode(uncompressed);
+            metrics.record(TileMetrics.Phase.ENCODE, key.getStride(), System.nanoTime() - start);
+        }
+        if (cache == null) {
+            return tile;
+        }
+        return prefetched ? cache.putPrefetched(key, tile) : cache.put(key, tile);
+    }
+
+    private ByteBuffer loadTile(TileKey key, Cancellation cancellation) throws IOException {
+        cancellation.throwIfCancelled();
+        int x = key.getX(), z = key.getZ(), width = key.getWidth(), height = key.getHeight(), stride = key.getStride();
+        if (key.getFormat() == TileFormat.SPARSE) {
+            long start = System.nanoTime();
+            ShortRaster data = loadMarked(key, cancellation);
+            recordDecode(data.getWidth() * data.getHeight(), stride, start);
+            return encode(TileFormat.SPARSE, data, x, z, stride);
+        }
+        TiledElevationStore store = tiledStore;
+        if (key.getFormat() == TileFormat.INT16 && store != null && store.canRead(x, z, width, height, stride)) {
+            long start = System.nanoTime();
+            ByteBuffer buffer = TileFormat.allocate(width / stride, height / stride, x, z, stride);
+            store.read(x, z, width, height, stride, TileFormat.samples(buffer));
+            recordDecode((width / stride) * (height / stride), stride, start);
+            return buffer;
+        }
+        return readers.read(reader -> {
+            long start = System.nanoTime();
+            // there is at most one buffer per reader, since buffers are only used while holding one
+            short[] buffer = buffers.poll();
+            try {
+                ShortRaster data = load(reader, key, cancellation, buffer);
+                // the raster may have outgrown the pooled buffer, its own array is pooled instead
+                buffer = data.getData();
+                recordDecode(data.getWidth() * data.getHeight(), stride, start);
+                return encode(key.getFormat(), data, x, z, stride);
+            } finally {
+                // every format copies the samples, so the array is free again once the tile is encoded or failed
+                if (buffer != null) {
+                    buffers.offer(buffer);
+                }
+            }
+        });
+    }
+
+    /**
+     * Decodes the tile from the original data. If the load is cancelled, because no request waits for the tile anymore,
+     * the reader is aborted, which stops decoding at the next row or tile of the image.
+     */
+    private ShortRaster load(ImageReader reader, TileKey key, Cancellation cancellation, short[] buffer) throws IOException {
+        AtomicBoolean aborted = new AtomicBoolean();
+        Runnable unregister = cancellation.onCancel(() -> {
+            aborted.set(true);
+            reader.abort();
+        });
+        ShortRaster data;
+        try {
+            data = load(reader, key.getX(), key.getZ(), key.getWidth(), key.getHeight(), key.getStride(), buffer);
+        } finally {
+            unregister.run();
+        }
+        if (aborted.get()) {
+            // an aborted reader leaves the rest of the raster as it was, so it must never be used
+            throw new InterruptedIOException("Decoding " + key + " was aborted");
+        }
+        return data;
+    }
+
+    private ByteBuffer encode(TileFormat format, ShortRaster data, int x, int z, int stride) {
+        long start = System.nanoTime();
+        ByteBuffer result = format.encode(data, x, z, stride);
+        metrics.record(TileMetrics.Phase.ENCODE, stride, System.nanoTime() - start);
+        return result;
+    }
+
+    private void recordDecode(int samples, int stride, long start) {
+        metrics.record(TileMetrics.Phase.DECODE, stride, System.nanoTime() - start);
+        metrics.addBytesRead((long) samples * Short.BYTES);
+    }
+
+    /**
+     * Loads the region with all samples that can be interpolated from their neighbours marked. The preprocessed marked
+     * data is used if possible, otherwise the region is marked on the fly, after reading it from the tiled data if it
+     * has a level for the stride. Marking a subsampled region is cheap compared to decoding the original data. Either
+     * way the first and last sample of each row are never marked.
+     */
+    private ShortRaster loadMarked(TileKey key, Cancellation cancellation) throws IOException {
+        int x = key.getX(), z = key.getZ(), width = key.getWidth(), height = key.getHeight(), stride = key.getStride();
+        TiledElevationStore store = markedStore;
+        if (stride == 1 && store != null && store.canRead(x, z, width, height, stride)) {
+            ShortRaster data = new ShortRaster(width, height);
+            store.read(x, z, width, height, stride, ShortBuffer.wrap(data.getData()));
+            // redundancies never cross the border of a chunk, but regions do not have to start or end at one
+            if (hasUnmarkedRowBorders(data)) {
+                return data;
+            }
+        }
+        ShortRaster data;
+        TiledElevationStore tiled = tiledStore;
+        if (tiled != null && tiled.canRead(x, z, width, height, stride)) {
+            data = new ShortRaster(width / stride, height / stride);
+            tiled.read(x, z, width, height, stride, ShortBuffer.wrap(data.getData()));
+        } else {
+            data = readers.read(reader -> load(reader, key, cancellation, null));
+        }
+        findRedundancies(data, REPLACEMENT, Integer.MAX_VALUE);
+        return data;
+    }
+
+    private static boolean hasUnmarkedRowBorders(ShortRaster data) {
+        for (int z = 0; z < data.getHeight(); z++) {
+            if (data.get(0, z) == REPLACEMENT || data.get(data.getWidth() - 1, z) == REPLACEMENT) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Converts the original data into a {@link TiledElevationStore} with a level for every stride the client may request
+     * that can be served from it, see {@link #getTiledLevels(int, int)}. The store is used for all following requests.
+     */
+    public synchronized void buildTiledData() throws IOException {
+        if (tiledDataPath == null) {
+            throw new IllegalStateException("No path for the tiled data configured");
+        }
+        Path path = Path.of(tiledDataPath);
+        new TiledElevationStoreBuilder(this::readOriginal, width, height, CHUNK_SIZE)
+                .levels(getTiledLevels(width, height))
+                .progressListener(metrics::preprocessingProgress)
+                .build(path);
+        TiledElevationStore previous = tiledStore;
+        tiledStore = TiledElevationStore.open(path);
+        if (previous != null) {
+            previous.close();
+        }
+        if (cache != null) {
+            // the content of the tiles is the same, this just makes sure they are served from the new store
+            cache.clear();
+        }
+    }
+
+    /**
+     * Gets the amount of levels of the tiled data, up to the coarsest stride the client requests. Requests are aligned
+     * to chunks, so strides which do not divide the chunk size can never be read from the store and are not built.
+     */
+    static int getTiledLevels(int width, int height) {
+        int maxStride = Integer.highestOneBit(Math.max(1, (width / CHUNK_SIZE) * (height / CHUNK_SIZE)));
+        return Integer.numberOfTrailingZeros(Math.min(maxStride, Integer.lowestOneBit(CHUNK_SIZE))) + 1;
+    }
+
+    /**
+     * Marks the redundant areas of the original data with the replacement value and writes the result as a
+     * {@link TiledElevationStore} with a single level, which is used for all following requests. Since redundancies
+     * never cross the border of a chunk, the chunks are streamed from the original data and processed in parallel,
+     * without ever loading the whole dataset.
+     */
+    public synchronized void buildMarkedData() throws IOException {
+        if (markedDataPath == null) {
+            throw new IllegalStateException("No path for the marked data configured");
+        }
+        Path path = Path.of(markedDataPath);
+        new TiledElevationStoreBuilder(this::readOriginal, width, height, CHUNK_SIZE)
+                .transform((data, x, z) -> findRedundancies(data, REPLACEMENT, CHUNK_SIZE))
+                .progressListener(metrics::preprocessingProgress)
+                .build(path);
+        TiledElevationStore previous = markedStore;
+        markedStore = TiledElevationStore.open(path);
+        if (previous != null) {
+            previous.close();
+        }
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Builds the elevation index from the original data and writes it, it is used for all following requests.
+     */
+    public synchronized void buildIndex() throws IOException {
+        if (indexDataPath == null) {
+            throw new IllegalStateException("No path for the elevation index configured");
+        }
+        ElevationIndex built = ElevationIndex.build(this::readOriginal, width, height, INDEX_CELL_SIZE, CHUNK_SIZE,
+                Runtime.getRuntime().availableProcessors());
+        built.write(Path.of(indexDataPath));
+        index = built;
+    }
+
+    private ShortRaster readOriginal(int x, int z, int width, int height, int stride) throws IOException {
+        return readers.read(reader -> load(reader, x, z, width, height, stride, null));
+    }
+
+    /**
+     * Sets the prefetcher warming the cache with the tiles likely to be requested next, which has no effect if caching
+     * is disabled.
+     */
+    public void setPrefetcher(TilePrefetcher prefetcher) {
+        this.prefetcher = prefetcher;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return the elevation index or null, if the endpoint was not initialized yet
+     */
+    ElevationIndex getIndex() {
+        return index;
+    }
+
+    public TileMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void close() throws IOException {
+        readers.close();
+        TiledElevationStore marked = markedStore;
+        if (marked != null) {
+            marked.close();
+        }
+        TiledElevationStore store = tiledStore;
+        if (store != null) {
+            store.close();
+        }
     }
 
     static short[][] load(String filePath, int x, int z, int width, int height, int stride) throws IOException {
-        RandomAccessFile file = new RandomAccessFile(filePath, "r");
-        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+        try (ImageInputStream input = new FileImageInputStream(new File(filePath))) {
             ImageReader reader = ImageIO.getImageReaders(input).next();
-            ImageReadParam param = reader.getDefaultReadParam();
-            param.setSourceSubsampling(stride, stride,0, 0);
-            param.setSourceRegion(new Rectangle(x, z, width, height));
             reader.setInput(input, true, true);
-            Raster raster = reader.read(0, param).getData();
-            short[][] data = expand(getData(raster), raster.getWidth(), raster.getHeight());
-            int xOverflow = width + x - reader.getWidth(0);
-            if (xOverflow > 0) {
-                param.setSourceRegion(new Rectangle(0, z, xOverflow, height));
-                short[] additional = getData(reader.read(0, param));
-                data = addColumn(data, additional);
-            }
-            int zOverflow = height + z - reader.getHeight(0);
-            if (zOverflow > 0) {
-                // int xOffset = (x + reader.getWidth(0) / 2) % reader.getWidth(0);
-                // using the xOffset instead of x is technically correct, but then we have to deal with xOverflow again
-                param.setSourceRegion(new Rectangle(x, reader.getHeight(0) - zOverflow, width, zOverflow));
-                short[] additional = getData(reader.read(0, param));
-                data = addRow(data, additional);
+            try {
+                return load(reader, x, z, width, height, stride, null).toArray();
+            } finally {
+                reader.dispose();
             }
-            reader.dispose();
-            return data;
         }
     }
 
-    private static short[] getData(RenderedImage image) {
-        return getData(image.getData());
+    /**
+     * Loads the region with a reader that already has its input set. All parts of the region are decoded directly
+     * into a single raster, regions overflowing the right border wrap around to the left one, while regions overflowing
+     * the bottom border repeat the last rows. The corner of a region overflowing both borders is filled with zeros.
+     *
+     * @param buffer the array backing the raster, which is only used if it is big enough, may be null
+     */
+    static ShortRaster load(ImageReader reader, int x, int z, int width, int height, int stride, short[] buffer) throws IOException {
+        int xOverflow = Math.max(0, width + x - reader.getWidth(0));
+        int zOverflow = Math.max(0, height + z - reader.getHeight(0));
+        int mainWidth = subsampled(width - xOverflow, stride);
+        int mainHeight = subsampled(height - zOverflow, stride);
+        int rasterWidth = mainWidth + subsampled(xOverflow, stride);
+        int rasterHeight = mainHeight + subsampled(zOverflow, stride);
+        if (buffer == null || buffer.length < rasterWidth * rasterHeight) {
+            buffer = new short[rasterWidth * rasterHeight];
+        }
+        ShortRaster raster = new ShortRaster(buffer, rasterWidth, rasterHeight, rasterWidth);
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(stride, stride,0, 0);
+        param.setSourceRegion(new Rectangle(x, z, width - xOverflow, height - zOverflow));
+        param.setDestination(createImage(raster, 0, 0, mainWidth, mainHeight));
+        reader.read(0, param);
+        if (xOverflow > 0) {
+            param.setSourceRegion(new Rectangle(0, z, xOverflow, height - zOverflow));
+            param.setDestination(createImage(raster, mainWidth, 0, rasterWidth - mainWidth, mainHeight));
+            reader.read(0, param);
+        }
+        if (zOverflow > 0) {
+            // int xOffset = (x + reader.getWidth(0) / 2) % reader.getWidth(0);
+            // using the xOffset instead of x is technically correct, but then we have to deal with xOverflow again
+            param.setSourceRegion(new Rectangle(x, reader.getHeight(0) - zOverflow, width - xOverflow, zOverflow));
+            param.setDestination(createImage(raster, 0, mainHeight, mainWidth, rasterHeight - mainHeight));
+            reader.read(0, param);
+            raster.fill(mainWidth, mainHeight, rasterWidth - mainWidth, rasterHeight - mainHeight, (short) 0);
+        }
+        return raster;
+    }
+
+    private static int subsampled(int size, int stride) {
+        return (size + stride - 1) / stride;
+    }
+
+    /**
+     * Creates an image which is backed by a region of the raster, so the reader can decode into it without copying.
+     * The image covers exactly the region, since readers may write everything within the bounds of the destination.
+     */
+    private static BufferedImage createImage(ShortRaster raster, int x, int z, int width, int height) {
+        DataBufferShort buffer = new DataBufferShort(raster.getData(), raster.getData().length);
+        SampleModel sampleModel = new ComponentSampleModel(DataBuffer.TYPE_SHORT, width, height, 1, raster.getRowStride(),
+                new int[]{raster.index(x, z)});
+        return createImage(Raster.createWritableRaster(sampleModel, buffer, null));
     }
 
-    private static short[] getData(Raster raster) {
-        DataBuffer buffer = raster.getDataBuffer();
-        assert buffer.getDataType() == DataBuffer.TYPE_SHORT;
-        return ((DataBufferShort) buffer).getData();
+    private static BufferedImage createImage(WritableRaster raster) {
+        ColorSpace colorSpace = ColorSpace.getInstance(ColorSpace.CS_GRAY);
+        ColorModel colorModel = new ComponentColorModel(colorSpace, false, false, Transparency.OPAQUE, DataBuffer.TYPE_SHORT);
+        return new BufferedImage(colorModel, raster, colorModel.isAlphaPremultiplied(), null);
     }
 
     static void write(short[] data, String path, int width, int height) throws IOException {
@@ -97,11 +619,7 @@ public abstract class RasterDataEndpoint implements HttpHandler {
             writer.setOutput(output);
             DataBufferShort buffer = new DataBufferShort(data, data.length);
             SampleModel sampleModel = new ComponentSampleModel(DataBuffer.TYPE_SHORT, width, height, 1, width, new int[]{0});
-            WritableRaster raster = Raster.createWritableRaster(sampleModel, buffer, null);
-            ColorSpace colorSpace = ColorSpace.getInstance(ColorSpace.CS_GRAY);
-            ColorModel colorModel = new ComponentColorModel(colorSpace, false, false, Transparency.OPAQUE, DataBuffer.TYPE_SHORT);
-            RenderedImage image = new BufferedImage(colorModel, raster, colorModel.isAlphaPremultiplied(), null);
-            writer.write(image);
+            writer.write(createImage(Raster.createWritableRaster(sampleModel, buffer, null)));
             writer.dispose();
         }
     }
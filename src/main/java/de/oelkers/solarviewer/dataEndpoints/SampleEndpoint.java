@@ -0,0 +1,207 @@
+package de.oelkers.solarviewer.dataEndpoints;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.StatusCodes;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Map;
+
+/**
+ * Samples the elevation at arbitrary positions of a dataset with a single request. The body of the request contains the
+ * positions as pairs of little-endian 64 bit floats, either longitude and latitude in degrees east and north or, if the
+ * query parameter "coordinates" is "pixels", x and z in pixel space, where the center of a pixel is at +0.5. Longitudes
+ * and x wrap around. If the query parameter "samples" is given, the positions are the vertices of a path instead and
+ * that many samples are spaced evenly along the straight lines between them in the projection of the data, which can be
+ * used for elevation profiles. The response contains the bilinearly interpolated elevation of each sample in meters as
+ * little-endian 32 bit floats. Must be dispatched to a worker thread, since the request is read blocking.
+ */
+public class SampleEndpoint implements HttpHandler {
+
+    public static final int MAX_SAMPLES = 1 << 16;
+    private static final int COORDINATE_BYTES = 2 * Double.BYTES;
+    private static final int MAX_BODY_BYTES = MAX_SAMPLES * COORDINATE_BYTES;
+    /**
+     * The size of the tiles the samples are read from, which are cached like every other tile. Smaller than a chunk, so
+     * scattered samples do not have to read whole chunks.
+     */
+    static final int TILE_SIZE = RasterDataEndpoint.CHUNK_SIZE / 8;
+
+    /**
+     * Reads a region of the elevation data at full resolution.
+     */
+    @FunctionalInterface
+    interface TileReader {
+
+        /**
+         * @return the samples of the region row by row
+         */
+        ShortBuffer read(int x, int z, int width, int height) throws IOException;
+    }
+
+    private final RasterDataEndpoint endpoint;
+    private final int tileSize;
+
+    public SampleEndpoint(RasterDataEndpoint endpoint) {
+        this(endpoint, TILE_SIZE);
+    }
+
+    SampleEndpoint(RasterDataEndpoint endpoint, int tileSize) {
+        this.endpoint = endpoint;
+        this.tileSize = tileSize;
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        exchange.startBlocking();
+        if (exchange.getRequestContentLength() > MAX_BODY_BYTES) {
+            exchange.setStatusCode(StatusCodes.REQUEST_ENTITY_TOO_LARGE);
+            return;
+        }
+        // the length of chunked requests is unknown, so at most one byte more than allowed is read
+        byte[] content = exchange.getInputStream().readNBytes(MAX_BODY_BYTES + 1);
+        if (content.length > MAX_BODY_BYTES) {
+            exchange.setStatusCode(StatusCodes.REQUEST_ENTITY_TOO_LARGE);
+            return;
+        }
+        ByteBuffer body = ByteBuffer.wrap(content).order(ByteOrder.LITTLE_ENDIAN);
+        Map<String, Deque<String>> params = exchange.getQueryParameters();
+        Deque<String> coordinates = params.get("coordinates");
+        Deque<String> samples = params.get("samples");
+        boolean pixels = coordinates != null && coordinates.getFirst().equals("pixels");
+        if (coordinates != null && !pixels && !coordinates.getFirst().equals("degrees")
+                || body.remaining() % COORDINATE_BYTES != 0) {
+            exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+            return;
+        }
+        int width = endpoint.getWidth(), height = endpoint.getHeight();
+        double[] positions = new double[2 * (body.remaining() / COORDINATE_BYTES)];
+        for (int i = 0; i < positions.length; i += 2) {
+            double first = body.getDouble(), second = body.getDouble();
+            positions[i] = pixels ? first : (first + 180) / 360 * width;
+            positions[i + 1] = pixels ? second : (90 - second) / 180 * height;
+            if (!Double.isFinite(positions[i]) || !(positions[i + 1] >= 0 && positions[i + 1] <= height)) {
+                exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+                return;
+            }
+        }
+        if (samples != null) {
+            int count;
+            try {
+                count = Integer.parseInt(samples.getFirst());
+            } catch (NumberFormatException e) {
+                exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+                return;
+            }
+            if (positions.length < 4 || count < 2 || count > MAX_SAMPLES) {
+                exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+                return;
+            }
+            positions = alongPath(positions, count);
+        }
+        float[] elevations = sample(positions, width, height, tileSize, endpoint::getSamples);
+        ByteBuffer response = ByteBuffer.allocate(elevations.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        response.asFloatBuffer().put(elevations);
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/octet-stream");
+        exchange.getResponseSender().send(response);
+    }
+
+    /**
+     * Spaces samples evenly along a path, including its first and last vertex.
+     *
+     * @param vertices the vertices of the path as pairs of x and z
+     * @param count the amount of samples, which must be at least 2
+     * @return the samples as pairs of x and z
+     */
+    static double[] alongPath(double[] vertices, int count) {
+        double[] lengths = new double[vertices.length / 2];
+        for (int i = 1; i < lengths.length; i++) {
+            double dx = vertices[2 * i] - vertices[2 * i - 2], dz = vertices[2 * i + 1] - vertices[2 * i - 1];
+            lengths[i] = lengths[i - 1] + Math.sqrt(dx * dx + dz * dz);
+        }
+        double total = lengths[lengths.length - 1];
+        double[] result = new double[2 * count];
+        int segment = 1;
+        for (int i = 0; i < count; i++) {
+            double distance = total * i / (count - 1);
+            while (segment < lengths.length - 1 && lengths[segment] < distance) {
+                segment++;
+            }
+            double length = lengths[segment] - lengths[segment - 1];
+            double t = length == 0 ? 0 : Math.min(1, (distance - lengths[segment - 1]) / length);
+            result[2 * i] = vertices[2 * segment - 2] + t * (vertices[2 * segment] - vertices[2 * segment - 2]);
+            result[2 * i + 1] = vertices[2 * segment - 1] + t * (vertices[2 * segment + 1] - vertices[2 * segment - 1]);
+        }
+        return result;
+    }
+
+    /**
+     * Interpolates the elevation at each position bilinearly between the four closest pixels. The corners of all
+     * positions are sorted by the tile they are in, so every tile touched is read exactly once, no matter how many
+     * positions are in it or in which order they are given. Corners without weight are not read at all, so positions
+     * at the center of a pixel never cause the neighbouring tile to be read.
+     *
+     * @param positions the positions as pairs of x and z in pixel space
+     * @param tileSize the size of the tiles read with the reader
+     */
+    static float[] sample(double[] positions, int width, int height, int tileSize, TileReader reader) throws IOException {
+        int tilesX = (width + tileSize - 1) / tileSize;
+        long[] corners = new long[2 * positions.length];
+        for (int corner = 0; corner < corners.length; corner++) {
+            int tile = -1;
+            if (weight(positions, corner) != 0) {
+                tile = (z(positions, corner, height) / tileSize) * tilesX + x(positions, corner, width) / tileSize;
+            }
+            corners[corner] = (long) tile << Integer.SIZE | corner;
+        }
+        Arrays.sort(corners);
+        double[] elevations = new double[positions.length / 2];
+        ShortBuffer tile = null;
+        int current = -1, tileX = 0, tileZ = 0, tileWidth = 0;
+        for (long entry : corners) {
+            int index = (int) (entry >> Integer.SIZE);
+            int corner = (int) entry;
+            if (index < 0) {
+                continue;
+            }
+            if (index != current) {
+                current = index;
+                tileX = (index % tilesX) * tileSize;
+                tileZ = (index / tilesX) * tileSize;
+                tileWidth = Math.min(tileSize, width - tileX);
+                tile = reader.read(tileX, tileZ, tileWidth, Math.min(tileSize, height - tileZ));
+            }
+            int x = x(positions, corner, width) - tileX, z = z(positions, corner, height) - tileZ;
+            elevations[corner / 4] += weight(positions, corner) * tile.get(z * tileWidth + x);
+        }
+        float[] result = new float[elevations.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (float) elevations[i];
+        }
+        return result;
+    }
+
+    /**
+     * The corners of a position are numbered from 0 to 3 for the top left, top right, bottom left and bottom right pixel.
+     */
+    private static int x(double[] positions, int corner, int width) {
+        return Math.floorMod((int) Math.floor(positions[corner / 4 * 2] - 0.5) + (corner & 1), width);
+    }
+
+    private static int z(double[] positions, int corner, int height) {
+        int z = (int) Math.floor(positions[corner / 4 * 2 + 1] - 0.5) + ((corner >> 1) & 1);
+        return Math.max(0, Math.min(height - 1, z));
+    }
+
+    private static double weight(double[] positions, int corner) {
+        double x = positions[corner / 4 * 2] - 0.5, z = positions[corner / 4 * 2 + 1] - 0.5;
+        double tx = x - Math.floor(x), tz = z - Math.floor(z);
+        return ((corner & 1) == 0 ? 1 - tx : tx) * ((corner & 2) == 0 ? 1 - tz : tz);
+    }
+}
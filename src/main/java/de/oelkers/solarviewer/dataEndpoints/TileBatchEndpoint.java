@@ -0,0 +1,236 @@
+package de.oelkers.solarviewer.dataEndpoints;
+
+import de.oelkers.solarviewer.utils.Cancellation;
+import io.undertow.io.BufferWritableOutputStream;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.StatusCodes;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Loads several tiles of a dataset with a single request. The body of the request contains the tiles as little-endian
+ * 32 bit integers, five per tile (x, z, width, height, stride). The tiles are loaded in parallel and each one is
+ * streamed back as soon as it is ready, so the order of the response is not the order of the request. Each tile is sent
+ * as a frame of its index in the request and the length of the payload as little-endian 32 bit integers, followed by
+ * the payload in the format of the query parameter "format". If a tile could not be loaded, the length is -1 and there
+ * is no payload. Requests with more than {@link #MAX_TILES} tiles are rejected before their body is read completely.
+ * Once all tiles are sent, the tiles likely to be requested next are prefetched, see {@link TilePrefetcher}.
+ * Must be dispatched to a worker thread, since the request is read and the response written blocking.
+ * <p>
+ * Clients should order the tiles by their importance, e.g. by their distance to the camera. With an executor from
+ * {@link #createExecutor(int)}, the tiles of all batches are loaded by their index, so the most important tiles of a
+ * new batch do not wait for the least important ones of earlier batches. The optional query parameters "view" and
+ * "generation" identify the view of the client the tiles are requested for. Once a newer generation of the same view
+ * is requested, or the client went away, tiles that did not start loading yet are dropped and loads which already
+ * started are cancelled.
+ */
+public class TileBatchEndpoint implements HttpHandler {
+
+    public static final int MAX_TILES = 1024;
+    private static final int INTS_PER_TILE = 5;
+    private static final int MAX_BODY_BYTES = MAX_TILES * INTS_PER_TILE * Integer.BYTES;
+    private static final int FRAME_HEADER_BYTES = 2 * Integer.BYTES;
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private final RasterDataEndpoint endpoint;
+    private final Executor executor;
+    private final ViewGenerations generations;
+
+    /**
+     * @param endpoint the endpoint of the dataset the tiles are loaded from
+     * @param executor the executor loading the tiles, which must not be the one running this handler
+     */
+    public TileBatchEndpoint(RasterDataEndpoint endpoint, Executor executor) {
+        this(endpoint, executor, new ViewGenerations());
+    }
+
+    /**
+     * @param generations the generations of the views of all clients, which may be shared between datasets
+     */
+    public TileBatchEndpoint(RasterDataEndpoint endpoint, Executor executor, ViewGenerations generations) {
+        this.endpoint = endpoint;
+        this.executor = executor;
+        this.generations = generations;
+    }
+
+    /**
+     * Creates an executor which loads the tiles of all batches ordered by their index in their batch, and in the order
+     * they were requested otherwise. It must only be used for this endpoint.
+     */
+    public static ExecutorService createExecutor(int threads) {
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>());
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        exchange.startBlocking();
+        if (exchange.getRequestContentLength() > MAX_BODY_BYTES) {
+            exchange.setStatusCode(StatusCodes.REQUEST_ENTITY_TOO_LARGE);
+            return;
+        }
+        // the length of chunked requests is unknown, so at most one byte more than allowed is read
+        byte[] content = exchange.getInputStream().readNBytes(MAX_BODY_BYTES + 1);
+        if (content.length > MAX_BODY_BYTES) {
+            exchange.setStatusCode(StatusCodes.REQUEST_ENTITY_TOO_LARGE);
+            return;
+        }
+        ByteBuffer body = ByteBuffer.wrap(content).order(ByteOrder.LITTLE_ENDIAN);
+        int count = body.remaining() / (INTS_PER_TILE * Integer.BYTES);
+        if (body.remaining() % (INTS_PER_TILE * Integer.BYTES) != 0) {
+            exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+            return;
+        }
+        Deque<String> view = exchange.getQueryParameters().get("view");
+        Deque<String> generationParam = exchange.getQueryParameters().get("generation");
+        long generation = 0;
+        if (view != null && generationParam != null) {
+            try {
+                generation = Long.parseLong(generationParam.getFirst());
+            } catch (NumberFormatException e) {
+                exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+                return;
+            }
+            generations.advance(view.getFirst(), generation);
+        }
+        TileFormat format = TileFormat.negotiate(exchange);
+        if (format == null) {
+            exchange.setStatusCode(StatusCodes.BAD_REQUEST);
+            return;
+        }
+        Cancellation cancellation = new Cancellation();
+        BooleanSupplier stale = () -> cancellation.isCancelled() || !exchange.getConnection().isOpen();
+        BlockingQueue<TileTask> completed = new LinkedBlockingQueue<>();
+        List<TileTask> tasks = new ArrayList<>(count);
+        List<TileKey> keys = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            TileKey key = endpoint.createKey(format, body.getInt(), body.getInt(), body.getInt(), body.getInt(), body.getInt());
+            keys.add(key);
+            TileTask task = new TileTask(() -> endpoint.getTile(key, cancellation), i, stale, endpoint.getMetrics()::addDropped, completed);
+            tasks.add(task);
+            executor.execute(task);
+        }
+        // Interrupting the workers could close the channels of the tiled data, so loads which already started are
+        // cancelled cooperatively, while the tasks which did not start yet are dropped right away
+        cancellation.onCancel(() -> {
+            for (TileTask task : tasks) {
+                task.drop();
+            }
+        });
+        // the tiles of an older generation of the view are no longer needed, even if they are being loaded already
+        Runnable unregister = view == null || generationParam == null
+                ? () -> {}
+                : generations.onSuperseded(view.getFirst(), generation, cancellation::cancel);
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, format.getContentType());
+        OutputStream output = exchange.getOutputStream();
+        try {
+            for (int i = 0; i < count; i++) {
+                TileTask next = completed.take();
+                ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(next.index);
+                ByteBuffer payload = getPayload(next);
+                header.putInt(payload == null ? -1 : payload.remaining()).flip();
+                // writes the buffers directly, without copying cached tiles onto the heap
+                ((BufferWritableOutputStream) output).write(payload == null ? new ByteBuffer[]{header} : new ByteBuffer[]{header, payload});
+                output.flush();
+            }
+        } catch (IOException | InterruptedException e) {
+            // the client went away, there is no point in loading the remaining tiles
+            cancellation.cancel();
+            throw e;
+        } finally {
+            unregister.run();
+        }
+        if (!cancellation.isCancelled()) {
+            endpoint.prefetchAfter(keys);
+        }
+    }
+
+    private static ByteBuffer getPayload(TileTask task) throws InterruptedException {
+        try {
+            return task.get();
+        } catch (CancellationException | ExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Loads a single tile of a batch, unless it became stale while waiting for a worker. Completed and dropped tasks are
+     * added to the queue of their batch.
+     */
+    private static final class TileTask extends FutureTask<ByteBuffer> implements Comparable<TileTask> {
+
+        private final int index;
+        private final long sequence = SEQUENCE.getAndIncrement();
+        private final BooleanSupplier stale;
+        private final Runnable onDropped;
+        private final BlockingQueue<TileTask> completed;
+        /**
+         * Whether the task was either started by a worker or dropped, so a tile is counted as dropped at most once.
+         */
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        private TileTask(Callable<ByteBuffer> load, int index, BooleanSupplier stale, Runnable onDropped, BlockingQueue<TileTask> completed) {
+            super(load);
+            this.index = index;
+            this.stale = stale;
+            this.onDropped = onDropped;
+            this.completed = completed;
+        }
+
+        @Override
+        public void run() {
+            if (!claimed.compareAndSet(false, true)) {
+                return;
+            }
+            if (stale.getAsBoolean()) {
+                onDropped.run();
+                cancel(false);
+            } else {
+                super.run();
+            }
+        }
+
+        /**
+         * Completes the task without a result. A load which already started keeps running until it observes the
+         * cancellation of its batch, but its result is discarded.
+         */
+        private void drop() {
+            if (claimed.compareAndSet(false, true)) {
+                onDropped.run();
+            }
+            cancel(false);
+        }
+
+        @Override
+        protected void done() {
+            completed.add(this);
+        }
+
+        @Override
+        public int compareTo(TileTask other) {
+            return index != other.index ? Integer.compare(index, other.index) : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package de.oelkers.solarviewer.dataEndpoints;
+
+import de.oelkers.solarviewer.utils.ShortRaster;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.ShortBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Deque;
+
+/**
+ * The wire formats a tile of elevation data can be sent in. The format is negotiated per request, either explicitly
+ * with the query parameter "format" or with the "Accept" header.
+ */
+public enum TileFormat {
+
+    /**
+     * The elevation data as a comma separated list in square brackets, which can be parsed as JSON.
+     */
+    TEXT("text", "application/json") {
+        @Override
+        public ByteBuffer encode(ShortRaster data, int x, int z, int stride) {
+            StringBuilder builder = new StringBuilder(7 * data.getWidth() * data.getHeight() + 2).append('[');
+            for (int row = 0; row < data.getHeight(); row++) {
+                for (int column = 0; column < data.getWidth(); column++) {
+                    if (row != 0 || column != 0) {
+                        builder.append(", ");
+                    }
+                    builder.append(data.get(column, row));
+                }
+            }
+            return StandardCharsets.UTF_8.encode(CharBuffer.wrap(builder.append(']')));
+        }
+    },
+
+    /**
+     * A header of {@link #HEADER_BYTES} containing width, height, stride and the origin (x, z) in pixel space as
+     * 32 bit integers, followed by the elevation data as 16 bit integers. All values are in little-endian byte order,
+     * so the samples can be viewed as an Int16Array by the client without any parsing.
+     */
+    INT16("i16", "application/octet-stream") {
+        @Override
+        public ByteBuffer encode(ShortRaster data, int x, int z, int stride) {
+            ByteBuffer buffer = allocate(data.getWidth(), data.getHeight(), x, z, stride);
+            data.copyTo(samples(buffer));
+            return buffer;
+        }
+    },
+
+    /**
+     * The same header as {@link #INT16}, followed by the elevation data row by row as 16 bit integers, where each run of
+     * samples marked with {@link #MARKER} is replaced by the marker and the length of the run as an unsigned 16 bit
+     * integer. Runs never cross the end of a row and the first and last sample of each row are never marked, so the
+     * client can restore the marked samples by interpolating linearly between the samples around a run.
+     */
+    SPARSE("rle", "application/octet-stream") {
+        @Override
+        public ByteBuffer encode(ShortRaster data, int x, int z, int stride) {
+            int size = 0;
+            for (int row = 0; row < data.getHeight(); row++) {
+                for (int column = 0; column < data.getWidth(); column += runLength(data, column, row), size++) {
+                    if (data.get(column, row) == MARKER) {
+                        size++;
+                    }
+                }
+            }
+            ByteBuffer buffer = allocate(size, data.getWidth(), data.getHeight(), x, z, stride);
+            ShortBuffer samples = samples(buffer);
+            for (int row = 0; row < data.getHeight(); row++) {
+                for (int column = 0; column < data.getWidth(); column += runLength(data, column, row)) {
+                    short value = data.get(column, row);
+                    samples.put(value);
+                    if (value == MARKER) {
+                        samples.put((short) runLength(data, column, row));
+                    }
+                }
+            }
+            return buffer;
+        }
+
+        /**
+         * @return the length of the run of marked samples starting at the position, or 1 if the sample is not marked
+         */
+        private int runLength(ShortRaster data, int x, int z) {
+            int length = 1;
+            if (data.get(x, z) == MARKER) {
+                while (x + length < data.getWidth() && length < MAX_RUN_LENGTH && data.get(x + length, z) == MARKER) {
+                    length++;
+                }
+            }
+            return length;
+        }
+    };
+
+    public static final int HEADER_BYTES = 5 * Integer.BYTES;
+    /**
+     * The value of samples that can be interpolated from their neighbours.
+     */
+    public static final short MARKER = Short.MIN_VALUE;
+    private static final int MAX_RUN_LENGTH = 0xFFFF;
+
+    private final String name;
+    private final String contentType;
+
+    TileFormat(String name, String contentType) {
+        this.name = name;
+        this.contentType = contentType;
+    }
+
+    /**
+     * Encodes the given elevation data. The data is copied, so its backing array may be reused afterwards.
+     *
+     * @param data the elevation data
+     * @param x the x position of the data in pixel space
+     * @param z the z position of the data in pixel space
+     * @param stride the stride the data was loaded with
+     * @return the encoded data, ready to be sent
+     */
+    public abstract ByteBuffer encode(ShortRaster data, int x, int z, int stride);
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Allocates a buffer for the binary format with the header already written. The buffer is positioned at the start
+     * of the header and its limit is set to the end of the samples, so it can be sent as is once the samples are filled in.
+     */
+    static ByteBuffer allocate(int width, int height, int x, int z, int stride) {
+        return allocate(width * height, width, height, x, z, stride);
+    }
+
+    /**
+     * Allocates a buffer like {@link #allocate(int, int, int, int, int)}, but with room for the given amount of samples.
+     */
+    static ByteBuffer allocate(int samples, int width, int height, int x, int z, int stride) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + samples * Short.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(width).putInt(height).putInt(stride).putInt(x).putInt(z);
+        return buffer.flip().limit(buffer.capacity());
+    }
+
+    /**
+     * Gets a view on the samples of a buffer created with {@link #allocate(int, int, int, int, int)}.
+     */
+    static ShortBuffer samples(ByteBuffer buffer) {
+        return buffer.duplicate().position(HEADER_BYTES).slice().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+    }
+
+    /**
+     * @return the requested format or null, if the query parameter names an unknown format
+     */
+    public static TileFormat negotiate(HttpServerExchange exchange) {
+        Deque<String> format = exchange.getQueryParameters().get("format");
+        if (format != null) {
+            for (TileFormat candidate : values()) {
+                if (candidate.name.equals(format.getFirst())) {
+                    return candidate;
+                }
+            }
+            return null;
+        }
+        String accept = exchange.getRequestHeaders().getFirst(Headers.ACCEPT);
+        if (accept != null && accept.contains(INT16.contentType)) {
+            return INT16;
+        }
+        return TEXT;
+    }
+}
@@ -0,0 +1,100 @@
+package de.oelkers.solarviewer.dataEndpoints;
+
+import java.util.Objects;
+
+/**
+ * Identifies an encoded tile of a dataset. Since the data of a dataset never changes while the server is running,
+ * equal keys always result in the same response.
+ */
+public final class TileKey {
+
+    private final String dataset;
+    private final TileFormat format;
+    private final ContentEncoding encoding;
+    private final int x, z, width, height, stride;
+
+    public TileKey(String dataset, TileFormat format, int x, int z, int width, int height, int stride) {
+        this(dataset, format, ContentEncoding.IDENTITY, x, z, width, height, stride);
+    }
+
+    public TileKey(String dataset, TileFormat format, ContentEncoding encoding, int x, int z, int width, int height, int stride) {
+        this.dataset = dataset;
+        this.format = format;
+        this.encoding = encoding;
+        this.x = x;
+        this.z = z;
+        this.width = width;
+        this.height = height;
+        this.stride = stride;
+    }
+
+    public String getDataset() {
+        return dataset;
+    }
+
+    public TileFormat getFormat() {
+        return format;
+    }
+
+    public ContentEncoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * @return a key for the same tile, but compressed with the given encoding
+     */
+    public TileKey withEncoding(ContentEncoding encoding) {
+        return new TileKey(dataset, format, encoding, x, z, width, height, stride);
+    }
+
+    /**
+     * @return a key for a tile of the same format and encoding, but of another region or with another stride
+     */
+    public TileKey withRegion(int x, int z, int width, int height, int stride) {
+        return new TileKey(dataset, format, encoding, x, z, width, height, stride);
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getZ() {
+        return z;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getStride() {
+        return stride;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (other == null || getClass() != other.getClass()) {
+            return false;
+        }
+        TileKey tileKey = (TileKey) other;
+        return x == tileKey.x && z == tileKey.z && width == tileKey.width && height == tileKey.height
+                && stride == tileKey.stride && dataset.equals(tileKey.dataset) && format == tileKey.format
+                && encoding == tileKey.encoding;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(dataset, format, encoding, x, z, width, height, stride);
+    }
+
+    @Override
+    public String toString() {
+        return dataset + "[" + format + ", " + encoding + ", x=" + x + ", z=" + z + ", width=" + width + ", height=" + height + ", stride=" + stride + "]";
+    }
+}
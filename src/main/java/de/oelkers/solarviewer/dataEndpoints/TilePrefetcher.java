@@ -0,0 +1,197 @@
+package de.oelkers.solarviewer.dataEndpoints;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Warms the tile cache with the tiles a client is likely to request next. After panning, the client requests the
+ * neighbours of the visible chunks with the same stride and after zooming, it requests the same chunks with half or
+ * double the stride. The predicted tiles are shaped like the requests of the client, which overlap the previous chunk
+ * by one stride, so they are cached under the keys the client will actually request. Prefetching is done on low
+ * priority threads and only while the server is otherwise idle, so it never delays requests that were actually made.
+ * Prefetched tiles are not counted as requests. The cache admits them into free space or in place of entries which were
+ * requested at most once and tiles are not loaded at all, if the cache is full of more frequently requested entries.
+ */
+public final class TilePrefetcher implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(TilePrefetcher.class.getName());
+
+    private final int chunkSize;
+    private final ExecutorService executor;
+    private final Semaphore budget;
+    private final BooleanSupplier idle;
+    private final Set<TileKey> pending = ConcurrentHashMap.newKeySet();
+    private final LongAdder prefetched = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+
+    /**
+     * @param threads the amount of threads loading prefetched tiles
+     * @param maxPending the maximum amount of tiles which are either being prefetched or waiting to be, additional
+     *                   predictions are dropped
+     * @param idle whether the server is idle enough to prefetch, which is checked before and after queueing a tile
+     */
+    public TilePrefetcher(int threads, int maxPending, BooleanSupplier idle) {
+        this(threads, maxPending, idle, RasterDataEndpoint.CHUNK_SIZE);
+    }
+
+    TilePrefetcher(int threads, int maxPending, BooleanSupplier idle, int chunkSize) {
+        this.chunkSize = chunkSize;
+        executor = Executors.newFixedThreadPool(threads, new PrefetchThreadFactory());
+        budget = new Semaphore(maxPending);
+        this.idle = idle;
+    }
+
+    /**
+     * Queues the tiles likely to be requested after the given ones, as long as the budget allows it. The tiles should
+     * be ordered by their importance, since the predictions of the first ones are queued first. Tiles which were
+     * requested themselves are not predicted again.
+     */
+    void prefetch(RasterDataEndpoint endpoint, List<TileKey> keys) {
+        if (!idle.getAsBoolean()) {
+            return;
+        }
+        Set<TileKey> requested = new HashSet<>(keys);
+        for (TileKey key : keys) {
+            for (TileKey next : predict(key, endpoint.getWidth(), endpoint.getHeight(), chunkSize)) {
+                if (requested.contains(next)) {
+                    continue;
+                }
+                if (!budget.tryAcquire()) {
+                    return;
+                }
+                if (!pending.add(next)) {
+                    budget.release();
+                    continue;
+                }
+                try {
+                    executor.execute(() -> load(endpoint, next));
+                } catch (RejectedExecutionException e) {
+                    pending.remove(next);
+                    budget.release();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void load(RasterDataEndpoint endpoint, TileKey key) {
+        try {
+            if (idle.getAsBoolean() && endpoint.prefetchTile(key)) {
+                prefetched.increment();
+            } else {
+                skipped.increment();
+            }
+        } catch (IOException | RuntimeException e) {
+            skipped.increment();
+            LOGGER.log(Level.FINE, e, () -> "Could not prefetch " + key);
+        } finally {
+            pending.remove(key);
+            budget.release();
+        }
+    }
+
+    /**
+     * Predicts the tiles requested after the given one, which are the 8 neighbouring chunks with the same stride and the
+     * same chunk with half and double the stride, up to the coarsest stride the client requests. The neighbours wrap
+     * around horizontally, but not vertically. Tiles which are not shaped like a chunk requested by the client are not
+     * predicted at all.
+     *
+     * @param width the width of the dataset
+     * @param height the height of the dataset
+     * @param chunkSize the size of the chunks of the client in pixels
+     */
+    static List<TileKey> predict(TileKey key, int width, int height, int chunkSize) {
+        int chunkWidth = width / chunkSize, chunkHeight = height / chunkSize, stride = key.getStride();
+        int chunkX = Math.floorDiv(key.getX() + key.getWidth() / 2, chunkSize);
+        int chunkZ = Math.floorDiv(key.getZ() + key.getHeight() / 2, chunkSize);
+        if (chunkX < 0 || chunkX >= chunkWidth || chunkZ < 0 || chunkZ >= chunkHeight
+                || !key.equals(getChunkKey(key, chunkX, chunkZ, stride, chunkWidth, chunkHeight, chunkSize))) {
+            return List.of();
+        }
+        List<TileKey> result = new ArrayList<>(10);
+        for (int dz = -1; dz <= 1; dz++) {
+            int z = chunkZ + dz;
+            if (z < 0 || z >= chunkHeight) {
+                continue;
+            }
+            for (int dx = -1; dx <= 1; dx++) {
+                TileKey neighbour = getChunkKey(key, Math.floorMod(chunkX + dx, chunkWidth), z, stride, chunkWidth, chunkHeight, chunkSize);
+                // narrow datasets may wrap around to the same chunk
+                if (!neighbour.equals(key) && !result.contains(neighbour)) {
+                    result.add(neighbour);
+                }
+            }
+        }
+        if (stride > 1) {
+            result.add(getChunkKey(key, chunkX, chunkZ, stride / 2, chunkWidth, chunkHeight, chunkSize));
+        }
+        if (stride * 2 <= Integer.highestOneBit(chunkWidth * chunkHeight)) {
+            result.add(getChunkKey(key, chunkX, chunkZ, stride * 2, chunkWidth, chunkHeight, chunkSize));
+        }
+        return result;
+    }
+
+    /**
+     * Gets the tile the client requests for a chunk, which includes one more row and column of the previous chunk and
+     * at the end of the dataset one more of the wrapped first chunk, so neighbouring chunks share their border.
+     */
+    private static TileKey getChunkKey(TileKey key, int chunkX, int chunkZ, int stride, int chunkWidth, int chunkHeight, int chunkSize) {
+        int x = chunkX * chunkSize, z = chunkZ * chunkSize, width = chunkSize, height = chunkSize;
+        if (chunkX != 0) {
+            x -= stride;
+            width += stride;
+        }
+        if (chunkZ != 0) {
+            z -= stride;
+            height += stride;
+        }
+        if (chunkX == chunkWidth - 1) {
+            width += stride;
+        }
+        if (chunkZ == chunkHeight - 1) {
+            height += stride;
+        }
+        return key.withRegion(x, z, width, height, stride);
+    }
+
+    public long getPrefetched() {
+        return prefetched.sum();
+    }
+
+    public long getSkipped() {
+        return skipped.sum();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private static final class PrefetchThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "tile-prefetch-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package de.oelkers.solarviewer.dataEndpoints;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tracks the latest generation of the view of each client. Clients identify their view with a random id and increment
+ * its generation whenever it changes, so tiles requested for an older generation of the same view are no longer needed
+ * and can be dropped. Only the most recently used views are remembered, so clients can not exhaust the memory.
+ */
+public final class ViewGenerations {
+
+    private static final int MAX_VIEWS = 4096;
+
+    private final Map<String, View> views = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, View> eldest) {
+            return size() > MAX_VIEWS;
+        }
+    };
+
+    /**
+     * Records a request of the view with the given generation, which supersedes all older generations of it. The
+     * callbacks registered for older generations are run on the calling thread.
+     */
+    public void advance(String view, long generation) {
+        List<Runnable> superseded = new ArrayList<>();
+        synchronized (views) {
+            View state = views.get(view);
+            if (state == null) {
+                views.put(view, new View(generation));
+            } else if (generation > state.latest) {
+                state.latest = generation;
+                for (Iterator<Listener> iterator = state.listeners.iterator(); iterator.hasNext(); ) {
+                    Listener listener = iterator.next();
+                    if (listener.generation < generation) {
+                        superseded.add(listener.callback);
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+        for (Runnable callback : superseded) {
+            callback.run();
+        }
+    }
+
+    /**
+     * @return whether a newer generation of the view was requested since
+     */
+    public boolean isSuperseded(String view, long generation) {
+        synchronized (views) {
+            View state = views.get(view);
+            return state != null && state.latest > generation;
+        }
+    }
+
+    /**
+     * Registers a callback which is run once a newer generation of the view is requested, on the thread requesting it.
+     * If the generation is already superseded, the callback is run immediately. Callbacks of views which are no longer
+     * remembered are never run.
+     *
+     * @return removes the callback again, once the work it stops is done
+     */
+    public Runnable onSuperseded(String view, long generation, Runnable callback) {
+        Listener listener = new Listener(generation, callback);
+        synchronized (views) {
+            View state = views.computeIfAbsent(view, key -> new View(generation));
+            if (state.latest <= generation) {
+                state.listeners.add(listener);
+                return () -> {
+                    synchronized (views) {
+                        state.listeners.remove(listener);
+                    }
+                };
+            }
+        }
+        callback.run();
+        return () -> {};
+    }
+
+    private static final class View {
+
+        private long latest;
+        private final List<Listener> listeners = new ArrayList<>();
+
+        private View(long latest) {
+            this.latest = latest;
+        }
+    }
+
+    private static final class Listener {
+
+        private final long generation;
+        private final Runnable callback;
+
+        private Listener(long generation, Runnable callback) {
+            this.generation = generation;
+            this.callback = callback;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package de.oelkers.solarviewer.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock free histogram of durations with exponential buckets from half a millisecond to about 16 seconds. Recording
+ * only increments two counters, so it is cheap enough to be used on every request. Since the counters are read
+ * independently, a snapshot taken while recording may be slightly inconsistent, which does not matter for monitoring.
+ */
+public final class Histogram {
+
+    private static final long SMALLEST_BUCKET_NANOS = 500_000;
+    private static final int BUCKETS = 16;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    public Histogram() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        int bucket = 0;
+        while (bucket < BUCKETS && nanos > upperBound(bucket)) {
+            bucket++;
+        }
+        counts[bucket].increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Writes the histogram in the Prometheus text format, without the HELP and TYPE lines.
+     *
+     * @param name the name of the metric
+     * @param labels the labels of this histogram, formatted as name="value" and separated by commas
+     */
+    public void writeTo(StringBuilder builder, String name, String labels) {
+        long cumulative = 0;
+        for (int bucket = 0; bucket <= BUCKETS; bucket++) {
+            cumulative += counts[bucket].sum();
+            String bound = bucket == BUCKETS ? "+Inf" : Double.toString(upperBound(bucket) / 1e9);
+            builder.append(name).append("_bucket{").append(labels).append(",le=\"").append(bound).append("\"} ")
+                    .append(cumulative).append('\n');
+        }
+        builder.append(name).append("_sum{").append(labels).append("} ").append(sumNanos.sum() / 1e9).append('\n');
+        builder.append(name).append("_count{").append(labels).append("} ").append(cumulative).append('\n');
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : counts) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    private static long upperBound(int bucket) {
+        return SMALLEST_BUCKET_NANOS << bucket;
+    }
+}
@@ -0,0 +1,110 @@
+package de.oelkers.solarviewer.metrics;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Exposes the metrics of the server in the Prometheus text format. The values are only collected when the endpoint is
+ * scraped, so registering a metric does not cost anything while serving tiles.
+ */
+public final class MetricsEndpoint implements HttpHandler {
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final String TILE_SECONDS = "solarviewer_tile_seconds";
+
+    private final Map<String, TileMetrics> datasets = new ConcurrentSkipListMap<>();
+    private final List<Metric> metrics = new CopyOnWriteArrayList<>();
+
+    public MetricsEndpoint() {
+        addDatasetMetric("solarviewer_tile_read_bytes_total", "counter", "Uncompressed bytes of elevation data read", TileMetrics::getBytesRead);
+        addDatasetMetric("solarviewer_tile_sent_bytes_total", "counter", "Bytes of tile responses sent", TileMetrics::getBytesSent);
+        addDatasetMetric("solarviewer_tile_requests_in_flight", "gauge", "Tile requests currently being handled", TileMetrics::getInFlight);
+        addDatasetMetric("solarviewer_tile_coalesced_total", "counter", "Tile loads shared with a concurrent request for the same tile",
+                TileMetrics::getCoalesced);
+        addDatasetMetric("solarviewer_tile_coalescing_timeouts_total", "counter", "Requests which gave up waiting for a shared tile load",
+                TileMetrics::getCoalescingTimeouts);
+        addDatasetMetric("solarviewer_tile_dropped_total", "counter", "Queued tiles dropped, because their view changed or the client went away",
+                TileMetrics::getDropped);
+        addDatasetMetric("solarviewer_preprocessing_completed_tiles", "gauge", "Tiles completed by the running or last preprocessing",
+                TileMetrics::getPreprocessedTiles);
+        addDatasetMetric("solarviewer_preprocessing_tiles", "gauge", "Tiles of the running or last preprocessing",
+                TileMetrics::getPreprocessingTiles);
+    }
+
+    /**
+     * Registers the metrics of a dataset, which are labeled with its name.
+     */
+    public void addDataset(String name, TileMetrics tileMetrics) {
+        datasets.put(name, tileMetrics);
+    }
+
+    public void addCounter(String name, String help, LongSupplier value) {
+        metrics.add(new Metric(name, "counter", help, builder -> writeSample(builder, name, "", value.getAsLong())));
+    }
+
+    public void addGauge(String name, String help, LongSupplier value) {
+        metrics.add(new Metric(name, "gauge", help, builder -> writeSample(builder, name, "", value.getAsLong())));
+    }
+
+    private void addDatasetMetric(String name, String type, String help, ToLongFunction<TileMetrics> value) {
+        metrics.add(new Metric(name, type, help, builder -> {
+            for (Map.Entry<String, TileMetrics> dataset : datasets.entrySet()) {
+                writeSample(builder, name, datasetLabel(dataset.getKey()), value.applyAsLong(dataset.getValue()));
+            }
+        }));
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) {
+        StringBuilder builder = new StringBuilder();
+        writeHeader(builder, TILE_SECONDS, "histogram", "Latency of tile requests per phase");
+        for (Map.Entry<String, TileMetrics> dataset : datasets.entrySet()) {
+            dataset.getValue().writeHistograms(builder, TILE_SECONDS, datasetLabel(dataset.getKey()));
+        }
+        for (Metric metric : metrics) {
+            writeHeader(builder, metric.name, metric.type, metric.help);
+            metric.writer.accept(builder);
+        }
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, CONTENT_TYPE);
+        exchange.getResponseSender().send(builder.toString());
+    }
+
+    private static void writeHeader(StringBuilder builder, String name, String type, String help) {
+        builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        builder.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void writeSample(StringBuilder builder, String name, String labels, long value) {
+        builder.append(name);
+        if (!labels.isEmpty()) {
+            builder.append('{').append(labels).append('}');
+        }
+        builder.append(' ').append(value).append('\n');
+    }
+
+    private static String datasetLabel(String dataset) {
+        return "dataset=\"" + dataset + "\"";
+    }
+
+    private static final class Metric {
+
+        private final String name, type, help;
+        private final Consumer<StringBuilder> writer;
+
+        private Metric(String name, String type, String help, Consumer<StringBuilder> writer) {
+            this.name = name;
+            this.type = type;
+            this.help = help;
+            this.writer = writer;
+        }
+    }
+}
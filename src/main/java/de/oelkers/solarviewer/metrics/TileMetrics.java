@@ -0,0 +1,150 @@
+package de.oelkers.solarviewer.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics of the tiles served for a single dataset. Latencies are recorded per stride and per phase of a request,
+ * so it can be told whether slow requests are caused by waiting for a worker, decoding, encoding or the network.
+ */
+public final class TileMetrics {
+
+    /**
+     * Strides above this are recorded together, so arbitrary requests can not create an unbounded amount of histograms.
+     */
+    private static final int MAX_STRIDE_LABEL = 1024;
+
+    public enum Phase {
+        /**
+         * From receiving the request until a worker started handling it.
+         */
+        QUEUE,
+        /**
+         * Loading the elevation data of a tile that was not cached, either from the original data or a tiled store.
+         */
+        DECODE,
+        /**
+         * Converting the elevation data of a tile that was not cached into its format or compressing it, which are
+         * recorded separately.
+         */
+        ENCODE,
+        /**
+         * From starting to send the response until it was completely written.
+         */
+        SEND,
+        /**
+         * From receiving the request until the response was completely written.
+         */
+        TOTAL
+    }
+
+    private final ConcurrentMap<String, Histogram[]> histograms = new ConcurrentHashMap<>();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder inFlight = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder coalescingTimeouts = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private volatile int preprocessedTiles, preprocessingTiles;
+
+    public void record(Phase phase, int stride, long nanos) {
+        String label = Integer.bitCount(stride) == 1 && stride <= MAX_STRIDE_LABEL ? Integer.toString(stride) : "other";
+        histograms.computeIfAbsent(label, key -> createHistograms())[phase.ordinal()].record(nanos);
+    }
+
+    private static Histogram[] createHistograms() {
+        Histogram[] result = new Histogram[Phase.values().length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = new Histogram();
+        }
+        return result;
+    }
+
+    /**
+     * @param bytes the amount of uncompressed bytes of elevation data that were read
+     */
+    public void addBytesRead(long bytes) {
+        bytesRead.add(bytes);
+    }
+
+    public void addBytesSent(long bytes) {
+        bytesSent.add(bytes);
+    }
+
+    public void requestStarted() {
+        inFlight.increment();
+    }
+
+    public void requestCompleted() {
+        inFlight.decrement();
+    }
+
+    /**
+     * Called whenever a request waits for the same tile being loaded by another request instead of loading it again.
+     */
+    public void addCoalesced() {
+        coalesced.increment();
+    }
+
+    public void addCoalescingTimeout() {
+        coalescingTimeouts.increment();
+    }
+
+    /**
+     * Called whenever a queued tile is not loaded, because the view it was requested for changed or the client went away.
+     */
+    public void addDropped() {
+        dropped.increment();
+    }
+
+    public void preprocessingProgress(int completedTiles, int totalTiles) {
+        preprocessedTiles = completedTiles;
+        preprocessingTiles = totalTiles;
+    }
+
+    /**
+     * Writes the latency histograms in the Prometheus text format, without the HELP and TYPE lines.
+     */
+    void writeHistograms(StringBuilder builder, String name, String labels) {
+        for (Map.Entry<String, Histogram[]> entry : histograms.entrySet()) {
+            for (Phase phase : Phase.values()) {
+                String phaseLabels = labels + ",stride=\"" + entry.getKey() + "\",phase=\"" + phase.name().toLowerCase() + "\"";
+                entry.getValue()[phase.ordinal()].writeTo(builder, name, phaseLabels);
+            }
+        }
+    }
+
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    public long getInFlight() {
+        return inFlight.sum();
+    }
+
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    public long getCoalescingTimeouts() {
+        return coalescingTimeouts.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public int getPreprocessedTiles() {
+        return preprocessedTiles;
+    }
+
+    public int getPreprocessingTiles() {
+        return preprocessingTiles;
+    }
+}
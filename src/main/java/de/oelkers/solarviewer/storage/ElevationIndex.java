@@ -0,0 +1,413 @@
+package de.oelkers.solarviewer.storage;
+
+import de.oelkers.solarviewer.utils.ShortRaster;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * A pyramid of the minimum, maximum and mean elevation of a dataset, which answers questions about the elevation of a
+ * region without touching the elevation data. The lowest level divides the dataset into square cells and each higher
+ * level combines 2x2 cells of the level below, up to a single cell covering the whole dataset. A query only refines
+ * the cells crossing the border of the region, so it visits a logarithmic amount of cells per border pixel instead of
+ * every pixel.
+ * <p>
+ * Regions are only resolved to the size of a cell on the lowest level. A cell crossing the border of a region
+ * contributes its extrema only if they are located inside the region and its mean in proportion to the overlap.
+ */
+public final class ElevationIndex {
+
+    private static final int MAGIC = 0x454C4958;
+    private static final int VERSION = 1;
+
+    private final int width, height;
+    private final Level[] levels;
+
+    private ElevationIndex(int width, int height, Level leaves) {
+        this.width = width;
+        this.height = height;
+        List<Level> result = new ArrayList<>();
+        result.add(leaves);
+        Level current = leaves;
+        while (current.cellsX > 1 || current.cellsZ > 1) {
+            current = combine(current);
+            result.add(current);
+        }
+        levels = result.toArray(new Level[0]);
+    }
+
+    /**
+     * Builds the index by reading the dataset chunk by chunk, processing the chunks in parallel.
+     *
+     * @param cellSize the size of the cells on the lowest level, which chunk size has to be a multiple of
+     */
+    public static ElevationIndex build(TiledElevationStoreBuilder.TileSource source, int width, int height, int cellSize,
+                                       int chunkSize, int parallelism) throws IOException {
+        if (chunkSize % cellSize != 0) {
+            throw new IllegalArgumentException("The chunk size " + chunkSize + " is not a multiple of the cell size " + cellSize);
+        }
+        Level leaves = new Level(cellsFor(width, cellSize), cellsFor(height, cellSize), cellSize);
+        int chunksX = cellsFor(width, chunkSize);
+        int chunksZ = cellsFor(height, chunkSize);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            // each chunk covers its own cells, so they can be written without synchronization
+            pool.submit(() -> IntStream.range(0, chunksX * chunksZ).parallel().forEach(chunk -> {
+                int x = chunk % chunksX * chunkSize;
+                int z = chunk / chunksX * chunkSize;
+                try {
+                    ShortRaster data = source.read(x, z, Math.min(chunkSize, width - x), Math.min(chunkSize, height - z), 1);
+                    addLeaves(leaves, data, x, z);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            })).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw new IOException("Failed to build the elevation index", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while building the elevation index");
+        } finally {
+            pool.shutdown();
+        }
+        return new ElevationIndex(width, height, leaves);
+    }
+
+    private static void addLeaves(Level leaves, ShortRaster data, int offsetX, int offsetZ) {
+        int size = leaves.cellSize;
+        for (int cellZ = 0; cellZ < data.getHeight(); cellZ += size) {
+            for (int cellX = 0; cellX < data.getWidth(); cellX += size) {
+                int index = ((offsetZ + cellZ) / size) * leaves.cellsX + (offsetX + cellX) / size;
+                short min = Short.MAX_VALUE, max = Short.MIN_VALUE;
+                int minX = 0, minZ = 0, maxX = 0, maxZ = 0;
+                long sum = 0;
+                for (int z = cellZ; z < Math.min(cellZ + size, data.getHeight()); z++) {
+                    for (int x = cellX; x < Math.min(cellX + size, data.getWidth()); x++) {
+                        short value = data.get(x, z);
+                        sum += value;
+                        if (value < min) {
+                            min = value;
+                            minX = x;
+                            minZ = z;
+                        }
+                        if (value > max) {
+                            max = value;
+                            maxX = x;
+                            maxZ = z;
+                        }
+                    }
+                }
+                leaves.min[index] = min;
+                leaves.max[index] = max;
+                leaves.minPosition[index] = position(offsetX + minX, offsetZ + minZ);
+                leaves.maxPosition[index] = position(offsetX + maxX, offsetZ + maxZ);
+                leaves.sum[index] = sum;
+            }
+        }
+    }
+
+    private static Level combine(Level children) {
+        Level result = new Level((children.cellsX + 1) / 2, (children.cellsZ + 1) / 2, children.cellSize * 2);
+        for (int z = 0; z < children.cellsZ; z++) {
+            for (int x = 0; x < children.cellsX; x++) {
+                int child = z * children.cellsX + x;
+                int parent = (z / 2) * result.cellsX + x / 2;
+                boolean first = x % 2 == 0 && z % 2 == 0;
+                if (first || children.min[child] < result.min[parent]) {
+                    result.min[parent] = children.min[child];
+                    result.minPosition[parent] = children.minPosition[child];
+                }
+                if (first || children.max[child] > result.max[parent]) {
+                    result.max[parent] = children.max[child];
+                    result.maxPosition[parent] = children.maxPosition[child];
+                }
+                result.sum[parent] += children.sum[child];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Summarizes the elevation of the region, which has to be inside the dataset.
+     */
+    public Summary query(int x, int z, int width, int height) {
+        if (width <= 0 || height <= 0 || x < 0 || z < 0 || x + width > this.width || z + height > this.height) {
+            throw new IllegalArgumentException("The region " + x + "," + z + " " + width + "x" + height + " is not inside the dataset");
+        }
+        Accumulator accumulator = new Accumulator(x, z, x + width, z + height);
+        int top = levels.length - 1;
+        for (int cellZ = 0; cellZ < levels[top].cellsZ; cellZ++) {
+            for (int cellX = 0; cellX < levels[top].cellsX; cellX++) {
+                visit(top, cellX, cellZ, accumulator);
+            }
+        }
+        return accumulator.toSummary();
+    }
+
+    private void visit(int level, int cellX, int cellZ, Accumulator accumulator) {
+        Level cells = levels[level];
+        if (cellX >= cells.cellsX || cellZ >= cells.cellsZ) {
+            return;
+        }
+        int left = cellX * cells.cellSize;
+        int top = cellZ * cells.cellSize;
+        int right = Math.min(left + cells.cellSize, width);
+        int bottom = Math.min(top + cells.cellSize, height);
+        int overlapX = Math.min(right, accumulator.right) - Math.max(left, accumulator.left);
+        int overlapZ = Math.min(bottom, accumulator.bottom) - Math.max(top, accumulator.top);
+        if (overlapX <= 0 || overlapZ <= 0) {
+            return;
+        }
+        int index = cellZ * cells.cellsX + cellX;
+        long area = (long) (right - left) * (bottom - top);
+        long overlap = (long) overlapX * overlapZ;
+        if (overlap == area || level == 0) {
+            accumulator.add(cells, index, overlap, area);
+            return;
+        }
+        for (int z = 0; z < 2; z++) {
+            for (int x = 0; x < 2; x++) {
+                visit(level - 1, cellX * 2 + x, cellZ * 2 + z, accumulator);
+            }
+        }
+    }
+
+    /**
+     * Writes the lowest level of the index, the higher levels are combined again when reading it. The index is written
+     * to a temporary file first, so an existing index is only replaced if writing was successful.
+     */
+    public void write(Path target) throws IOException {
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        Level leaves = levels[0];
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(width);
+            output.writeInt(height);
+            output.writeInt(leaves.cellSize);
+            for (int i = 0; i < leaves.min.length; i++) {
+                output.writeShort(leaves.min[i]);
+                output.writeShort(leaves.max[i]);
+                output.writeLong(leaves.minPosition[i]);
+                output.writeLong(leaves.maxPosition[i]);
+                output.writeLong(leaves.sum[i]);
+            }
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static ElevationIndex read(Path path) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                throw new IOException(path + " is not an elevation index of a supported version");
+            }
+            int width = input.readInt();
+            int height = input.readInt();
+            int cellSize = input.readInt();
+            Level leaves = new Level(cellsFor(width, cellSize), cellsFor(height, cellSize), cellSize);
+            for (int i = 0; i < leaves.min.length; i++) {
+                leaves.min[i] = input.readShort();
+                leaves.max[i] = input.readShort();
+                leaves.minPosition[i] = input.readLong();
+                leaves.maxPosition[i] = input.readLong();
+                leaves.sum[i] = input.readLong();
+            }
+            return new ElevationIndex(width, height, leaves);
+        }
+    }
+
+    private static int cellsFor(int size, int cellSize) {
+        return (size + cellSize - 1) / cellSize;
+    }
+
+    private static long position(int x, int z) {
+        return (long) x << Integer.SIZE | z;
+    }
+
+    private static int positionX(long position) {
+        return (int) (position >>> Integer.SIZE);
+    }
+
+    private static int positionZ(long position) {
+        return (int) position;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getCellSize() {
+        return levels[0].cellSize;
+    }
+
+    /**
+     * The elevation of a region, with the positions of its extrema in pixels of the dataset.
+     */
+    public static final class Summary {
+
+        private final short min, max;
+        private final int minX, minZ, maxX, maxZ;
+        private final double mean;
+        private final long count;
+
+        public Summary(short min, int minX, int minZ, short max, int maxX, int maxZ, double mean, long count) {
+            this.min = min;
+            this.minX = minX;
+            this.minZ = minZ;
+            this.max = max;
+            this.maxX = maxX;
+            this.maxZ = maxZ;
+            this.mean = mean;
+            this.count = count;
+        }
+
+        /**
+         * Combines the summaries of two disjoint regions.
+         */
+        public Summary merge(Summary other) {
+            Summary lower = other.min < min ? other : this;
+            Summary higher = other.max > max ? other : this;
+            long total = count + other.count;
+            return new Summary(lower.min, lower.minX, lower.minZ, higher.max, higher.maxX, higher.maxZ,
+                    (mean * count + other.mean * other.count) / total, total);
+        }
+
+        public short getMin() {
+            return min;
+        }
+
+        public int getMinX() {
+            return minX;
+        }
+
+        public int getMinZ() {
+            return minZ;
+        }
+
+        public short getMax() {
+            return max;
+        }
+
+        public int getMaxX() {
+            return maxX;
+        }
+
+        public int getMaxZ() {
+            return maxZ;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        /**
+         * @return the amount of pixels of the region
+         */
+        public long getCount() {
+            return count;
+        }
+    }
+
+    private static final class Level {
+
+        private final int cellsX, cellsZ, cellSize;
+        private final short[] min, max;
+        private final long[] minPosition, maxPosition, sum;
+
+        private Level(int cellsX, int cellsZ, int cellSize) {
+            this.cellsX = cellsX;
+            this.cellsZ = cellsZ;
+            this.cellSize = cellSize;
+            int cells = cellsX * cellsZ;
+            min = new short[cells];
+            max = new short[cells];
+            minPosition = new long[cells];
+            maxPosition = new long[cells];
+            sum = new long[cells];
+        }
+    }
+
+    /**
+     * Collects the cells visited by a query. Extrema of partially covered cells, which are located outside of the region,
+     * are only used if no other extrema were found, since the region is smaller than a single cell.
+     */
+    private static final class Accumulator {
+
+        private final int left, top, right, bottom;
+        private boolean hasMin, hasMax, hasOutsideMin, hasOutsideMax;
+        private short min, max, outsideMin, outsideMax;
+        private long minPosition, maxPosition, outsideMinPosition, outsideMaxPosition;
+        private double sum;
+        private long count;
+
+        private Accumulator(int left, int top, int right, int bottom) {
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+        }
+
+        private void add(Level cells, int index, long overlap, long area) {
+            short cellMin = cells.min[index], cellMax = cells.max[index];
+            long cellMinPosition = cells.minPosition[index], cellMaxPosition = cells.maxPosition[index];
+            if (overlap == area || contains(cellMinPosition)) {
+                if (!hasMin || cellMin < min) {
+                    hasMin = true;
+                    min = cellMin;
+                    minPosition = cellMinPosition;
+                }
+            } else if (!hasOutsideMin || cellMin < outsideMin) {
+                hasOutsideMin = true;
+                outsideMin = cellMin;
+                outsideMinPosition = cellMinPosition;
+            }
+            if (overlap == area || contains(cellMaxPosition)) {
+                if (!hasMax || cellMax > max) {
+                    hasMax = true;
+                    max = cellMax;
+                    maxPosition = cellMaxPosition;
+                }
+            } else if (!hasOutsideMax || cellMax > outsideMax) {
+                hasOutsideMax = true;
+                outsideMax = cellMax;
+                outsideMaxPosition = cellMaxPosition;
+            }
+            sum += overlap == area ? cells.sum[index] : (double) cells.sum[index] * overlap / area;
+            count += overlap;
+        }
+
+        private boolean contains(long position) {
+            int x = positionX(position), z = positionZ(position);
+            return x >= left && x < right && z >= top && z < bottom;
+        }
+
+        private Summary toSummary() {
+            short resultMin = hasMin ? min : outsideMin;
+            long resultMinPosition = hasMin ? minPosition : outsideMinPosition;
+            short resultMax = hasMax ? max : outsideMax;
+            long resultMaxPosition = hasMax ? maxPosition : outsideMaxPosition;
+            return new Summary(resultMin, positionX(resultMinPosition), positionZ(resultMinPosition), resultMax,
+                    positionX(resultMaxPosition), positionZ(resultMaxPosition), sum / count, count);
+        }
+    }
+}
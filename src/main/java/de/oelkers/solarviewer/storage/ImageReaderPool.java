@@ -0,0 +1,129 @@
+package de.oelkers.solarviewer.storage;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A bounded pool of image readers for a single file. Each reader keeps its file open and stays attached to it, so
+ * the header and the tile directory of the image are only parsed once per reader instead of once per read. Readers
+ * are created lazily, so the pool can be created even if the file does not exist yet.
+ */
+public final class ImageReaderPool implements Closeable {
+
+    private final String path;
+    private final Semaphore permits;
+    private final Queue<PooledReader> idle = new ConcurrentLinkedQueue<>();
+    private volatile ImageReaderSpi provider;
+    private volatile boolean closed;
+
+    /**
+     * @param path the path of the image file
+     * @param maxReaders the maximum amount of readers, which is also the maximum amount of concurrent reads
+     */
+    public ImageReaderPool(String path, int maxReaders) {
+        this.path = path;
+        permits = new Semaphore(maxReaders, true);
+    }
+
+    @FunctionalInterface
+    public interface ReadTask<T> {
+
+        T read(ImageReader reader) throws IOException;
+    }
+
+    /**
+     * Borrows a reader for the duration of the task, waiting for one to become available if all of them are in use.
+     * The reader must not be used after the task has finished. If the task fails, the reader is closed instead of being
+     * returned to the pool, since its state is unknown.
+     */
+    public <T> T read(ReadTask<T> task) throws IOException {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a reader of " + path);
+        }
+        PooledReader reader = null;
+        boolean healthy = false;
+        try {
+            reader = idle.poll();
+            if (reader == null) {
+                reader = create();
+            }
+            T result = task.read(reader.reader);
+            healthy = true;
+            return result;
+        } finally {
+            if (reader != null) {
+                if (healthy && !closed) {
+                    idle.offer(reader);
+                } else {
+                    reader.close();
+                }
+            }
+            permits.release();
+        }
+    }
+
+    private PooledReader create() throws IOException {
+        if (closed) {
+            throw new IOException("The reader pool of " + path + " is already closed");
+        }
+        ImageInputStream input = new FileImageInputStream(new File(path));
+        try {
+            ImageReader reader;
+            if (provider == null) {
+                // the service lookup is expensive, so it is only done once per file
+                Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+                if (!readers.hasNext()) {
+                    throw new IOException("No image reader found for " + path);
+                }
+                reader = readers.next();
+                provider = reader.getOriginatingProvider();
+            } else {
+                reader = provider.createReaderInstance();
+            }
+            reader.setInput(input, false, true);
+            return new PooledReader(reader, input);
+        } catch (IOException | RuntimeException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        PooledReader reader;
+        while ((reader = idle.poll()) != null) {
+            reader.close();
+        }
+    }
+
+    private static final class PooledReader {
+
+        private final ImageReader reader;
+        private final ImageInputStream input;
+
+        private PooledReader(ImageReader reader, ImageInputStream input) {
+            this.reader = reader;
+            this.input = input;
+        }
+
+        private void close() throws IOException {
+            reader.dispose();
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package de.oelkers.solarviewer.storage;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A cache of byte buffers, which are copied into direct memory and therefore do not put any pressure on the heap.
+ * The total size of all cached buffers is bounded by a budget in bytes. If the budget is exceeded, the least recently
+ * used entries are evicted, but only if the new entry was requested more often than the entries it would replace.
+ * This protects frequently used entries from being flushed out by a burst of entries which are used only once.
+ *
+ * @param <K> the type of the keys, which have to implement {@link Object#hashCode()} and {@link Object#equals(Object)}
+ */
+public final class OffHeapCache<K> {
+
+    /**
+     * The frequency prefetched entries are admitted with, as if they were requested more often than once.
+     */
+    private static final int PREFETCHED_FREQUENCY = 2;
+    private final long maxBytes;
+    private final Map<K, ByteBuffer> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch frequencies;
+    /**
+     * The keys of admitted entries which are still being copied, their bytes are already counted.
+     */
+    private final Set<K> copying = new HashSet<>();
+    private long currentBytes;
+    private long generation;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    /**
+     * @param maxBytes the maximum amount of bytes of all cached buffers combined
+     * @param expectedEntries the approximate amount of entries the cache holds, used to size the frequency estimation
+     */
+    public OffHeapCache(long maxBytes, int expectedEntries) {
+        this.maxBytes = maxBytes;
+        frequencies = new FrequencySketch(expectedEntries);
+    }
+
+    /**
+     * Gets a read only view of the cached buffer, which can be consumed independently of other callers.
+     *
+     * @return the cached buffer or null, if there is none for the key
+     */
+    public synchronized ByteBuffer get(K key) {
+        frequencies.increment(key.hashCode());
+        ByteBuffer result = entries.get(key);
+        if (result == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return result.duplicate();
+    }
+
+    /**
+     * Gets a read only view of the cached buffer like {@link #get(Object)}, without counting it as a request.
+     *
+     * @return the cached buffer or null, if there is none for the key
+     */
+    public synchronized ByteBuffer peek(K key) {
+        ByteBuffer result = entries.get(key);
+        return result == null ? null : result.duplicate();
+    }
+
+    /**
+     * Checks whether the key is cached, without counting it as a request.
+     */
+    public synchronized boolean contains(K key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * Puts the remaining content of the buffer into the cache, if the key is requested frequently enough to justify
+     * the eviction of other entries. Whether the entry is admitted is decided before it is copied, so rejected entries
+     * never allocate any direct memory. The memory of evicted entries is released by the garbage collector, since views
+     * of them may still be written to a connection.
+     *
+     * @return a read only view of the cached buffer or the original buffer, if it was not admitted to the cache
+     */
+    public ByteBuffer put(K key, ByteBuffer buffer) {
+        return put(key, buffer, false);
+    }
+
+    /**
+     * Puts a buffer into the cache like {@link #put(Object, ByteBuffer)}, which was loaded in advance instead of being
+     * requested. Prefetched entries are likely to be requested soon, so they are admitted in place of entries which
+     * were requested at most once, even though the key itself was never requested yet.
+     *
+     * @return a read only view of the cached buffer or the original buffer, if it was not admitted to the cache
+     */
+    public ByteBuffer putPrefetched(K key, ByteBuffer buffer) {
+        return put(key, buffer, true);
+    }
+
+    /**
+     * Checks whether a prefetched entry could be admitted at all, i.e. whether there is free space or the least
+     * recently used entry was requested at most once. Allows to skip loading entries which would be rejected anyway.
+     */
+    public synchronized boolean admitsPrefetched() {
+        if (currentBytes < maxBytes) {
+            return true;
+        }
+        Iterator<K> eldest = entries.keySet().iterator();
+        return eldest.hasNext() && frequencies.estimate(eldest.next().hashCode()) < PREFETCHED_FREQUENCY;
+    }
+
+    private ByteBuffer put(K key, ByteBuffer buffer, boolean prefetched) {
+        int size = buffer.remaining();
+        long generation;
+        synchronized (this) {
+            ByteBuffer existing = entries.get(key);
+            if (existing != null) {
+                return existing.duplicate();
+            }
+            if (size > maxBytes || copying.contains(key) || !makeRoom(admittedFrequency(key, prefetched), size)) {
+                rejections.increment();
+                return buffer;
+            }
+            copying.add(key);
+            currentBytes += size;
+            generation = this.generation;
+        }
+        // copy outside of the lock, the bytes are already reserved for the entry
+        ByteBuffer copy;
+        try {
+            copy = ByteBuffer.allocateDirect(size).put(buffer.duplicate()).flip().asReadOnlyBuffer();
+        } catch (OutOfMemoryError e) {
+            // the direct memory of the process is exhausted, the entry is served from the heap instead
+            synchronized (this) {
+                copying.remove(key);
+                currentBytes -= size;
+                rejections.increment();
+            }
+            return buffer;
+        }
+        synchronized (this) {
+            copying.remove(key);
+            if (generation != this.generation) {
+                // the cache was cleared while copying, the entry may belong to replaced data
+                currentBytes -= size;
+            } else {
+                entries.put(key, copy);
+            }
+            return copy.duplicate();
+        }
+    }
+
+    private int admittedFrequency(K key, boolean prefetched) {
+        int frequency = frequencies.estimate(key.hashCode());
+        return prefetched ? Math.max(frequency, PREFETCHED_FREQUENCY) : frequency;
+    }
+
+    /**
+     * Evicts the least recently used entries, as long as each of them was requested less frequently than the new entry.
+     */
+    private boolean makeRoom(int frequency, int size) {
+        if (currentBytes + size <= maxBytes) {
+            return true;
+        }
+        long freeable = 0;
+        for (Map.Entry<K, ByteBuffer> victim : entries.entrySet()) {
+            if (currentBytes - freeable + size <= maxBytes) {
+                break;
+            }
+            if (frequencies.estimate(victim.getKey().hashCode()) >= frequency) {
+                return false;
+            }
+            freeable += victim.getValue().capacity();
+        }
+        if (currentBytes - freeable + size > maxBytes) {
+            // the remaining bytes are reserved by entries which are still being copied
+            return false;
+        }
+        Iterator<ByteBuffer> iterator = entries.values().iterator();
+        while (currentBytes + size > maxBytes) {
+            currentBytes -= iterator.next().capacity();
+            iterator.remove();
+            evictions.increment();
+        }
+        return true;
+    }
+
+    /**
+     * Removes all entries. Entries which are still being copied are not admitted anymore.
+     */
+    public synchronized void clear() {
+        for (ByteBuffer entry : entries.values()) {
+            currentBytes -= entry.capacity();
+        }
+        entries.clear();
+        generation++;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    public synchronized long getSize() {
+        return currentBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public long getMaxSize() {
+        return maxBytes;
+    }
+
+    /**
+     * A count-min sketch estimating how often a key was requested recently. All counters are halved periodically,
+     * so old popularity fades out over time.
+     */
+    private static final class FrequencySketch {
+
+        private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+        private static final int MAX_COUNT = 15;
+
+        private final int[] table;
+        private final int resetThreshold;
+        private int additions;
+
+        private FrequencySketch(int expectedEntries) {
+            int size = Integer.highestOneBit(Math.max(16, expectedEntries) * 4 - 1) << 1;
+            table = new int[size];
+            resetThreshold = 10 * size;
+        }
+
+        private void increment(int hash) {
+            boolean added = false;
+            for (int seed : SEEDS) {
+                int index = indexOf(hash, seed);
+                if (table[index] < MAX_COUNT) {
+                    table[index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= resetThreshold) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] >>>= 1;
+                }
+                additions /= 2;
+            }
+        }
+
+        private int estimate(int hash) {
+            int result = MAX_COUNT;
+            for (int seed : SEEDS) {
+                result = Math.min(result, table[indexOf(hash, seed)]);
+            }
+            return result;
+        }
+
+        private int indexOf(int hash, int seed) {
+            int mixed = (hash ^ hash >>> 16) * seed;
+            mixed ^= mixed >>> 16;
+            return mixed & (table.length - 1);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package de.oelkers.solarviewer.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A read only store of elevation data that was preprocessed by {@link TiledElevationStoreBuilder}. The data is kept
+ * in several levels, where level n contains every 2^n-th pixel of the original data. Each level is split into square
+ * tiles of raw little-endian samples, which are memory mapped on first access. Reading a region therefore only copies
+ * the requested samples from the page cache to the destination, without any decoding.
+ */
+public final class TiledElevationStore implements Closeable {
+
+    static final int MAGIC = 0x53565453;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 4096;
+
+    private final FileChannel channel;
+    private final int width, height, tileSize, levels;
+    private final long[] levelOffsets;
+    private final List<AtomicReferenceArray<ShortBuffer>> tiles;
+
+    private TiledElevationStore(FileChannel channel, int width, int height, int tileSize, int levels) {
+        this.channel = channel;
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.levels = levels;
+        levelOffsets = levelOffsets(width, height, tileSize, levels);
+        tiles = new ArrayList<>(levels);
+        for (int level = 0; level < levels; level++) {
+            tiles.add(new AtomicReferenceArray<>(tilesX(width, tileSize, level) * tilesZ(height, tileSize, level)));
+        }
+    }
+
+    public static TiledElevationStore open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(6 * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header, 0);
+            header.flip();
+            if (header.remaining() < header.capacity() || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not a tiled elevation store: " + path);
+            }
+            return new TiledElevationStore(channel, header.getInt(), header.getInt(), header.getInt(), header.getInt());
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Checks whether a region can be served from this store. This is the case if the stride has a precomputed level and all
+     * positions and sizes are multiples of the stride, so every requested pixel is contained in that level.
+     */
+    public boolean canRead(int x, int z, int width, int height, int stride) {
+        if (Integer.bitCount(stride) != 1 || Integer.numberOfTrailingZeros(stride) >= levels) {
+            return false;
+        }
+        return x >= 0 && z >= 0 && x < this.width && z < this.height && width <= this.width && height <= this.height
+                && x % stride == 0 && z % stride == 0 && width % stride == 0 && height % stride == 0
+                && this.width % stride == 0 && this.height % stride == 0;
+    }
+
+    /**
+     * Reads the region into the destination, which must have room for (width / stride) * (height / stride) samples.
+     * Columns exceeding the right border wrap around to the left border. Rows exceeding the bottom border are taken from
+     * the end of the data instead, so the region is shifted upwards by the amount it overflows. The corner of a region
+     * overflowing both borders is filled with zeros, exactly like regions decoded from the original data.
+     * Only regions that were checked with {@link #canRead(int, int, int, int, int)} are supported.
+     */
+    public void read(int x, int z, int width, int height, int stride, ShortBuffer destination) throws IOException {
+        int level = Integer.numberOfTrailingZeros(stride);
+        int zOverflow = Math.max(0, z + height - this.height);
+        int firstWidth = Math.min(width, this.width - x);
+        for (int sourceZ = z; sourceZ < z + height; sourceZ += stride) {
+            boolean overflowing = sourceZ >= this.height;
+            int row = (overflowing ? sourceZ - zOverflow : sourceZ) / stride;
+            readRow(level, row, x / stride, firstWidth / stride, destination);
+            if (firstWidth < width && overflowing) {
+                fill(destination, (width - firstWidth) / stride);
+            } else if (firstWidth < width) {
+                readRow(level, row, 0, (width - firstWidth) / stride, destination);
+            }
+        }
+    }
+
+    private static void fill(ShortBuffer destination, int length) {
+        for (int i = 0; i < length; i++) {
+            destination.put((short) 0);
+        }
+    }
+
+    private void readRow(int level, int row, int column, int length, ShortBuffer destination) throws IOException {
+        int tileZ = row / tileSize;
+        int tileRow = row % tileSize;
+        while (length > 0) {
+            int tileX = column / tileSize;
+            int tileColumn = column % tileSize;
+            int count = Math.min(length, tileSize - tileColumn);
+            ShortBuffer source = getTile(level, tileX, tileZ).duplicate();
+            int position = tileRow * tileSize + tileColumn;
+            source.limit(position + count).position(position);
+            destination.put(source);
+            column += count;
+            length -= count;
+        }
+    }
+
+    private ShortBuffer getTile(int level, int tileX, int tileZ) throws IOException {
+        int index = tileZ * tilesX(width, tileSize, level) + tileX;
+        ShortBuffer tile = tiles.get(level).get(index);
+        if (tile == null) {
+            long tileBytes = (long) tileSize * tileSize * Short.BYTES;
+            long offset = levelOffsets[level] + index * tileBytes;
+            tile = channel.map(FileChannel.MapMode.READ_ONLY, offset, tileBytes).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+            // concurrent mappings of the same tile are harmless, one of them just gets garbage collected
+            tiles.get(level).compareAndSet(index, null, tile);
+        }
+        return tile;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getLevels() {
+        return levels;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    static int tilesX(int width, int tileSize, int level) {
+        return ceilDiv(ceilDiv(width, 1 << level), tileSize);
+    }
+
+    static int tilesZ(int height, int tileSize, int level) {
+        return ceilDiv(ceilDiv(height, 1 << level), tileSize);
+    }
+
+    static long[] levelOffsets(int width, int height, int tileSize, int levels) {
+        long[] result = new long[levels + 1];
+        result[0] = HEADER_BYTES;
+        for (int level = 0; level < levels; level++) {
+            long tileCount = (long) tilesX(width, tileSize, level) * tilesZ(height, tileSize, level);
+            result[level + 1] = result[level] + tileCount * tileSize * tileSize * Short.BYTES;
+        }
+        return result;
+    }
+
+    private static int ceilDiv(int dividend, int divisor) {
+        return (dividend + divisor - 1) / divisor;
+    }
+}
@@ -0,0 +1,268 @@
+package de.oelkers.solarviewer.storage;
+
+import de.oelkers.solarviewer.utils.ShortRaster;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import static de.oelkers.solarviewer.storage.TiledElevationStore.*;
+
+/**
+ * Converts elevation data of an arbitrary source into the format of a {@link TiledElevationStore}. This is an offline
+ * step, since reading the whole source data once for every level takes a long time for big datasets. Tiles are read,
+ * transformed and written independently of each other in parallel, so only a few tiles are held in memory at once.
+ * The build can be resumed after it was interrupted, since completed tiles are recorded in a progress file next to the
+ * target.
+ */
+public final class TiledElevationStoreBuilder {
+
+    private static final Logger LOGGER = Logger.getLogger(TiledElevationStoreBuilder.class.getName());
+    private static final byte COMPLETED = 1;
+
+    private final TileSource source;
+    private final int width, height, tileSize;
+    private int levels = 1;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private TileTransform transform = (data, x, z) -> {};
+    private ProgressListener progressListener = (completed, total) -> {};
+
+    /**
+     * A source of elevation data, which has to return the region subsampled with the given stride.
+     * Requested regions never exceed the bounds of the data. Must be safe to be called from multiple threads.
+     */
+    @FunctionalInterface
+    public interface TileSource {
+
+        ShortRaster read(int x, int z, int width, int height, int stride) throws IOException;
+    }
+
+    /**
+     * Modifies the data of a single tile in place, before it is written. Must be safe to be called from multiple threads.
+     */
+    @FunctionalInterface
+    public interface TileTransform {
+
+        /**
+         * @param data the data of the tile, which is smaller than the tile size at the borders
+         * @param x the x position of the tile in pixels of the original data
+         * @param z the z position of the tile in pixels of the original data
+         */
+        void apply(ShortRaster data, int x, int z);
+    }
+
+    @FunctionalInterface
+    public interface ProgressListener {
+
+        void onProgress(int completedTiles, int totalTiles);
+    }
+
+    /**
+     * @param source the source of the original data
+     * @param width the width of the original data in pixels
+     * @param height the height of the original data in pixels
+     * @param tileSize the width and height of a single tile in pixels of its level
+     */
+    public TiledElevationStoreBuilder(TileSource source, int width, int height, int tileSize) {
+        this.source = source;
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * @param levels the amount of levels, level n is subsampled with a stride of 2^n
+     */
+    public TiledElevationStoreBuilder levels(int levels) {
+        this.levels = levels;
+        return this;
+    }
+
+    public TiledElevationStoreBuilder parallelism(int parallelism) {
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public TiledElevationStoreBuilder transform(TileTransform transform) {
+        this.transform = transform;
+        return this;
+    }
+
+    public TiledElevationStoreBuilder progressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+        return this;
+    }
+
+    /**
+     * Builds the store at the target path. The data is written to a temporary file first, so an existing store is only
+     * replaced if the build was successful. If there is an unfinished build of the same target, it is resumed.
+     */
+    public void build(Path target) throws IOException {
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        Path progress = target.resolveSibling(target.getFileName() + ".progress");
+        boolean resume = Files.exists(temporary) && Files.exists(progress);
+        long[] levelOffsets = levelOffsets(width, height, tileSize, levels);
+        int totalTiles = 0;
+        for (int level = 0; level < levels; level++) {
+            totalTiles += tilesX(width, tileSize, level) * tilesZ(height, tileSize, level);
+        }
+        try (FileChannel channel = open(temporary, resume); FileChannel progressChannel = open(progress, resume)) {
+            ByteBuffer header = ByteBuffer.allocate(6 * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height).putInt(tileSize).putInt(levels).flip();
+            if (resume && !isCompatible(channel, header)) {
+                throw new IOException("The unfinished build at " + temporary + " has different parameters, delete it to start over");
+            }
+            writeFully(channel, header, 0);
+            byte[] completed = new byte[totalTiles];
+            progressChannel.read(ByteBuffer.wrap(completed), 0);
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            AtomicInteger completedTiles = new AtomicInteger();
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                int index = 0;
+                for (int level = 0; level < levels; level++) {
+                    int tilesX = tilesX(width, tileSize, level);
+                    int tilesZ = tilesZ(height, tileSize, level);
+                    for (int tileZ = 0; tileZ < tilesZ; tileZ++) {
+                        for (int tileX = 0; tileX < tilesX; tileX++, index++) {
+                            if (completed[index] == COMPLETED) {
+                                completedTiles.incrementAndGet();
+                                continue;
+                            }
+                            long offset = levelOffsets[level] + (long) (tileZ * tilesX + tileX) * tileSize * tileSize * Short.BYTES;
+                            Tile tile = new Tile(level, tileX, tileZ, offset, index);
+                            int total = totalTiles;
+                            tasks.add(pool.submit(() -> {
+                                buildTile(tile, channel, progressChannel);
+                                reportProgress(completedTiles.incrementAndGet(), total, target);
+                                return null;
+                            }));
+                        }
+                    }
+                }
+                for (ForkJoinTask<?> task : tasks) {
+                    task.get();
+                }
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) cause).getCause();
+                }
+                throw new IOException("Failed to build " + target, cause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while building " + target);
+            } finally {
+                // interrupting a thread writing to a channel closes it, so running tiles are finished instead
+                for (ForkJoinTask<?> task : tasks) {
+                    task.cancel(false);
+                }
+                awaitTermination(pool);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.delete(progress);
+    }
+
+    private void buildTile(Tile tile, FileChannel channel, FileChannel progressChannel) {
+        try {
+            int stride = 1 << tile.level;
+            int x = tile.x * tileSize * stride;
+            int z = tile.z * tileSize * stride;
+            ShortRaster data = source.read(x, z, Math.min(tileSize * stride, width - x), Math.min(tileSize * stride, height - z), stride);
+            transform.apply(data, x, z);
+            ByteBuffer buffer = ByteBuffer.allocate(tileSize * tileSize * Short.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            fill(buffer, data, tileSize);
+            writeFully(channel, buffer, tile.offset);
+            // the tile has to be persisted before it is marked as completed, otherwise a resumed build may miss it
+            channel.force(false);
+            writeFully(progressChannel, ByteBuffer.wrap(new byte[]{COMPLETED}), tile.index);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void reportProgress(int completedTiles, int totalTiles, Path target) {
+        progressListener.onProgress(completedTiles, totalTiles);
+        int percent = 100 * completedTiles / totalTiles;
+        if (percent != 100 * (completedTiles - 1) / totalTiles) {
+            LOGGER.info(() -> "Building " + target + ": " + percent + "% (" + completedTiles + "/" + totalTiles + " tiles)");
+        }
+    }
+
+    private static void awaitTermination(ForkJoinPool pool) {
+        pool.shutdown();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (pool.awaitTermination(1, TimeUnit.MINUTES)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static FileChannel open(Path path, boolean resume) throws IOException {
+        if (resume) {
+            return FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private static boolean isCompatible(FileChannel channel, ByteBuffer header) throws IOException {
+        ByteBuffer existing = ByteBuffer.allocate(header.remaining());
+        channel.read(existing, 0);
+        return existing.flip().equals(header.duplicate());
+    }
+
+    private static void fill(ByteBuffer tile, ShortRaster data, int tileSize) {
+        ShortBuffer samples = tile.asShortBuffer();
+        for (int row = 0; row < data.getHeight(); row++) {
+            // tiles at the border are padded with zeros, the padding is never read
+            samples.position(row * tileSize);
+            samples.put(data.getData(), data.index(0, row), data.getWidth());
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static final class Tile {
+
+        private final int level, x, z, index;
+        private final long offset;
+
+        private Tile(int level, int x, int z, long offset, int index) {
+            this.level = level;
+            this.x = x;
+            this.z = z;
+            this.offset = offset;
+            this.index = index;
+        }
+    }
+}
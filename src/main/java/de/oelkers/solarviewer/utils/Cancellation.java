@@ -0,0 +1,67 @@
+package de.oelkers.solarviewer.utils;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Signals that the result of some work is no longer needed. Unlike interrupting a thread, this only stops work which
+ * checks for it or registered a callback, so it never closes channels shared with other work as a side effect.
+ */
+public final class Cancellation {
+
+    private final List<Runnable> callbacks = new ArrayList<>();
+    private volatile boolean cancelled;
+
+    /**
+     * Cancels the work and runs all registered callbacks. Does nothing if it was already cancelled. The callbacks are
+     * run while holding a lock, so once a callback was removed, it is guaranteed to not run anymore. They should
+     * therefore only signal the work to stop and return immediately.
+     */
+    public void cancel() {
+        synchronized (callbacks) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            for (Runnable callback : callbacks) {
+                callback.run();
+            }
+            callbacks.clear();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @throws InterruptedIOException if the work was cancelled
+     */
+    public void throwIfCancelled() throws InterruptedIOException {
+        if (cancelled) {
+            throw new InterruptedIOException("The work was cancelled");
+        }
+    }
+
+    /**
+     * Registers a callback which is run once the work is cancelled, on the thread cancelling it. If the work is
+     * already cancelled, the callback is run immediately.
+     *
+     * @return removes the callback again, once the work it stops is done
+     */
+    public Runnable onCancel(Runnable callback) {
+        synchronized (callbacks) {
+            if (!cancelled) {
+                callbacks.add(callback);
+                return () -> {
+                    synchronized (callbacks) {
+                        callbacks.remove(callback);
+                    }
+                };
+            }
+        }
+        callback.run();
+        return () -> {};
+    }
+}
@@ -14,17 +14,29 @@ public final class RasterDataRedundancy {
     }
 
     public static void findRedundancies(short[][] data, short replacement, int chunkSize) {
-        boolean[][] visited = new boolean[data.length][data[0].length];
-        for (int z = 0; z <= data.length - MIN_KERNEL_SIZE; z++) {
-            for (int x = 0; x <= data[0].length - MIN_KERNEL_SIZE; x++) {
-                if (!visited[z][x]) {
+        ShortRaster raster = ShortRaster.of(data);
+        findRedundancies(raster, replacement, chunkSize);
+        raster.copyTo(data);
+    }
+
+    /**
+     * Replaces the inner values of all areas that can be interpolated linearly from their borders with the replacement
+     * value, without any area crossing the border of a chunk.
+     *
+     * @param data the raster, which is modified in place
+     */
+    public static void findRedundancies(ShortRaster data, short replacement, int chunkSize) {
+        boolean[] visited = new boolean[data.getWidth() * data.getHeight()];
+        for (int z = 0; z <= data.getHeight() - MIN_KERNEL_SIZE; z++) {
+            for (int x = 0; x <= data.getWidth() - MIN_KERNEL_SIZE; x++) {
+                if (!visited[z * data.getWidth() + x]) {
                     markRedundancies(data, replacement, visited, x, z, chunkSize);
                 }
             }
         }
     }
 
-    private static void markRedundancies(short[][] data, short replacement, boolean[][] visited, int currentX, int currentZ, int chunkSize) {
+    private static void markRedundancies(ShortRaster data, short replacement, boolean[] visited, int currentX, int currentZ, int chunkSize) {
         List<Coordinates> rows = checkRows(data, currentX, currentZ, chunkSize);
         List<Coordinates> columns = checkColumns(data, currentX, currentZ, chunkSize);
         Coordinates maxArea = getRasterMaxArea(rows, columns);
@@ -32,10 +44,10 @@ public final class RasterDataRedundancy {
             for (int z = 0; z < maxArea.z; z++) {
                 for (int x = 0; x < maxArea.x; x++) {
                     if (x != 0 && x != maxArea.x - 1 && z != 0 && z != maxArea.z - 1) {
-                        assert data[currentZ + z][currentX + x] != replacement;
-                        data[currentZ + z][currentX + x] = replacement;
+                        assert data.get(currentX + x, currentZ + z) != replacement;
+                        data.set(currentX + x, currentZ + z, replacement);
                     }
-                    visited[currentZ + z][currentX + x] = true;
+                    visited[(currentZ + z) * data.getWidth() + currentX + x] = true;
                 }
             }
         }
@@ -56,17 +68,17 @@ public final class RasterDataRedundancy {
         return new Coordinates(maxX, maxZ);
     }
 
-    private static List<Coordinates> checkRows(short[][] data, int currentX, int currentZ, int chunkSize) {
+    private static List<Coordinates> checkRows(ShortRaster data, int currentX, int currentZ, int chunkSize) {
         int zLeft = currentZ + chunkSize - currentZ % chunkSize;
         int xLeft = currentX + chunkSize - currentX % chunkSize;
         List<Coordinates> result = new ArrayList<>();
         Coordinates widthAndHeight = new Coordinates();
         result.add(widthAndHeight);
-        for (int z = currentZ; z < data.length && z < zLeft; z++, widthAndHeight.z++) {
-            int difference = data[currentZ][currentX] - data[currentZ][currentX + 1];
+        for (int z = currentZ; z < data.getHeight() && z < zLeft; z++, widthAndHeight.z++) {
+            int difference = data.get(currentX, currentZ) - data.get(currentX + 1, currentZ);
             int currentRowSize = 2;
-            for (int x = currentX + 1; x < data[0].length - 1 && x < xLeft - 1; x++) {
-                if (data[z][x] - data[z][x + 1] == difference) {
+            for (int x = currentX + 1; x < data.getWidth() - 1 && x < xLeft - 1; x++) {
+                if (data.get(x, z) - data.get(x + 1, z) == difference) {
                     if (widthAndHeight.x != 0 && widthAndHeight.x <= currentRowSize) {
                         break;
                     }
@@ -86,17 +98,17 @@ public final class RasterDataRedundancy {
         return result;
     }
 
-    private static List<Coordinates> checkColumns(short[][] data, int currentX, int currentZ, int chunkSize) {
+    private static List<Coordinates> checkColumns(ShortRaster data, int currentX, int currentZ, int chunkSize) {
         int xLeft = currentX + chunkSize - currentX % chunkSize;
         int zLeft = currentZ + chunkSize - currentZ % chunkSize;
         List<Coordinates> result = new ArrayList<>();
         Coordinates widthAndHeight = new Coordinates();
         result.add(widthAndHeight);
-        for (int x = currentX; x < data[0].length && x < xLeft; x++, widthAndHeight.x++) {
-            int difference = data[currentZ][currentX] - data[currentZ + 1][currentX];
+        for (int x = currentX; x < data.getWidth() && x < xLeft; x++, widthAndHeight.x++) {
+            int difference = data.get(currentX, currentZ) - data.get(currentX, currentZ + 1);
             int currentColumnSize = 2;
-            for (int z = currentZ + 1; z < data.length - 1 && z < zLeft - 1; z++) {
-                if (data[z][x] - data[z + 1][x] == difference) {
+            for (int z = currentZ + 1; z < data.getHeight() - 1 && z < zLeft - 1; z++) {
+                if (data.get(x, z) - data.get(x, z + 1) == difference) {
                     if (widthAndHeight.z != 0 && widthAndHeight.z <= currentColumnSize) {
                         break;
                     }
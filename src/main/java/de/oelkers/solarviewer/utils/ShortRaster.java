@@ -0,0 +1,113 @@
+package de.oelkers.solarviewer.utils;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * A rectangular view on 16 bit raster data, which is stored row by row in a flat array. The distance between the starts
+ * of two rows is the row stride, which may be bigger than the width, so a raster can be backed by a bigger, reused array.
+ */
+public final class ShortRaster {
+
+    private final short[] data;
+    private final int width, height, rowStride;
+
+    public ShortRaster(short[] data, int width, int height, int rowStride) {
+        if (rowStride < width || data.length < (long) rowStride * height) {
+            throw new IllegalArgumentException("The array is too small for a raster of " + width + "x" + height);
+        }
+        this.data = data;
+        this.width = width;
+        this.height = height;
+        this.rowStride = rowStride;
+    }
+
+    public ShortRaster(int width, int height) {
+        this(new short[width * height], width, height, width);
+    }
+
+    /**
+     * Copies the data, which must have rows of equal length, into a new raster.
+     *
+     * @param data the data in [z][x] order
+     */
+    public static ShortRaster of(short[][] data) {
+        ShortRaster result = new ShortRaster(data.length == 0 ? 0 : data[0].length, data.length);
+        for (int z = 0; z < data.length; z++) {
+            System.arraycopy(data[z], 0, result.data, z * result.rowStride, result.width);
+        }
+        return result;
+    }
+
+    public short get(int x, int z) {
+        return data[index(x, z)];
+    }
+
+    public void set(int x, int z, short value) {
+        data[index(x, z)] = value;
+    }
+
+    /**
+     * @return the position of the value in the backing array
+     */
+    public int index(int x, int z) {
+        return z * rowStride + x;
+    }
+
+    /**
+     * Sets all values of the region to the given value.
+     */
+    public void fill(int x, int z, int width, int height, short value) {
+        for (int row = z; row < z + height; row++) {
+            int start = index(x, row);
+            Arrays.fill(data, start, start + width, value);
+        }
+    }
+
+    /**
+     * Writes the raster row by row to the current position of the buffer, without any gaps between the rows.
+     */
+    public void copyTo(ShortBuffer buffer) {
+        if (rowStride == width) {
+            buffer.put(data, 0, width * height);
+            return;
+        }
+        for (int z = 0; z < height; z++) {
+            buffer.put(data, z * rowStride, width);
+        }
+    }
+
+    /**
+     * Copies the raster into the rows of the given array, which must have the same dimensions.
+     */
+    public void copyTo(short[][] rows) {
+        for (int z = 0; z < height; z++) {
+            System.arraycopy(data, z * rowStride, rows[z], 0, width);
+        }
+    }
+
+    /**
+     * @return a copy of the raster in [z][x] order
+     */
+    public short[][] toArray() {
+        short[][] result = new short[height][width];
+        copyTo(result);
+        return result;
+    }
+
+    public short[] getData() {
+        return data;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getRowStride() {
+        return rowStride;
+    }
+}
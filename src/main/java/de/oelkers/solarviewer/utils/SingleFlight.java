@@ -0,0 +1,175 @@
+package de.oelkers.solarviewer.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Coalesces concurrent loads of the same key, so the first caller loads the value and all callers arriving while it is
+ * loading wait for its result instead of loading it again. Once the load is done, the key is forgotten, so later
+ * callers load it again. Caching the result is up to the loader, which should therefore check the cache again, since
+ * a caller may have missed the cache right before the previous load completed.
+ * <p>
+ * Each caller may stop waiting with its own {@link Cancellation}, which only fails that caller. The load itself is only
+ * cancelled once all of its callers stopped waiting, callers arriving after that start a new load.
+ *
+ * @param <K> the type of the keys, which have to implement {@link Object#hashCode()} and {@link Object#equals(Object)}
+ * @param <V> the type of the values, which are shared between all coalesced callers
+ */
+public final class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, Flight<V>> loading = new ConcurrentHashMap<>();
+    private final long timeoutNanos;
+    private final Runnable onCoalesced, onTimeout;
+
+    @FunctionalInterface
+    public interface Loader<V> {
+
+        V load() throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface CancellableLoader<V> {
+
+        /**
+         * @param cancellation cancelled once none of the callers waits for the value anymore
+         */
+        V load(Cancellation cancellation) throws IOException;
+    }
+
+    /**
+     * @param timeout how long callers wait for the load of another caller, before they give up
+     * @param onCoalesced called whenever a caller waits for the load of another caller
+     * @param onTimeout called whenever a caller gave up waiting
+     */
+    public SingleFlight(long timeout, TimeUnit unit, Runnable onCoalesced, Runnable onTimeout) {
+        timeoutNanos = unit.toNanos(timeout);
+        this.onCoalesced = onCoalesced;
+        this.onTimeout = onTimeout;
+    }
+
+    /**
+     * Loads the value or waits for the load of another caller with the same key. If that load fails, all waiting
+     * callers fail as well. If it takes longer than the timeout, the key is forgotten, so following callers start a
+     * new load instead of waiting for one that may never complete.
+     *
+     * @throws IOException if the load failed, took too long or waiting for it was interrupted
+     */
+    public V load(K key, Loader<V> loader) throws IOException {
+        return load(key, new Cancellation(), cancellation -> loader.load());
+    }
+
+    /**
+     * Loads the value like {@link #load(Object, Loader)}, but stops waiting for it once the cancellation is cancelled.
+     * The caller loading the value keeps loading it as long as other callers wait for it.
+     *
+     * @throws java.io.InterruptedIOException if the caller stopped waiting or the load was cancelled
+     */
+    public V load(K key, Cancellation cancellation, CancellableLoader<V> loader) throws IOException {
+        Flight<V> created = new Flight<>();
+        while (true) {
+            Flight<V> existing = loading.putIfAbsent(key, created);
+            if (existing == null) {
+                break;
+            }
+            if (existing.join()) {
+                onCoalesced.run();
+                return await(key, existing, cancellation);
+            }
+            // all callers of the existing load stopped waiting, so it is about to be cancelled
+            loading.remove(key, existing);
+        }
+        Runnable unregister = cancellation.onCancel(created::leave);
+        try {
+            V result = loader.load(created.cancellation);
+            created.future.complete(result);
+            return result;
+        } catch (IOException | RuntimeException | Error e) {
+            created.future.completeExceptionally(e);
+            throw e;
+        } finally {
+            unregister.run();
+            loading.remove(key, created);
+        }
+    }
+
+    private V await(K key, Flight<V> flight, Cancellation cancellation) throws IOException {
+        // a copy can be cancelled without affecting the other callers
+        CompletableFuture<V> result = flight.future.copy();
+        Runnable unregister = cancellation.onCancel(() -> {
+            if (result.cancel(false)) {
+                flight.leave();
+            }
+        });
+        try {
+            return result.get(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (CancellationException e) {
+            throw new InterruptedIOException("Stopped waiting for " + key);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            flight.leave();
+            throw new InterruptedIOException("Interrupted while waiting for " + key);
+        } catch (TimeoutException e) {
+            loading.remove(key, flight);
+            flight.leave();
+            onTimeout.run();
+            throw new IOException("Timed out waiting for " + key, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Loading " + key + " failed", e.getCause());
+        } finally {
+            unregister.run();
+        }
+    }
+
+    /**
+     * @return whether other callers are waiting for the load of the key besides the caller loading it
+     */
+    public boolean isShared(K key) {
+        Flight<V> flight = loading.get(key);
+        return flight != null && flight.callers.get() > 1;
+    }
+
+    /**
+     * @return the amount of keys currently being loaded
+     */
+    public int getLoading() {
+        return loading.size();
+    }
+
+    private static final class Flight<V> {
+
+        private final CompletableFuture<V> future = new CompletableFuture<>();
+        private final Cancellation cancellation = new Cancellation();
+        /**
+         * The amount of callers which still wait for the value, including the one loading it.
+         */
+        private final AtomicInteger callers = new AtomicInteger(1);
+
+        /**
+         * @return whether the caller joined, which fails once all other callers stopped waiting
+         */
+        private boolean join() {
+            int current;
+            do {
+                current = callers.get();
+                if (current == 0) {
+                    return false;
+                }
+            } while (!callers.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        private void leave() {
+            if (callers.decrementAndGet() == 0) {
+                cancellation.cancel();
+            }
+        }
+    }
+}
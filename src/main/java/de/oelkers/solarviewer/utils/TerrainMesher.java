@@ -0,0 +1,205 @@
+package de.oelkers.solarviewer.utils;
+
+import java.util.Arrays;
+
+/**
+ * Triangulates a square grid of elevation data into a right-angled irregular network (RTIN), which only uses as many
+ * triangles as necessary to stay within a vertical error tolerance. The grid is split recursively into right triangles
+ * along the middle of their longest edge, so the resulting mesh never has cracks within the grid. The error of every
+ * split is computed once, so meshes for several tolerances can be extracted cheaply.
+ * <p>
+ * All vertices on the border of the grid are always part of the mesh, so grids sharing an edge have exactly the same
+ * vertices along it and neighbouring meshes never have cracks between them either. This costs a few triangles per
+ * border vertex, which is negligible compared to a uniform grid.
+ */
+public final class TerrainMesher {
+
+    private final float[] elevations;
+    private final float[] errors;
+    private final int size;
+
+    /**
+     * @param elevations the elevation data row by row, with (2^n + 1)^2 samples
+     * @param size the width and height of the grid, which must be a power of two plus one
+     */
+    public TerrainMesher(float[] elevations, int size) {
+        if (size < 3 || Integer.bitCount(size - 1) != 1 || elevations.length != size * size) {
+            throw new IllegalArgumentException("The grid must have (2^n + 1)^2 samples, but has " + elevations.length);
+        }
+        this.elevations = elevations;
+        this.size = size;
+        errors = new float[size * size];
+        computeErrors();
+    }
+
+    /**
+     * Visits all triangles from the smallest to the biggest and stores the error of each one at the middle of its longest
+     * edge, which is shared with the other triangle split at the same vertex. Each error includes the errors of all
+     * smaller triangles within, so a triangle is always split if any of its descendants has to be. The triangles are
+     * numbered like a binary heap, where the path from the root to a triangle is encoded in its number.
+     */
+    private void computeErrors() {
+        int max = size - 1;
+        int triangles = 2 * max * max - 2;
+        int parents = triangles - max * max;
+        for (int i = triangles - 1; i >= 0; i--) {
+            int id = i + 2;
+            int ax = 0, az = 0, bx = 0, bz = 0, cx = 0, cz = 0;
+            if ((id & 1) != 0) {
+                bx = bz = cx = max;
+            } else {
+                ax = az = cz = max;
+            }
+            while ((id >>= 1) > 1) {
+                int mx = (ax + bx) >> 1, mz = (az + bz) >> 1;
+                if ((id & 1) != 0) {
+                    bx = ax;
+                    bz = az;
+                    ax = cx;
+                    az = cz;
+                } else {
+                    ax = bx;
+                    az = bz;
+                    bx = cx;
+                    bz = cz;
+                }
+                cx = mx;
+                cz = mz;
+            }
+            int mx = (ax + bx) >> 1, mz = (az + bz) >> 1;
+            int middle = mz * size + mx;
+            float error = getError(ax, az, bx, bz, cx, cz);
+            if (mx == 0 || mz == 0 || mx == max || mz == max) {
+                error = Float.POSITIVE_INFINITY;
+            }
+            errors[middle] = Math.max(errors[middle], error);
+            if (i < parents) {
+                int left = ((az + cz) >> 1) * size + ((ax + cx) >> 1);
+                int right = ((bz + cz) >> 1) * size + ((bx + cx) >> 1);
+                errors[middle] = Math.max(errors[middle], Math.max(errors[left], errors[right]));
+            }
+        }
+    }
+
+    /**
+     * Calculates the maximum vertical distance between the triangle and the samples within it. Every level of triangles
+     * covers the grid once, so this visits each sample about twice per level.
+     */
+    private float getError(int ax, int az, int bx, int bz, int cx, int cz) {
+        int area = cross(ax, az, bx, bz, cx, cz);
+        float a = elevations[az * size + ax], b = elevations[bz * size + bx], c = elevations[cz * size + cx];
+        float error = 0;
+        for (int z = Math.min(az, Math.min(bz, cz)); z <= Math.max(az, Math.max(bz, cz)); z++) {
+            for (int x = Math.min(ax, Math.min(bx, cx)); x <= Math.max(ax, Math.max(bx, cx)); x++) {
+                // the barycentric coordinates scaled by the area, which all have the sign of the area inside the triangle
+                int weightA = cross(bx, bz, cx, cz, x, z), weightB = cross(cx, cz, ax, az, x, z);
+                int weightC = area - weightA - weightB;
+                if ((long) weightA * area >= 0 && (long) weightB * area >= 0 && (long) weightC * area >= 0) {
+                    float interpolated = (weightA * a + weightB * b + weightC * c) / area;
+                    error = Math.max(error, Math.abs(interpolated - elevations[z * size + x]));
+                }
+            }
+        }
+        return error;
+    }
+
+    private static int cross(int ax, int az, int bx, int bz, int cx, int cz) {
+        return (bx - ax) * (cz - az) - (bz - az) * (cx - ax);
+    }
+
+    /**
+     * Creates the mesh with the least triangles, where the elevation of the mesh differs at most by the tolerance from
+     * the elevation data at every sample.
+     *
+     * @param tolerance the maximum vertical error in the unit of the elevation data
+     */
+    public Mesh createMesh(double tolerance) {
+        Builder builder = new Builder(tolerance);
+        int max = size - 1;
+        builder.addTriangle(0, 0, max, max, max, 0);
+        builder.addTriangle(max, max, 0, 0, 0, max);
+        return new Mesh(Arrays.copyOf(builder.vertices, builder.vertexCount), Arrays.copyOf(builder.indices, builder.indexCount), size);
+    }
+
+    private final class Builder {
+
+        private final double tolerance;
+        private final int[] vertexIndices = new int[size * size];
+        private int[] vertices = new int[64];
+        private int[] indices = new int[192];
+        private int vertexCount, indexCount;
+
+        private Builder(double tolerance) {
+            this.tolerance = tolerance;
+            Arrays.fill(vertexIndices, -1);
+        }
+
+        private void addTriangle(int ax, int az, int bx, int bz, int cx, int cz) {
+            int mx = (ax + bx) >> 1, mz = (az + bz) >> 1;
+            if (Math.abs(ax - cx) + Math.abs(az - cz) > 1 && errors[mz * size + mx] > tolerance) {
+                addTriangle(cx, cz, ax, az, mx, mz);
+                addTriangle(bx, bz, cx, cz, mx, mz);
+            } else {
+                if (indexCount + 3 > indices.length) {
+                    indices = Arrays.copyOf(indices, 2 * indices.length);
+                }
+                indices[indexCount++] = vertex(ax, az);
+                indices[indexCount++] = vertex(bx, bz);
+                indices[indexCount++] = vertex(cx, cz);
+            }
+        }
+
+        private int vertex(int x, int z) {
+            int position = z * size + x;
+            if (vertexIndices[position] < 0) {
+                if (vertexCount == vertices.length) {
+                    vertices = Arrays.copyOf(vertices, 2 * vertices.length);
+                }
+                vertexIndices[position] = vertexCount;
+                vertices[vertexCount++] = position;
+            }
+            return vertexIndices[position];
+        }
+    }
+
+    /**
+     * A triangle mesh whose vertices are samples of the grid it was created from.
+     */
+    public static final class Mesh {
+
+        private final int[] vertices;
+        private final int[] indices;
+        private final int size;
+
+        private Mesh(int[] vertices, int[] indices, int size) {
+            this.vertices = vertices;
+            this.indices = indices;
+            this.size = size;
+        }
+
+        public int getVertexCount() {
+            return vertices.length;
+        }
+
+        /**
+         * @return the column of the vertex in the grid
+         */
+        public int getX(int vertex) {
+            return vertices[vertex] % size;
+        }
+
+        /**
+         * @return the row of the vertex in the grid
+         */
+        public int getZ(int vertex) {
+            return vertices[vertex] / size;
+        }
+
+        /**
+         * @return the indices of the vertices of all triangles, three per triangle
+         */
+        public int[] getIndices() {
+            return indices;
+        }
+    }
+}
@@ -1,15 +1,31 @@
 /**
- * Defines several constants used by the whole application.
+ * A dataset as it is listed by the server.
  */
-export abstract class Constants {
+interface DatasetInfo {
+    url: string;
+    name: string;
+    meterPerPixel: number;
+    pixelsWidth: number;
+    pixelsHeight: number;
+    radiusMeters: number;
+    ready: boolean;
+}
 
+/**
+ * Defines several constants used by the whole application. The constants of a dataset
+ * are configured on the server, so adding a dataset does not require any changes here.
+ */
+export class Constants {
+
+    public readonly name: string;
     public readonly url: string;
     public readonly meterPerPixel: number;
     public readonly pixelsWidth: number;
     public readonly pixelsHeight: number;
     public readonly radiusMeters: number;
 
-    constructor(url:string, meterPerPixel: number, pixelsWidth: number, pixelsHeight: number, radiusMeters: number) {
+    constructor(name: string, url: string, meterPerPixel: number, pixelsWidth: number, pixelsHeight: number, radiusMeters: number) {
+        this.name = name;
         this.url = url;
         this.meterPerPixel = meterPerPixel;
         this.pixelsWidth = pixelsWidth;
@@ -25,6 +41,28 @@ export abstract class Constants {
     static readonly SLIDER_SPEED = 2000;
     static readonly HUE_CUTOFF = 0.7;
     static readonly VIEW_CHANGE_THROTTLE = 1000;
+    static readonly MAX_RETRIES = 5;
+    /**
+     * The maximum amount of cells per side of the grid the server samples a chunk with for adaptive meshes.
+     */
+    static readonly MAX_MESH_SIZE = 1024;
+    /**
+     * The memory of the models of chunks which are kept after they left the view, in bytes.
+     */
+    static readonly GEOMETRY_CACHE_BYTES = 256 * 1024 * 1024;
+    /**
+     * The memory of the tiles which are kept in the browser across page loads in bytes, 0 disables storing them.
+     */
+    static readonly TILE_STORE_BYTES = 512 * 1024 * 1024;
+
+    /**
+     * Loads the constants of all datasets available on the server.
+     */
+    public static async loadAvailable(): Promise<Array<Constants>> {
+        const datasets: Array<DatasetInfo> = await (await fetch("available")).json();
+        return datasets.map(dataset => new Constants(dataset.name, dataset.url, dataset.meterPerPixel,
+            dataset.pixelsWidth, dataset.pixelsHeight, dataset.radiusMeters));
+    }
     
     public get pixelsPerGlUnit(): number {
         return 1 / this.meterPerPixel / Constants.METER_PER_GL_UNIT;
@@ -46,30 +84,3 @@ export abstract class Constants {
         return this.radiusMeters / Constants.METER_PER_GL_UNIT;
     }
 }
-
-export class MolaConstants extends Constants {
-
-    public static readonly INSTANCE = new MolaConstants();
-
-    private constructor() {
-        super("mola", 463.0835744, 46080, 23040, 3396190)
-    }
-}
-
-export class LolaConstants extends Constants {
-
-    public static readonly INSTANCE = new LolaConstants();
-
-    private constructor() {
-        super("lola", 118.4505876, 92160, 46080, 1737400)
-    }
-}
-
-export class MessengerConstants extends Constants {
-
-    public static readonly INSTANCE = new MessengerConstants();
-
-    private constructor() {
-        super("messenger", 665.24315270546, 23040, 11520, 2439400)
-    }
-}
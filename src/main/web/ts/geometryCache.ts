@@ -0,0 +1,62 @@
+import * as THREE from "three";
+
+/**
+ * Keeps the models of chunks that are no longer shown, so they can be shown again instantly once the camera returns
+ * or the stride changes back. The models keep their buffers on the GPU while they are cached. Once the models need
+ * more memory than the budget, the least recently cached ones are disposed.
+ */
+export default class GeometryCache {
+
+    /**
+     * The cached models in the order they were cached, which a map keeps for its keys.
+     */
+    private readonly entries = new Map<string, THREE.BufferGeometry>();
+    private readonly budgetBytes: number;
+    private bytes = 0;
+
+    /**
+     * @param budgetBytes the maximum size of the vertices and indices of all cached models
+     */
+    constructor(budgetBytes: number) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * Caches the model, which must not be shown anymore. A model cached with the same key before is disposed.
+     */
+    public put(key: string, geometry: THREE.BufferGeometry) {
+        this.take(key)?.dispose();
+        this.entries.set(key, geometry);
+        this.bytes += GeometryCache.getBytes(geometry);
+        for (const [oldestKey, oldest] of this.entries) {
+            if (this.bytes <= this.budgetBytes) {
+                break;
+            }
+            this.entries.delete(oldestKey);
+            this.bytes -= GeometryCache.getBytes(oldest);
+            oldest.dispose();
+        }
+    }
+
+    /**
+     * Removes the model from the cache, so it can be shown again.
+     *
+     * @returns the model or undefined, if it is not cached
+     */
+    public take(key: string): THREE.BufferGeometry | undefined {
+        const geometry = this.entries.get(key);
+        if (geometry) {
+            this.entries.delete(key);
+            this.bytes -= GeometryCache.getBytes(geometry);
+        }
+        return geometry;
+    }
+
+    private static getBytes(geometry: THREE.BufferGeometry): number {
+        const attributes = Object.values(geometry.attributes);
+        if (geometry.index) {
+            attributes.push(geometry.index);
+        }
+        return attributes.reduce((bytes, attribute) => bytes + (attribute.array as unknown as ArrayBufferView).byteLength, 0);
+    }
+}
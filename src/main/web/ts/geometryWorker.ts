@@ -0,0 +1,167 @@
+import { Constants } from "./constants";
+
+/**
+ * The parameters of the projection the vertices are built with. The projection itself can not be sent to a worker,
+ * so the worker implements the same math on typed arrays without allocating any vectors.
+ */
+export interface ProjectionParameters {
+    spherical: boolean;
+    radiusMeters: number;
+    meterPerPixel: number;
+}
+
+/**
+ * A response of the server to be turned into vertices. Grids are tiles in the sparse format, meshes are adaptive
+ * meshes with the amount of cells per side of the grid they were sampled with.
+ */
+export type GeometryJob = { kind: "grid", buffer: ArrayBuffer, projection: ProjectionParameters }
+    | { kind: "mesh", buffer: ArrayBuffer, size: number, projection: ProjectionParameters };
+
+/**
+ * The projected vertices of a job. Grids come with their dimensions instead of indices, so the indices can be shared
+ * between all grids with the same dimensions, while meshes come with their own indices.
+ */
+export type GeometryResult = { vertices: Float32Array, width: number, height: number }
+    | { vertices: Float32Array, indices: Uint16Array | Uint32Array };
+
+/**
+ * The size of the header of the binary elevation format, containing width, height, stride, x and z as 32 bit integers.
+ */
+const HEADER_BYTES = 20;
+/**
+ * The size of the header of the mesh format, containing the grid size, the amount of vertices and indices and x, z
+ * and width of the chunk as 32 bit integers.
+ */
+const MESH_HEADER_BYTES = 24;
+/**
+ * Marks a run of samples in the sparse format, which lie on a plane and can be interpolated from their neighbours.
+ */
+const MARKER = -32768;
+
+// the DOM typings describe self as a window
+const scope = self as unknown as Worker;
+
+scope.onmessage = (event: MessageEvent<{ id: number, job: GeometryJob }>) => {
+    const { id, job } = event.data;
+    try {
+        const result = job.kind === "grid" ? buildGrid(job.buffer, job.projection) : buildMesh(job.buffer, job.size, job.projection);
+        const transfer: Array<Transferable> = [result.vertices.buffer];
+        if ("indices" in result) {
+            transfer.push(result.indices.buffer);
+        }
+        scope.postMessage({ id: id, result: result }, transfer);
+    } catch (e) {
+        scope.postMessage({ id: id, error: String(e) });
+    }
+};
+
+/**
+ * Builds the projected vertices of a tile in the sparse format, row by row.
+ *
+ * @param buffer the header followed by the encoded elevation data
+ */
+function buildGrid(buffer: ArrayBuffer, projection: ProjectionParameters): GeometryResult {
+    const header = new DataView(buffer, 0, HEADER_BYTES);
+    const width = header.getInt32(0, true);
+    const height = header.getInt32(4, true);
+    const stride = header.getInt32(8, true);
+    const xPixel = header.getInt32(12, true);
+    const zPixel = header.getInt32(16, true);
+    const elevations = decodeSparse(buffer, width, height);
+    const vertices = new Float32Array(3 * elevations.length);
+    for (let i = 0; i < elevations.length; i++) {
+        const x = ((i % width) * stride + xPixel) * projection.meterPerPixel;
+        const z = (Math.floor(i / width) * stride + zPixel) * projection.meterPerPixel;
+        project(x, elevations[i]!, z, projection, vertices, 3 * i);
+    }
+    return { vertices: vertices, width: width, height: height };
+}
+
+/**
+ * Builds the projected vertices of an adaptive mesh. The indices are a view of the buffer, which is transferred back
+ * together with the vertices.
+ *
+ * @param buffer the header followed by the grid positions, elevations and indices
+ * @param size the amount of cells per side of the grid the mesh was sampled with
+ */
+function buildMesh(buffer: ArrayBuffer, size: number, projection: ProjectionParameters): GeometryResult {
+    const header = new DataView(buffer, 0, MESH_HEADER_BYTES);
+    const vertexCount = header.getInt32(4, true);
+    const indexCount = header.getInt32(8, true);
+    const xPixel = header.getInt32(12, true);
+    const zPixel = header.getInt32(16, true);
+    const pixelsPerCell = header.getInt32(20, true) / size;
+    const gridPositions = new Uint16Array(buffer, MESH_HEADER_BYTES, 2 * vertexCount);
+    const elevations = new Float32Array(buffer, MESH_HEADER_BYTES + 4 * vertexCount, vertexCount);
+    const indexOffset = MESH_HEADER_BYTES + 8 * vertexCount;
+    const indices = vertexCount > 65536 ? new Uint32Array(buffer, indexOffset, indexCount) : new Uint16Array(buffer, indexOffset, indexCount);
+    const vertices = new Float32Array(3 * vertexCount);
+    for (let i = 0; i < vertexCount; i++) {
+        const x = (xPixel + gridPositions[2 * i]! * pixelsPerCell) * projection.meterPerPixel;
+        const z = (zPixel + gridPositions[2 * i + 1]! * pixelsPerCell) * projection.meterPerPixel;
+        project(x, elevations[i]!, z, projection, vertices, 3 * i);
+    }
+    return { vertices: vertices, indices: indices };
+}
+
+/**
+ * Projects a vertex in meters and writes it into the vertices in GL units, like {@link SphericalProjection} or
+ * {@link FlatProjection} would, but without allocating any vectors.
+ */
+function project(x: number, y: number, z: number, projection: ProjectionParameters, vertices: Float32Array, index: number) {
+    if (projection.spherical) {
+        const radius = projection.radiusMeters;
+        const latitude = z / radius - Math.PI / 2;
+        const longitude = x / radius - Math.PI;
+        const distance = radius + y;
+        const cosLatitude = Math.cos(latitude);
+        x = distance * cosLatitude * Math.sin(longitude);
+        z = distance * cosLatitude * Math.cos(longitude);
+        y = -distance * Math.sin(latitude);
+    }
+    vertices[index] = x / Constants.METER_PER_GL_UNIT;
+    vertices[index + 1] = y / Constants.METER_PER_GL_UNIT;
+    vertices[index + 2] = z / Constants.METER_PER_GL_UNIT;
+}
+
+/**
+ * Decodes the elevation data of the sparse format, which contains the samples row by row, with each run of marked
+ * samples replaced by the marker followed by the length of the run. Since runs never touch the border of a row,
+ * the marked samples are interpolated linearly between the samples to the left and to the right of them.
+ *
+ * @param buffer the header followed by the encoded elevation data
+ * @param width the width of the decoded data
+ * @param height the height of the decoded data
+ */
+function decodeSparse(buffer: ArrayBuffer, width: number, height: number): Int16Array {
+    const encoded = new DataView(buffer, HEADER_BYTES);
+    const result = new Int16Array(width * height);
+    for (let i = 0, offset = 0; i < result.length; offset += 2) {
+        const value = encoded.getInt16(offset, true);
+        if (value === MARKER) {
+            offset += 2;
+            const length = encoded.getUint16(offset, true);
+            result.fill(MARKER, i, i + length);
+            i += length;
+        } else {
+            result[i++] = value;
+        }
+    }
+    for (let z = 0; z < height; z++) {
+        let left = 0;
+        for (let x = 1; x < width; x++) {
+            const index = z * width + x;
+            if (result[index] === MARKER) {
+                continue;
+            }
+            // long runs may be split into several consecutive ones, so the whole gap is interpolated at once
+            const start = result[z * width + left]!;
+            const gap = x - left;
+            for (let step = 1; step < gap; step++) {
+                result[index - gap + step] = Math.round(start + (result[index]! - start) * step / gap);
+            }
+            left = x;
+        }
+    }
+    return result;
+}
@@ -0,0 +1,60 @@
+import type { GeometryJob, GeometryResult } from "./geometryWorker";
+
+interface PendingJob {
+    resolve: (result: GeometryResult) => void;
+    reject: (error: Error) => void;
+}
+
+/**
+ * Builds the vertices of loaded tiles on a pool of web workers, so decoding and projecting them does not block the
+ * rendering of the main thread. Each job is sent to the worker with the fewest pending jobs. The buffers of the jobs
+ * and results are transferred instead of copied, so a buffer can not be used anymore after it was sent.
+ */
+export default class GeometryWorkerPool {
+
+    private readonly workers: Array<Worker> = [];
+    private readonly pending: Array<Map<number, PendingJob>> = [];
+    private nextId = 0;
+
+    /**
+     * @param size the amount of workers, by default one per logical processor
+     */
+    constructor(size = navigator.hardwareConcurrency || 4) {
+        for (let i = 0; i < size; i++) {
+            const worker = new Worker(new URL("./geometryWorker.js", import.meta.url));
+            const pending = new Map<number, PendingJob>();
+            worker.onmessage = (event: MessageEvent<{ id: number, result?: GeometryResult, error?: string }>) => {
+                const job = pending.get(event.data.id)!;
+                pending.delete(event.data.id);
+                if (event.data.result) {
+                    job.resolve(event.data.result);
+                } else {
+                    job.reject(new Error(event.data.error));
+                }
+            };
+            worker.onerror = event => {
+                pending.forEach(job => job.reject(new Error(event.message)));
+                pending.clear();
+            };
+            this.workers.push(worker);
+            this.pending.push(pending);
+        }
+    }
+
+    /**
+     * Builds the vertices of the job on the least busy worker. The buffer of the job is transferred to the worker.
+     */
+    public build(job: GeometryJob): Promise<GeometryResult> {
+        let worker = 0;
+        for (let i = 1; i < this.workers.length; i++) {
+            if (this.pending[i]!.size < this.pending[worker]!.size) {
+                worker = i;
+            }
+        }
+        const id = this.nextId++;
+        return new Promise((resolve, reject) => {
+            this.pending[worker]!.set(id, { resolve: resolve, reject: reject });
+            this.workers[worker]!.postMessage({ id: id, job: job }, [job.buffer]);
+        });
+    }
+}
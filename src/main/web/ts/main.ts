@@ -1,6 +1,6 @@
 import * as THREE from "three";
 import ModelLoader from './modelLoader';
-import { Constants, MolaConstants } from "./constants";
+import { Constants } from "./constants";
 import WorldController from './worldController';
 import { SphericalProjection } from "./projections";
 import InfoArea from './ui/infoArea';
@@ -11,7 +11,11 @@ let configArea: ConfigArea, infoArea: InfoArea;
 let lastTime = performance.now();
 
 window.addEventListener("load", async () => {
-    const constants = MolaConstants.INSTANCE;
+    const datasets = await Constants.loadAvailable();
+    if (datasets.length === 0) {
+        throw new Error("No datasets are available");
+    }
+    const constants = datasets[0]!;
     renderer = new THREE.WebGLRenderer();
     renderer.setSize(window.innerWidth, window.innerHeight);
     document.body.appendChild(renderer.domElement);
@@ -37,7 +41,7 @@ window.addEventListener("load", async () => {
     const worldController = new WorldController(camera, scene, material, modelLoader);
 
     infoArea = new InfoArea(worldController);
-    configArea = new ConfigArea(worldController, material.uniforms);
+    configArea = new ConfigArea(worldController, material.uniforms, datasets);
     render();
 });
 
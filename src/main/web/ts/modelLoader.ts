@@ -1,11 +1,116 @@
 import * as THREE from "three";
 import { Constants } from "./constants";
-import { Projection } from './projections';
+import { Projection, SphericalProjection } from './projections';
+import type { GeometryResult, ProjectionParameters } from './geometryWorker';
+import GeometryWorkerPool from './geometryWorkerPool';
+import TileStore from './tileStore';
+
+/**
+ * A region of elevation data in pixel space, loaded with the given stride.
+ */
+export interface TileRequest {
+    x: number;
+    z: number;
+    width: number;
+    height: number;
+    stride: number;
+}
+
+/**
+ * The minimum, maximum and mean elevation of every chunk of a dataset in meters, ordered row by row.
+ */
+export interface ChunkBounds {
+    chunksX: number;
+    chunksZ: number;
+    min: Array<number>;
+    max: Array<number>;
+    mean: Array<number>;
+}
+
+/**
+ * Reads the frames of a batch response, which consist of the index of the tile in the request and the length of the
+ * payload as little-endian 32 bit integers, followed by the payload. A length of -1 marks a tile that failed to load.
+ */
+class FrameReader {
+
+    private static readonly HEADER_BYTES = 8;
+
+    private readonly reader: ReadableStreamDefaultReader<Uint8Array>;
+    private readonly chunks: Array<Uint8Array> = [];
+    private available = 0;
+
+    constructor(reader: ReadableStreamDefaultReader<Uint8Array>) {
+        this.reader = reader;
+    }
+
+    /**
+     * Waits for the next complete frame. The payload is copied into its own buffer, so it is properly aligned.
+     *
+     * @returns the next frame or undefined, if the response is complete
+     */
+    public async next(): Promise<{ index: number, payload: ArrayBuffer | undefined } | undefined> {
+        if (!await this.fill(FrameReader.HEADER_BYTES)) {
+            return undefined;
+        }
+        const header = new DataView(this.take(FrameReader.HEADER_BYTES).buffer);
+        const index = header.getInt32(0, true);
+        const length = header.getInt32(4, true);
+        if (length < 0) {
+            return { index: index, payload: undefined };
+        }
+        if (!await this.fill(length)) {
+            throw new Error("Incomplete frame in batch response");
+        }
+        return { index: index, payload: this.take(length).buffer };
+    }
+
+    private async fill(bytes: number): Promise<boolean> {
+        while (this.available < bytes) {
+            const { done, value } = await this.reader.read();
+            if (done || !value) {
+                return false;
+            }
+            this.chunks.push(value);
+            this.available += value.length;
+        }
+        return true;
+    }
+
+    private take(bytes: number): Uint8Array {
+        const result = new Uint8Array(bytes);
+        let offset = 0;
+        while (offset < bytes) {
+            const chunk = this.chunks[0]!;
+            const count = Math.min(chunk.length, bytes - offset);
+            result.set(chunk.subarray(0, count), offset);
+            offset += count;
+            if (count === chunk.length) {
+                this.chunks.shift();
+            } else {
+                this.chunks[0] = chunk.subarray(count);
+            }
+        }
+        this.available -= bytes;
+        return result;
+    }
+}
 
 export default class ModelLoader {
 
     public constants: Constants;
     public projection: Projection;
+    /**
+     * Identifies the view of this client, so the server can drop tiles requested for an older generation of it.
+     */
+    private readonly viewId = Math.random().toString(36).slice(2);
+    private readonly chunkBounds = new Map<string, Promise<ChunkBounds | undefined>>();
+    private readonly workers = new GeometryWorkerPool();
+    private readonly tileStore = TileStore.open(Constants.TILE_STORE_BYTES);
+    /**
+     * The indices of all grids by their dimensions. There are only a few different dimensions, since all chunks have
+     * the same size and the stride is a power of two.
+     */
+    private readonly gridIndices = new Map<string, Uint16Array | Uint32Array>();
 
     constructor(constants: Constants, projection: Projection) {
         this.constants = constants;
@@ -14,7 +119,7 @@ export default class ModelLoader {
 
     /**
      * Loads the elevation data at the specified position with the specified size and stride in pixel space from the server
-     * and constructs a three dimensional indexed grid model with the current projection.
+     * and constructs a three dimensional indexed grid model with the current projection on a worker.
      *
      * @param xPixel the x position in pixel space
      * @param zPixel the z position in pixel space
@@ -22,52 +127,167 @@ export default class ModelLoader {
      * @param height the height in pixel space
      */
     public async load(xPixel: number, zPixel: number, width: number, height: number, stride: number): Promise<THREE.BufferGeometry> {
-        const url = `${this.constants.url}?x=${xPixel}&z=${zPixel}&stride=${stride}&width=${width}&height=${height}`;
-        const elevationData: number[] = await (await fetch(url)).json()
-        const vertices = new Float32Array(3 * elevationData.length);
-        const dataWidth = width / stride;
-        const dataHeight = height / stride;
-        for (let i = 0; i < elevationData.length; i++) {
-            const x = ((i % dataWidth) * stride + xPixel) * this.constants.meterPerPixel;
-            const z = (Math.floor(i / dataWidth) * stride + zPixel) * this.constants.meterPerPixel;
-            this.projected(new THREE.Vector3(x, elevationData[i], z), vertices, i * 3);
-        }
-        const indexLength = 6 * (dataWidth - 1) * (dataHeight - 1);
-        const indices = vertices.length > 65535 ? new Uint32Array(indexLength) : new Uint16Array(indexLength);
-        for (let z = 0; z < dataHeight - 1; z++) {
-            for (let x = 0; x < dataWidth - 1; x++) {
-                const topLeft = z * dataWidth + x;
-                const topRight = topLeft + 1;
-                const bottomLeft = (z + 1) * dataWidth + x;
-                const bottomRight = bottomLeft + 1;
-                const index = 6 * (z * (dataWidth - 1) + x);
-                indices[index] = topLeft;
-                indices[index + 1] = bottomLeft;
-                indices[index + 2] = topRight;
-                indices[index + 3] = topRight;
-                indices[index + 4] = bottomLeft;
-                indices[index + 5] = bottomRight;
+        const url = this.getTileUrl({ x: xPixel, z: zPixel, width: width, height: height, stride: stride });
+        const buffer = await this.fetchStored(url);
+        return this.createGeometry(await this.workers.build({ kind: "grid", buffer: buffer, projection: this.projectionParameters }));
+    }
+
+    /**
+     * Loads the elevation data of all requests with a single request to the server. The server sends each tile as soon
+     * as it is ready, so the callback is invoked in the order the tiles arrive, not in the order of the requests.
+     * The models are constructed on workers, so the callback may still be invoked after the response is complete, but
+     * not after the returned promise resolved. Tiles the server failed to load are skipped. The server loads the tiles
+     * in the order of the requests, so the most important ones should come first. Once a later generation of the view
+     * is requested, the server drops the tiles of this request it did not start loading yet. Tiles which are stored
+     * in the browser are not requested at all.
+     *
+     * @param requests the tiles to load in pixel space, ordered by their importance
+     * @param onLoad invoked with the request and the constructed model of each tile
+     * @param generation the generation of the view the tiles are requested for
+     * @param signal aborts the request, after which the callback is no longer invoked
+     */
+    public async loadAll<T extends TileRequest>(requests: Array<T>, onLoad: (request: T, geometry: THREE.BufferGeometry) => void,
+                                                generation?: number, signal?: AbortSignal) {
+        const geometries: Array<Promise<void>> = [];
+        const build = (request: T, payload: ArrayBuffer) => {
+            geometries.push(this.workers.build({ kind: "grid", buffer: payload, projection: this.projectionParameters }).then(result => {
+                if (!signal?.aborted) {
+                    onLoad(request, this.createGeometry(result));
+                }
+            }));
+        };
+        const store = await this.tileStore;
+        const urls = requests.map(request => this.getTileUrl(request));
+        const stored = store ? await store.get(urls) : [];
+        const missing: Array<number> = [];
+        requests.forEach((request, i) => {
+            const payload = stored[i];
+            if (payload) {
+                build(request, payload);
+            } else {
+                missing.push(i);
+            }
+        });
+        if (missing.length > 0 && !signal?.aborted) {
+            const body = new Int32Array(5 * missing.length);
+            missing.forEach((index, i) => {
+                const request = requests[index]!;
+                body.set([request.x, request.z, request.width, request.height, request.stride], 5 * i);
+            });
+            const view = generation === undefined ? "" : `&view=${this.viewId}&generation=${generation}`;
+            const response = await this.fetchWithRetry(`${this.constants.url}/tiles?format=rle${view}`, { method: "POST", body: body, signal: signal });
+            const frames = new FrameReader(response.body!.getReader());
+            let frame;
+            while ((frame = await frames.next()) !== undefined && !signal?.aborted) {
+                if (frame.payload) {
+                    const index = missing[frame.index]!;
+                    store?.put(urls[index]!, frame.payload);
+                    build(requests[index]!, frame.payload);
+                }
             }
         }
+        await Promise.all(geometries);
+    }
+
+    /**
+     * Loads the adaptive mesh of a chunk from the server, which only uses as many triangles as necessary to stay within
+     * the tolerance, and constructs a three dimensional indexed model with the current projection. The vertices on the
+     * border of the chunk are the same as the ones of its neighbours, so no additional pixels are needed to connect them.
+     *
+     * @param xChunk the x position of the chunk in chunk space
+     * @param zChunk the z position of the chunk in chunk space
+     * @param size the amount of cells per side of the grid the chunk is sampled with, which must be a power of two
+     * @param tolerance the maximum vertical error in meters
+     * @param signal aborts the request
+     */
+    public async loadMesh(xChunk: number, zChunk: number, size: number, tolerance: number, signal?: AbortSignal): Promise<THREE.BufferGeometry> {
+        const url = `${this.constants.url}/mesh?x=${xChunk}&z=${zChunk}&size=${size}&tolerance=${tolerance}`;
+        const buffer = await this.fetchStored(url, signal);
+        return this.createGeometry(await this.workers.build({ kind: "mesh", buffer: buffer, size: size, projection: this.projectionParameters }));
+    }
+
+    /**
+     * Constructs the model of vertices built by a worker. Grids share their indices with all grids of the same dimensions.
+     */
+    private createGeometry(result: GeometryResult): THREE.BufferGeometry {
         const geometry = new THREE.BufferGeometry();
-        geometry.setAttribute("position", new THREE.BufferAttribute(vertices, 3));
+        geometry.setAttribute("position", new THREE.BufferAttribute(result.vertices, 3));
+        const indices = "indices" in result ? result.indices : this.getGridIndices(result.width, result.height);
+        // every geometry needs its own attribute, since disposing a geometry deletes the buffers of its attributes
         geometry.setIndex(new THREE.BufferAttribute(indices, 1));
         return geometry;
     }
 
+    private getGridIndices(width: number, height: number): Uint16Array | Uint32Array {
+        const key = `${width}x${height}`;
+        let indices = this.gridIndices.get(key);
+        if (!indices) {
+            const indexLength = 6 * (width - 1) * (height - 1);
+            indices = width * height > 65536 ? new Uint32Array(indexLength) : new Uint16Array(indexLength);
+            for (let z = 0; z < height - 1; z++) {
+                for (let x = 0; x < width - 1; x++) {
+                    const topLeft = z * width + x;
+                    const topRight = topLeft + 1;
+                    const bottomLeft = (z + 1) * width + x;
+                    const bottomRight = bottomLeft + 1;
+                    const index = 6 * (z * (width - 1) + x);
+                    indices[index] = topLeft;
+                    indices[index + 1] = bottomLeft;
+                    indices[index + 2] = topRight;
+                    indices[index + 3] = topRight;
+                    indices[index + 4] = bottomLeft;
+                    indices[index + 5] = bottomRight;
+                }
+            }
+            this.gridIndices.set(key, indices);
+        }
+        return indices;
+    }
+
+    /**
+     * Loads the elevation bounds of all chunks of the current dataset, which are only available once the server has
+     * initialized the dataset. Successfully loaded bounds are kept, since they never change.
+     *
+     * @returns the bounds or undefined, if they are not available yet
+     */
+    public loadChunkBounds(): Promise<ChunkBounds | undefined> {
+        const url = this.constants.url;
+        let result = this.chunkBounds.get(url);
+        if (!result) {
+            result = fetch(`${url}/bounds`).then(response => response.ok ? response.json() : undefined, () => undefined);
+            this.chunkBounds.set(url, result);
+            result.then(bounds => {
+                if (!bounds) {
+                    this.chunkBounds.delete(url);
+                }
+            });
+        }
+        return result;
+    }
+
     /**
-     * Generates a plane fully stretching the dimensions of the chunk with just 4 vertices.
-     * While it is projected using the current projection, the height of the chunk is not taken into account.
+     * Generates a plane fully stretching the dimensions of the chunk at its minimum elevation with just 4 vertices.
+     * Additional vertices at the maximum elevation, which are not part of any triangle, make sure that the bounding
+     * sphere of the geometry contains the whole terrain of the chunk, including the curvature of the projection.
      * 
      * @param x the x position of the chunk in chunk space
      * @param z the z position of the chunk in chunk space
+     * @param min the minimum elevation of the chunk in meters
+     * @param max the maximum elevation of the chunk in meters
      */
-    public generatePlane(x: number, z: number): THREE.BufferGeometry {
-        const vertices = new Float32Array(12);
-        this.projected(new THREE.Vector3(x * this.constants.meterPerChunk, 0, z * this.constants.meterPerChunk), vertices, 0);
-        this.projected(new THREE.Vector3(x * this.constants.meterPerChunk + this.constants.meterPerChunk, 0, z * this.constants.meterPerChunk), vertices, 3);
-        this.projected(new THREE.Vector3(x * this.constants.meterPerChunk, 0, z * this.constants.meterPerChunk + this.constants.meterPerChunk), vertices, 6);
-        this.projected(new THREE.Vector3(x * this.constants.meterPerChunk + this.constants.meterPerChunk, 0, z * this.constants.meterPerChunk + this.constants.meterPerChunk), vertices, 9);
+    public generatePlane(x: number, z: number, min = 0, max = 0): THREE.BufferGeometry {
+        const vertices = new Float32Array(27);
+        const left = x * this.constants.meterPerChunk, right = left + this.constants.meterPerChunk;
+        const top = z * this.constants.meterPerChunk, bottom = top + this.constants.meterPerChunk;
+        this.projected(new THREE.Vector3(left, min, top), vertices, 0);
+        this.projected(new THREE.Vector3(right, min, top), vertices, 3);
+        this.projected(new THREE.Vector3(left, min, bottom), vertices, 6);
+        this.projected(new THREE.Vector3(right, min, bottom), vertices, 9);
+        this.projected(new THREE.Vector3(left, max, top), vertices, 12);
+        this.projected(new THREE.Vector3(right, max, top), vertices, 15);
+        this.projected(new THREE.Vector3(left, max, bottom), vertices, 18);
+        this.projected(new THREE.Vector3(right, max, bottom), vertices, 21);
+        this.projected(new THREE.Vector3((left + right) / 2, max, (top + bottom) / 2), vertices, 24);
         const indices = new Uint16Array([0, 2, 1, 1, 2, 3]);
         const geometry = new THREE.BufferGeometry();
         geometry.setAttribute("position", new THREE.BufferAttribute(vertices, 3));
@@ -80,11 +300,61 @@ export default class ModelLoader {
      * 
      * @param x the x position of the chunk in chunk space
      * @param z the z position of the chunk in chunk space
+     * @param elevation the elevation of the midpoint in meters
      */
-    public getMidPoint(xChunk: number, zChunk: number): THREE.Vector3 {
+    public getMidPoint(xChunk: number, zChunk: number, elevation = 0): THREE.Vector3 {
         const x = xChunk * this.constants.meterPerChunk + this.constants.meterPerChunk / 2;
         const z = zChunk * this.constants.meterPerChunk + this.constants.meterPerChunk / 2;
-        return this.projected(new THREE.Vector3(x, 0, z));
+        return this.projected(new THREE.Vector3(x, elevation, z));
+    }
+
+    /**
+     * @returns the url of a single tile in the sparse format, which also identifies the tile in the store
+     */
+    private getTileUrl(request: TileRequest): string {
+        return `${this.constants.url}?x=${request.x}&z=${request.z}&stride=${request.stride}&width=${request.width}&height=${request.height}&format=rle`;
+    }
+
+    /**
+     * Reads the response of the url from the store or fetches it and stores it.
+     */
+    private async fetchStored(url: string, signal?: AbortSignal): Promise<ArrayBuffer> {
+        const store = await this.tileStore;
+        const stored = (await store?.get([url]))?.[0];
+        if (stored) {
+            return stored;
+        }
+        const buffer = await (await this.fetchWithRetry(url, { signal: signal })).arrayBuffer();
+        store?.put(url, buffer);
+        return buffer;
+    }
+
+    /**
+     * Fetches the url and retries it after the delay requested by the server, if it was rejected because of overload.
+     *
+     * @param url the url to fetch
+     * @param init the options of the request
+     * @param retries the amount of retries left
+     */
+    private async fetchWithRetry(url: string, init?: RequestInit, retries = Constants.MAX_RETRIES): Promise<Response> {
+        const response = await fetch(url, init);
+        if (response.status === 503 && retries > 0) {
+            const retryAfter = parseInt(response.headers.get("Retry-After") ?? "1");
+            await new Promise(resolve => setTimeout(resolve, retryAfter * 1000));
+            return this.fetchWithRetry(url, init, retries - 1);
+        }
+        if (!response.ok) {
+            throw new Error(`Request to ${url} failed with status ${response.status}`);
+        }
+        return response;
+    }
+
+    private get projectionParameters(): ProjectionParameters {
+        return {
+            spherical: this.projection === SphericalProjection.INSTANCE,
+            radiusMeters: this.constants.radiusMeters,
+            meterPerPixel: this.constants.meterPerPixel
+        };
     }
 
     private projected(vertex: THREE.Vector3, vertices?: Float32Array, index?: number): THREE.Vector3 {
@@ -0,0 +1,139 @@
+/**
+ * When a payload was used last and how big it is, kept apart from the payloads, so the size of the store can be
+ * determined without reading the payloads.
+ */
+interface TileUsage {
+    key: string;
+    bytes: number;
+    time: number;
+}
+
+/**
+ * Keeps the payloads of tiles and meshes in the IndexedDB of the browser, so revisiting a region or reloading the page
+ * does not need to load them from the server again. The data of a dataset never changes, so payloads are never stale.
+ * Once the payloads need more memory than the budget, the least recently used ones are deleted. Storing is best effort,
+ * a payload that could not be stored or read is simply loaded from the server.
+ */
+export default class TileStore {
+
+    private static readonly NAME = "solarviewer-tiles";
+    private static readonly PAYLOADS = "payloads";
+    private static readonly USAGE = "usage";
+    /**
+     * Evicting stops at this fraction of the budget, so not every stored payload causes another eviction.
+     */
+    private static readonly EVICTION_TARGET = 0.75;
+
+    private readonly database: IDBDatabase;
+    private readonly budgetBytes: number;
+    private bytes: number;
+    private evicting = false;
+
+    private constructor(database: IDBDatabase, budgetBytes: number, bytes: number) {
+        this.database = database;
+        this.budgetBytes = budgetBytes;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Opens the store of this browser.
+     *
+     * @param budgetBytes the maximum size of all payloads
+     * @returns the store or undefined, if the budget is 0 or the browser does not allow storing data, e.g. in private mode
+     */
+    public static async open(budgetBytes: number): Promise<TileStore | undefined> {
+        if (budgetBytes <= 0 || typeof indexedDB === "undefined") {
+            return undefined;
+        }
+        try {
+            const open = indexedDB.open(TileStore.NAME, 1);
+            open.onupgradeneeded = () => {
+                open.result.createObjectStore(TileStore.PAYLOADS);
+                open.result.createObjectStore(TileStore.USAGE, { keyPath: "key" }).createIndex("time", "time");
+            };
+            const database = await TileStore.completed(open);
+            const usage: Array<TileUsage> = await TileStore.completed(database.transaction(TileStore.USAGE).objectStore(TileStore.USAGE).getAll());
+            return new TileStore(database, budgetBytes, usage.reduce((bytes, tile) => bytes + tile.bytes, 0));
+        } catch (e) {
+            return undefined;
+        }
+    }
+
+    /**
+     * Reads the payloads of all keys in a single transaction and marks them as used.
+     *
+     * @returns the payload of each key or undefined, if it is not stored
+     */
+    public get(keys: Array<string>): Promise<Array<ArrayBuffer | undefined>> {
+        let transaction: IDBTransaction;
+        try {
+            transaction = this.database.transaction([TileStore.PAYLOADS, TileStore.USAGE], "readwrite");
+        } catch (e) {
+            return Promise.resolve(keys.map(() => undefined));
+        }
+        const payloads = transaction.objectStore(TileStore.PAYLOADS);
+        const usage = transaction.objectStore(TileStore.USAGE);
+        const time = Date.now();
+        return Promise.all(keys.map(key => new Promise<ArrayBuffer | undefined>(resolve => {
+            const request = payloads.get(key);
+            request.onsuccess = () => {
+                const payload: ArrayBuffer | undefined = request.result;
+                if (payload) {
+                    usage.put({ key: key, bytes: payload.byteLength, time: time });
+                }
+                resolve(payload);
+            };
+            request.onerror = () => resolve(undefined);
+        })));
+    }
+
+    /**
+     * Stores the payload. It is copied immediately, so it may be transferred to a worker right after.
+     */
+    public put(key: string, payload: ArrayBuffer) {
+        try {
+            const transaction = this.database.transaction([TileStore.PAYLOADS, TileStore.USAGE], "readwrite");
+            transaction.objectStore(TileStore.PAYLOADS).put(payload, key);
+            transaction.objectStore(TileStore.USAGE).put({ key: key, bytes: payload.byteLength, time: Date.now() });
+            // payloads stored twice are counted twice until the next page load, which only makes the eviction early
+            this.bytes += payload.byteLength;
+            transaction.oncomplete = () => {
+                if (this.bytes > this.budgetBytes) {
+                    this.evict();
+                }
+            };
+            transaction.onabort = () => this.bytes -= payload.byteLength;
+        } catch (e) {
+            // e.g. the database was deleted by the user, the payload is loaded from the server again next time
+        }
+    }
+
+    private evict() {
+        if (this.evicting) {
+            return;
+        }
+        this.evicting = true;
+        const transaction = this.database.transaction([TileStore.PAYLOADS, TileStore.USAGE], "readwrite");
+        const payloads = transaction.objectStore(TileStore.PAYLOADS);
+        const cursorRequest = transaction.objectStore(TileStore.USAGE).index("time").openCursor();
+        cursorRequest.onsuccess = () => {
+            const cursor = cursorRequest.result;
+            if (cursor && this.bytes > this.budgetBytes * TileStore.EVICTION_TARGET) {
+                const tile: TileUsage = cursor.value;
+                payloads.delete(tile.key);
+                cursor.delete();
+                this.bytes -= tile.bytes;
+                cursor.continue();
+            }
+        };
+        transaction.oncomplete = () => this.evicting = false;
+        transaction.onabort = () => this.evicting = false;
+    }
+
+    private static completed<T>(request: IDBRequest<T>): Promise<T> {
+        return new Promise((resolve, reject) => {
+            request.onsuccess = () => resolve(request.result);
+            request.onerror = () => reject(request.error);
+        });
+    }
+}
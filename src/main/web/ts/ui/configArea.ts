@@ -5,7 +5,7 @@ import { FlatProjection, SphericalProjection } from '../projections';
 import CameraController from '../camera/cameraController';
 import FreeFlyCamera from '../camera/freeFlyCamera';
 import OrbitCamera from '../camera/orbitCamera';
-import { LolaConstants, MessengerConstants, MolaConstants } from '../constants';
+import { Constants } from '../constants';
 
 export default class ConfigArea extends SliderElement {
 
@@ -14,19 +14,21 @@ export default class ConfigArea extends SliderElement {
     private previouslyLocked = true;
     private readonly cameraInput: HTMLInputElement;
     public currentCamera: CameraController;
-    private currentPlanet = "mars";
+    private currentPlanet: string;
 
-    constructor(worldController: WorldController, uniforms: { [uniform: string]: THREE.IUniform }) {
+    constructor(worldController: WorldController, uniforms: { [uniform: string]: THREE.IUniform }, datasets: Array<Constants>) {
         super(document.querySelector("#configArea")!)
         this.freeFlyCamera = new FreeFlyCamera(worldController.camera);
         this.orbitCamera = new OrbitCamera(worldController.camera, new THREE.Vector3());
         this.currentCamera = this.orbitCamera;
         this.freeFlyCamera.enabled = false;
         this.cameraInput = document.querySelector("#lockedCamera")!;
+        this.currentPlanet = worldController.modelLoader.constants.name;
         this.configureProjectionInput(worldController, uniforms);
         this.configureScaleInput(uniforms);
+        this.configureMeshInput(worldController);
         this.configureCameraInput();
-        this.configurePlanetInput(worldController, uniforms);
+        this.configurePlanetInput(worldController, uniforms, datasets);
     }
 
     private configureProjectionInput(worldController: WorldController, uniforms: { [uniform: string]: THREE.IUniform }) {
@@ -86,21 +88,31 @@ export default class ConfigArea extends SliderElement {
         }).bind(this))
     }
 
-    private async configurePlanetInput(worldController: WorldController, uniforms: { [uniform: string]: THREE.IUniform }) {        
+    private configureMeshInput(worldController: WorldController) {
+        const meshToleranceInput: HTMLInputElement = document.querySelector("#meshToleranceInput")!;
+        meshToleranceInput.addEventListener("change", (() => {
+            if (!meshToleranceInput.checkValidity()) {
+                meshToleranceInput.reportValidity();
+                return;
+            }
+            // an empty tolerance loads uniform grids instead of adaptive meshes
+            worldController.meshTolerance = meshToleranceInput.value === "" ? undefined : parseFloat(meshToleranceInput.value);
+            worldController.reload();
+        }).bind(this))
+    }
+
+    private configurePlanetInput(worldController: WorldController, uniforms: { [uniform: string]: THREE.IUniform }, datasets: Array<Constants>) {
         const planetInput: HTMLSelectElement = document.querySelector("#planet")!;
-        const avilailableData = (await (await fetch("available")).text()).split(",");
-        for (let i = 0; i < avilailableData.length; i++) {
-            planetInput.options[i] = new Option(avilailableData[i], avilailableData[i]);
+        for (let i = 0; i < datasets.length; i++) {
+            planetInput.options[i] = new Option(datasets[i]!.name, datasets[i]!.name);
         }
         planetInput.addEventListener("change", (() => {
             if (planetInput.value !== this.currentPlanet) {
-                if (planetInput.value === "Mars") {
-                    worldController.modelLoader.constants = MolaConstants.INSTANCE;
-                } else if (planetInput.value === "Moon") {
-                    worldController.modelLoader.constants = LolaConstants.INSTANCE;
-                } else if (planetInput.value === "Mercury") {
-                    worldController.modelLoader.constants = MessengerConstants.INSTANCE;
+                const dataset = datasets.find(dataset => dataset.name === planetInput.value);
+                if (!dataset) {
+                    return;
                 }
+                worldController.modelLoader.constants = dataset;
                 this.currentPlanet = planetInput.value;
                 uniforms["radius"]!.value =  worldController.modelLoader.constants.radiusMeters;
                 worldController.reload();
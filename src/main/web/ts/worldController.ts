@@ -1,6 +1,7 @@
 import * as THREE from 'three';
 import { Constants } from './constants';
-import ModelLoader from './modelLoader';
+import GeometryCache from './geometryCache';
+import ModelLoader, { ChunkBounds, TileRequest } from './modelLoader';
 import { FlatProjection} from './projections';
 
 class ChunkEntry {
@@ -8,6 +9,25 @@ class ChunkEntry {
     public isLoading = true;
     public mesh: THREE.Mesh | undefined;
     public stride: number | undefined;
+    /**
+     * Identifies the model of the chunk in the geometry cache once it is no longer shown.
+     */
+    public key: string | undefined;
+}
+
+interface ChunkRequest extends TileRequest {
+    chunkX: number;
+    chunkZ: number;
+    chunk: ChunkEntry;
+    existing: ChunkEntry | null | undefined;
+}
+
+/**
+ * The chunks requested together after a view change, which can be aborted once they are no longer needed.
+ */
+interface Load {
+    requests: Array<ChunkRequest>;
+    controller: AbortController;
 }
 
 export default class WorldController {
@@ -15,6 +35,17 @@ export default class WorldController {
     private readonly chunks: Array<Array<ChunkEntry | null>> = [[]];
     private chunkBounds: Array<Array<THREE.Mesh>> = [[]];
     private chunkBounds1D: Array<THREE.Mesh> = [];
+    private elevationBounds: ChunkBounds | undefined;
+    private readonly loads = new Set<Load>();
+    private readonly geometryCache = new GeometryCache(Constants.GEOMETRY_CACHE_BYTES);
+    /**
+     * Incremented whenever loading chunks are no longer needed, so the server drops the tiles requested before.
+     */
+    private generation = 0;
+    /**
+     * The maximum vertical error of the chunks in meters, if they are loaded as adaptive meshes instead of uniform grids.
+     */
+    public meshTolerance: number | undefined;
     public readonly camera: THREE.Camera;
     public readonly scene: THREE.Scene;
     private readonly material: THREE.Material;
@@ -32,14 +63,25 @@ export default class WorldController {
     }
 
     public reload() {
+        this.elevationBounds = undefined;
         this.generateChunkBounds();
         this.onViewChange(true);
+        const constants = this.modelLoader.constants;
+        this.modelLoader.loadChunkBounds().then(bounds => {
+            if (bounds && constants === this.modelLoader.constants) {
+                this.elevationBounds = bounds;
+                this.generateChunkBounds();
+                this.onViewChange();
+            }
+        });
     }
 
     /**
      * Generates approximations of the chunks which are used in intersection checks
-     * with the camera frustum to determine which chunks are getting loaded. Disposes
-     * existing bounds so it can be called multiple times.
+     * with the camera frustum to determine which chunks are getting loaded. Once the
+     * elevation bounds of the chunks are known, the approximations contain the whole
+     * terrain, otherwise they are flat. Disposes existing bounds so it can be called
+     * multiple times.
      */
     private generateChunkBounds() {
         for (let z = 0; z < this.chunkBounds.length; z++) {
@@ -54,7 +96,10 @@ export default class WorldController {
                 if (!this.chunkBounds[z]) {
                     this.chunkBounds[z] = [];
                 }
-                const plane = this.modelLoader.generatePlane(x, z);
+                const index = z * this.modelLoader.constants.chunkWidth + x;
+                const plane = this.elevationBounds
+                    ? this.modelLoader.generatePlane(x, z, this.elevationBounds.min[index], this.elevationBounds.max[index])
+                    : this.modelLoader.generatePlane(x, z);
                 this.chunkBounds[z]![x]! = new THREE.Mesh(plane);
                 this.chunkBounds1D.push(this.chunkBounds[z]![x]!);
             }
@@ -63,6 +108,7 @@ export default class WorldController {
 
     private async onViewChange(forceDispose = false) {
         if (forceDispose) {
+            this.abortLoads();
             for (let z = 0; z < this.chunks.length; z++) {
                 for (let x = 0; this.chunks[z] && x < this.chunks[z]!.length; x++) {
                     if (this.chunks[z]![x]) {
@@ -75,6 +121,9 @@ export default class WorldController {
         this.frustum.setFromProjectionMatrix(cameraProjection);
         const [chunksToLoad, chunkCount] = this.determineChunksToLoad();
         const stride = THREE.MathUtils.floorPowerOfTwo(chunkCount);
+        if (this.hasStaleLoads(chunksToLoad, stride)) {
+            this.abortLoads();
+        }
         for (let z = 0; z < this.modelLoader.constants.chunkHeight; z++) {
             for (let x = 0; x < this.modelLoader.constants.chunkWidth; x++) {
                 if (this.chunks[z] && this.chunks[z]![x] && !(chunksToLoad[z] && chunksToLoad[z]![x])) {
@@ -82,13 +131,51 @@ export default class WorldController {
                 }
             }
         }
+        const requests: Array<ChunkRequest> = [];
         for (let z = 0; z < this.modelLoader.constants.chunkHeight; z++) {
             for (let x = 0; x < this.modelLoader.constants.chunkWidth; x++) {
                 if (chunksToLoad[z] && chunksToLoad[z]![x]) {
-                    this.load(x, z, stride);
+                    const request = this.prepareLoad(x, z, stride);
+                    if (request) {
+                        requests.push(request);
+                    }
                 }
             }
         }
+        if (requests.length > 0) {
+            // the server loads the tiles in the order of the request, so the closest and therefore biggest chunks come first
+            const cameraPosition = this.camera.getWorldPosition(new THREE.Vector3());
+            const distance = (request: ChunkRequest) => this.modelLoader.getMidPoint(request.chunkX, request.chunkZ).distanceToSquared(cameraPosition);
+            requests.sort((a, b) => distance(a) - distance(b));
+            this.load(requests);
+        }
+    }
+
+    /**
+     * @returns whether a chunk that is still loading left the view or is needed with a different stride
+     */
+    private hasStaleLoads(chunksToLoad: Array<Array<boolean>>, stride: number): boolean {
+        for (const load of this.loads) {
+            for (const request of load.requests) {
+                if (request.chunk.isLoading && (!chunksToLoad[request.chunkZ]?.[request.chunkX] || request.stride !== stride)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Aborts all loads and starts a new generation, so the server drops the tiles it did not start loading yet. Chunks
+     * that did not arrive yet are restored immediately, so the ones still in view are requested again right away.
+     */
+    private abortLoads() {
+        for (const load of this.loads) {
+            load.controller.abort();
+            this.restore(load.requests);
+        }
+        this.loads.clear();
+        this.generation++;
     }
 
     private determineChunksToLoad(): [Array<Array<boolean>>, number] {
@@ -121,7 +208,8 @@ export default class WorldController {
 
     private isOccluded(currentChunk: THREE.Mesh, x: number, z: number): boolean {
         const worldPosition = this.camera.getWorldPosition(new THREE.Vector3());
-        const direction = this.modelLoader.getMidPoint(x, z).sub(worldPosition).normalize();
+        const minElevation = this.elevationBounds?.min[z * this.modelLoader.constants.chunkWidth + x];
+        const direction = this.modelLoader.getMidPoint(x, z, minElevation).sub(worldPosition).normalize();
         this.raycaster.set(worldPosition, direction);
         const intersections = this.raycaster.intersectObjects(this.chunkBounds1D);
         if (intersections.length === 0) {
@@ -132,24 +220,36 @@ export default class WorldController {
     }
 
     /**
-     * Loads the chunk at the specified position in chunk space with the given stride and requests additional pixels
+     * Prepares loading the chunk at the specified position in chunk space with the given stride and requests additional pixels
      * to connect neighboring chunks. If a chunk already exists at the place and a different stride is requested, the
-     * existing chunk will be deleted.
+     * existing chunk will be replaced once the new one is loaded. Cached chunks are shown right away instead. If there
+     * is no chunk at the place yet, a cached chunk with a coarser stride is shown until the new one is loaded.
      * 
      * @param x the x position in chunk space
      * @param z the z position in chunk space
+     * @returns the request to load the chunk or undefined, if the chunk does not need to be loaded
      */
-    private async load(x: number, z: number, stride: number) {
+    private prepareLoad(x: number, z: number, stride: number): ChunkRequest | undefined {
         if (!this.chunks[z]) {
             this.chunks[z] = [];
         }
-        const existing = this.chunks[z]![x];
+        let existing = this.chunks[z]![x];
         if (existing?.isLoading || existing?.stride === stride) {
-            return;
+            return undefined;
+        }
+        const key = this.getCacheKey(x, z, stride);
+        const cached = this.geometryCache.take(key);
+        if (cached) {
+            this.show(x, z, stride, key, cached);
+            return undefined;
+        }
+        if (!existing) {
+            existing = this.showCoarser(x, z, stride);
         }
         const chunk = new ChunkEntry();
         this.chunks[z]![x] = chunk;
         chunk.stride = stride;
+        chunk.key = key;
         let loadX = x * Constants.CHUNK_SIZE_PIXELS;
         let loadZ = z * Constants.CHUNK_SIZE_PIXELS;
         let loadWidth = Constants.CHUNK_SIZE_PIXELS;
@@ -168,12 +268,106 @@ export default class WorldController {
         if (z === this.modelLoader.constants.chunkHeight - 1) {
             loadHeight += stride;
         }
-        const geometry = await this.modelLoader.load(loadX, loadZ, loadWidth, loadHeight, stride);
+        return { x: loadX, z: loadZ, width: loadWidth, height: loadHeight, stride: stride, chunkX: x, chunkZ: z, chunk: chunk, existing: existing };
+    }
+
+    /**
+     * Shows the first cached chunk with a coarser stride than the given one.
+     *
+     * @returns the shown chunk or undefined, if no coarser chunk is cached
+     */
+    private showCoarser(x: number, z: number, stride: number): ChunkEntry | undefined {
+        const maxStride = THREE.MathUtils.floorPowerOfTwo(this.modelLoader.constants.chunkWidth * this.modelLoader.constants.chunkHeight);
+        for (let coarser = 2 * stride; coarser <= maxStride; coarser *= 2) {
+            const key = this.getCacheKey(x, z, coarser);
+            const cached = this.geometryCache.take(key);
+            if (cached) {
+                return this.show(x, z, coarser, key, cached);
+            }
+        }
+        return undefined;
+    }
+
+    /**
+     * Shows a cached model in place of the current chunk, which is cached in turn.
+     */
+    private show(x: number, z: number, stride: number, key: string, geometry: THREE.BufferGeometry): ChunkEntry {
+        const existing = this.chunks[z]![x];
+        if (existing) {
+            this.release(existing);
+        }
+        const chunk = new ChunkEntry();
+        chunk.mesh = new THREE.Mesh(geometry, this.material);
+        chunk.stride = stride;
+        chunk.key = key;
+        chunk.isLoading = false;
+        this.chunks[z]![x] = chunk;
+        this.scene.add(chunk.mesh);
+        return chunk;
+    }
+
+    /**
+     * Identifies the model of a chunk, which depends on everything that changes how it is loaded or projected.
+     */
+    private getCacheKey(x: number, z: number, stride: number): string {
+        const projection = this.modelLoader.projection === FlatProjection.INSTANCE ? "flat" : "spherical";
+        const tolerance = this.meshTolerance ?? "grid";
+        return `${this.modelLoader.constants.url}|${projection}|${tolerance}|${x},${z}|${stride}`;
+    }
+
+    /**
+     * Loads all prepared chunks and adds each one to the scene as soon as it arrives. Uniform grids are loaded with a
+     * single request, adaptive meshes with one request per chunk, sampled as finely as the stride of the chunk allows.
+     * Chunks that could not be loaded are removed again, so they are requested with the next view change. Chunks that
+     * arrive after the load was aborted are discarded.
+     */
+    private async load(requests: Array<ChunkRequest>) {
+        const tolerance = this.meshTolerance;
+        const load = { requests: requests, controller: new AbortController() };
+        const signal = load.controller.signal;
+        this.loads.add(load);
+        try {
+            if (tolerance === undefined) {
+                await this.modelLoader.loadAll(requests, (request, geometry) => this.add(request, geometry, signal), this.generation, signal);
+            } else {
+                await Promise.all(requests.map(request => {
+                    const size = Math.min(Constants.MAX_MESH_SIZE, THREE.MathUtils.floorPowerOfTwo(Constants.CHUNK_SIZE_PIXELS / request.stride));
+                    return this.modelLoader.loadMesh(request.chunkX, request.chunkZ, size, tolerance, signal)
+                        .then(geometry => this.add(request, geometry, signal), () => undefined);
+                }));
+            }
+        } catch (error) {
+            if (!signal.aborted) {
+                throw error;
+            }
+        } finally {
+            this.loads.delete(load);
+            this.restore(requests);
+        }
+    }
+
+    /**
+     * Puts back the previous chunk in place of every chunk that did not arrive, unless it was replaced since.
+     */
+    private restore(requests: Array<ChunkRequest>) {
+        for (const request of requests) {
+            if (request.chunk.isLoading && this.chunks[request.chunkZ]![request.chunkX] === request.chunk) {
+                this.chunks[request.chunkZ]![request.chunkX] = request.existing ?? null;
+            }
+        }
+    }
+
+    private add(request: ChunkRequest, geometry: THREE.BufferGeometry, signal: AbortSignal) {
+        if (signal.aborted) {
+            // the chunk was restored already and may have been requested again since
+            geometry.dispose();
+            return;
+        }
+        const { chunk, existing } = request;
         const mesh = new THREE.Mesh(geometry, this.material);
         chunk.mesh = mesh;
         if (existing) {
-            existing.mesh!.geometry.dispose();
-            this.scene.remove(existing.mesh!);
+            this.release(existing);
         }
         chunk.isLoading = false;
         this.scene.add(mesh);
@@ -182,9 +376,16 @@ export default class WorldController {
     private dispose(x: number, z: number) {
         const chunk = this.chunks[z]![x]!;
         if (!chunk.isLoading) {
-            this.scene.remove(chunk.mesh!)
-            chunk.mesh!.geometry.dispose();
+            this.release(chunk);
             this.chunks[z]![x] = null;
         }
     }
+
+    /**
+     * Removes the chunk from the scene and keeps its model in the cache, so it can be shown again without loading it.
+     */
+    private release(chunk: ChunkEntry) {
+        this.scene.remove(chunk.mesh!);
+        this.geometryCache.put(chunk.key!, chunk.mesh!.geometry);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,74 @@
+package de.oelkers.solarviewer;
+
+import io.undertow.Undertow;
+import io.undertow.server.HttpHandler;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoundedDispatcherUnitTest {
+
+    @Test
+    public void testRequestIsDispatchedToExecutor() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "test-worker"));
+        BoundedDispatcher dispatcher = new BoundedDispatcher(executor, 1, 1);
+        Undertow server = start(dispatcher, exchange -> exchange.getResponseSender().send(Thread.currentThread().getName()));
+        try {
+            HttpURLConnection connection = open(server);
+            assertEquals(200, connection.getResponseCode());
+            assertEquals("test-worker", new String(connection.getInputStream().readAllBytes()));
+        } finally {
+            server.stop();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testRequestIsRejectedIfSaturated() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        BoundedDispatcher dispatcher = new BoundedDispatcher(executor, 1, 3);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Undertow server = start(dispatcher, exchange -> {
+            started.countDown();
+            release.await();
+            exchange.getResponseSender().send("done");
+        });
+        ExecutorService client = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> blocking = client.submit(() -> open(server).getResponseCode());
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            assertEquals(1, dispatcher.getInFlight());
+            HttpURLConnection rejected = open(server);
+            assertEquals(503, rejected.getResponseCode());
+            assertEquals("3", rejected.getHeaderField("Retry-After"));
+            release.countDown();
+            assertEquals(200, blocking.get(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            server.stop();
+            executor.shutdown();
+            client.shutdown();
+        }
+    }
+
+    private static Undertow start(BoundedDispatcher dispatcher, HttpHandler handler) {
+        Undertow server = Undertow.builder()
+                .addHttpListener(0, "localhost")
+                .setHandler(dispatcher.dispatching(handler))
+                .build();
+        server.start();
+        return server;
+    }
+
+    private static HttpURLConnection open(Undertow server) throws IOException {
+        InetSocketAddress address = (InetSocketAddress) server.getListenerInfo().get(0).getAddress();
+        return (HttpURLConnection) new URL("http://localhost:" + address.getPort()).openConnection();
+    }
+}
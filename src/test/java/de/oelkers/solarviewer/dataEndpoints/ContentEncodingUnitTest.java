@@ -0,0 +1,61 @@
+package de.oelkers.solarviewer.dataEndpoints;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ContentEncodingUnitTest {
+
+    private static final byte[] DATA = {1, 2, 3, 4, 4, 4, 4, 4, 4, 4, 4, 5};
+
+    @Test
+    public void testGzip() throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(DATA);
+        ByteBuffer result = ContentEncoding.GZIP.encode(data);
+        assertEquals(0, data.position());
+        try (InputStream input = new GZIPInputStream(new ByteArrayInputStream(toArray(result)))) {
+            assertArrayEquals(DATA, input.readAllBytes());
+        }
+    }
+
+    @Test
+    public void testDeflate() throws IOException {
+        ByteBuffer result = ContentEncoding.DEFLATE.encode(ByteBuffer.allocateDirect(DATA.length).put(DATA).flip());
+        try (InputStream input = new InflaterInputStream(new ByteArrayInputStream(toArray(result)))) {
+            assertArrayEquals(DATA, input.readAllBytes());
+        }
+    }
+
+    @Test
+    public void testNegotiate() {
+        assertEquals(ContentEncoding.IDENTITY, negotiate(null));
+        assertEquals(ContentEncoding.GZIP, negotiate("deflate, gzip;q=0.5"));
+        assertEquals(ContentEncoding.DEFLATE, negotiate("br, deflate"));
+        assertEquals(ContentEncoding.DEFLATE, negotiate("gzip;q=0, deflate"));
+        assertEquals(ContentEncoding.IDENTITY, negotiate("br"));
+    }
+
+    private static ContentEncoding negotiate(String acceptEncoding) {
+        HttpServerExchange exchange = new HttpServerExchange(null);
+        if (acceptEncoding != null) {
+            exchange.getRequestHeaders().put(Headers.ACCEPT_ENCODING, acceptEncoding);
+        }
+        return ContentEncoding.negotiate(exchange);
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] result = new byte[buffer.remaining()];
+        buffer.duplicate().get(result);
+        return result;
+    }
+}
@@ -0,0 +1,53 @@
+package de.oelkers.solarviewer.dataEndpoints;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DatasetUnitTest {
+
+    @Test
+    public void testThatPathsAreDerived() {
+        Properties properties = new Properties();
+        properties.setProperty("datasets", "vesta, ceres");
+        properties.setProperty("vesta.name", "Vesta");
+        properties.setProperty("vesta.original", "data/vesta.tif");
+        properties.setProperty("vesta.width", "4");
+        properties.setProperty("vesta.height", "2");
+        properties.setProperty("vesta.meterPerPixel", "0.5");
+        properties.setProperty("vesta.radius", "262700");
+        properties.setProperty("ceres.original", "data/ceres.tif");
+        properties.setProperty("ceres.tiled", "tiles/ceres.tiles");
+        properties.setProperty("ceres.width", "8");
+        properties.setProperty("ceres.height", "4");
+        properties.setProperty("ceres.meterPerPixel", "1");
+        properties.setProperty("ceres.radius", "469730");
+        List<Dataset> result = Dataset.fromProperties(properties);
+        assertEquals(2, result.size());
+        Dataset vesta = result.get(0);
+        assertEquals("vesta", vesta.getId());
+        assertEquals("Vesta", vesta.getName());
+        assertEquals("data/vesta_marked.tiles", vesta.getMarkedDataPath());
+        assertEquals("data/vesta.tiles", vesta.getTiledDataPath());
+        assertEquals("data/vesta.index", vesta.getIndexDataPath());
+        assertEquals(4, vesta.getWidth());
+        assertEquals(0.5, vesta.getMeterPerPixel());
+        Dataset ceres = result.get(1);
+        assertEquals("ceres", ceres.getName());
+        assertEquals("tiles/ceres.tiles", ceres.getTiledDataPath());
+        assertEquals(469730, ceres.getRadiusMeters());
+    }
+
+    @Test
+    public void testThatMissingPropertiesAreRejected() {
+        Properties properties = new Properties();
+        properties.setProperty("datasets", "vesta");
+        properties.setProperty("vesta.original", "data/vesta.tif");
+        properties.setProperty("vesta.width", "four");
+        assertThrows(IllegalArgumentException.class, () -> Dataset.fromProperties(properties));
+    }
+}
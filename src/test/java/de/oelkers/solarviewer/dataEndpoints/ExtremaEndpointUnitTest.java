@@ -0,0 +1,48 @@
+package de.oelkers.solarviewer.dataEndpoints;
+
+import de.oelkers.solarviewer.storage.ElevationIndex;
+import de.oelkers.solarviewer.utils.ShortRaster;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ExtremaEndpointUnitTest {
+
+    @Test
+    public void testThatBoxesAreConvertedToPixels() throws IOException {
+        ShortRaster data = new ShortRaster(36, 18);
+        // 85° N, 175° E and 5° S, 175° W
+        data.set(35, 0, (short) 100);
+        data.set(0, 9, (short) 50);
+        ElevationIndex index = build(data);
+        assertEquals(100, ExtremaEndpoint.query(index, -90, 90, -180, 180).getMax());
+        ElevationIndex.Summary summary = ExtremaEndpoint.query(index, -10, 0, -180, -170);
+        assertEquals(50, summary.getMax());
+        assertEquals(0, summary.getMaxX());
+        assertEquals(9, summary.getMaxZ());
+        assertEquals(0, ExtremaEndpoint.query(index, 0, 80, 170, 180).getMax());
+    }
+
+    @Test
+    public void testThatChunkBoundsAreListedByRow() throws IOException {
+        ShortRaster data = new ShortRaster(4, 2);
+        data.set(1, 0, (short) 10);
+        data.set(2, 1, (short) -4);
+        String result = ChunkBoundsEndpoint.createResponse(build(data), 2);
+        assertEquals("{\"chunkSize\":2,\"chunksX\":2,\"chunksZ\":1,\"min\":[0,-4],\"max\":[10,0],\"mean\":[3,-1]}", result);
+    }
+
+    private static ElevationIndex build(ShortRaster data) throws IOException {
+        return ElevationIndex.build((x, z, width, height, stride) -> {
+            ShortRaster result = new ShortRaster(width, height);
+            for (int row = 0; row < height; row++) {
+                for (int column = 0; column < width; column++) {
+                    result.set(column, row, data.get(x + column, z + row));
+                }
+            }
+            return result;
+        }, data.getWidth(), data.getHeight(), 1, 2, 1);
+    }
+}
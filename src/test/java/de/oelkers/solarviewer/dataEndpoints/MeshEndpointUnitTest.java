@@ -0,0 +1,77 @@
+package de.oelkers.solarviewer.dataEndpoints;
+
+import io.undertow.Undertow;
+import io.undertow.server.handlers.BlockingHandler;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MeshEndpointUnitTest {
+
+    @Test
+    public void testThatNeighbouringMeshesShareTheirBorder(@TempDir Path path) throws IOException {
+        short[] data = new short[8 * 4];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (short) (i * i % 23);
+        }
+        String file = path.resolve("original.tif").toString();
+        RasterDataEndpoint.write(data, file, 8, 4);
+        try (RasterDataEndpoint endpoint = new RasterDataEndpoint(file, null, 8, 4)) {
+            Undertow server = Undertow.builder()
+                    .addHttpListener(0, "localhost")
+                    .setHandler(new BlockingHandler(new MeshEndpoint(endpoint, null, 4)))
+                    .build();
+            server.start();
+            try {
+                Map<Integer, Float> left = getVertices(get(server, "?x=0&z=0&size=4&tolerance=0").getInputStream().readAllBytes(), 0);
+                Map<Integer, Float> right = getVertices(get(server, "?x=1&z=0&size=4&tolerance=0").getInputStream().readAllBytes(), 4);
+                for (int row = 0; row <= 4; row++) {
+                    assertEquals(left.get(row * 5 + 4), right.get(row * 5));
+                    // the last row is clamped to the border of the data and the last column wraps around
+                    assertEquals(data[Math.min(row, 3) * 8], right.get(row * 5 + 4), 0);
+                }
+                assertEquals(data[2 * 8 + 1], left.get(2 * 5 + 1), 0);
+                assertEquals(400, get(server, "?x=0&z=0&size=3&tolerance=0").getResponseCode());
+                assertEquals(400, get(server, "?x=2&z=0&size=4&tolerance=0").getResponseCode());
+                assertEquals(400, get(server, "?x=0&z=0&size=4").getResponseCode());
+            } finally {
+                server.stop();
+            }
+        }
+    }
+
+    /**
+     * @return the elevation of each vertex by its position in the grid
+     */
+    private static Map<Integer, Float> getVertices(byte[] response, int expectedX) {
+        ByteBuffer buffer = ByteBuffer.wrap(response).order(ByteOrder.LITTLE_ENDIAN);
+        int size = buffer.getInt(), vertices = buffer.getInt(), indices = buffer.getInt();
+        assertEquals(expectedX, buffer.getInt());
+        assertEquals(0, buffer.getInt());
+        assertEquals(4, buffer.getInt());
+        assertEquals(MeshEndpoint.HEADER_BYTES + vertices * 8 + indices * Short.BYTES, response.length);
+        Map<Integer, Float> result = new HashMap<>();
+        for (int vertex = 0; vertex < vertices; vertex++) {
+            int x = buffer.getShort(MeshEndpoint.HEADER_BYTES + 4 * vertex);
+            int z = buffer.getShort(MeshEndpoint.HEADER_BYTES + 4 * vertex + 2);
+            result.put(z * (size + 1) + x, buffer.getFloat(MeshEndpoint.HEADER_BYTES + 4 * vertices + 4 * vertex));
+        }
+        return result;
+    }
+
+    private static HttpURLConnection get(Undertow server, String query) throws IOException {
+        InetSocketAddress address = (InetSocketAddress) server.getListenerInfo().get(0).getAddress();
+        return (HttpURLConnection) new URL("http://localhost:" + address.getPort() + query).openConnection();
+    }
+}
@@ -1,28 +1,56 @@
 package de.oelkers.solarviewer.dataEndpoints;
 
+import de.oelkers.solarviewer.storage.TiledElevationStore;
+import de.oelkers.solarviewer.storage.TiledElevationStoreBuilder;
+import de.oelkers.solarviewer.utils.ShortRaster;
+import io.undertow.Undertow;
+import io.undertow.server.handlers.BlockingHandler;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
 
-import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.*;
 
 class RasterDataEndpointUnitTest {
 
     @Test
-    public void testThatDataIsWrittenIfNotExists(@TempDir Path path) throws IOException {
+    public void testThatDataIsOnlyWrittenByPreprocessing(@TempDir Path path) throws IOException {
         String originalFile = Files.createFile(path.resolve("original.tif")).toString();
-        String markedFile = path.resolve("markedData.tif").toString();
+        String markedFile = path.resolve("markedData.tiles").toString();
         MockRasterDataEndpoint.write(new short[]{1, 2, 3, 4}, originalFile, 2, 2);
-        new MockRasterDataEndpoint(originalFile, markedFile, 2, 2);
-        short[][] result = MockRasterDataEndpoint.load(markedFile, 0, 0, 2, 2, 1);
-        assertArrayEquals(new short[][]{{1, 2}, {3, 4}}, result);
+        initialize(new MockRasterDataEndpoint(originalFile, markedFile, 2, 2));
+        assertFalse(Files.exists(Path.of(markedFile)));
+        buildMarkedData(new MockRasterDataEndpoint(originalFile, markedFile, 2, 2));
+        assertArrayEquals(new short[]{1, 2, 3, 4}, readMarked(markedFile, 2, 2));
 
         MockRasterDataEndpoint.write(new short[]{4, 3, 2, 1}, originalFile, 2, 2);
-        new MockRasterDataEndpoint(originalFile, markedFile, 2, 2);
-        assertArrayEquals(new short[][]{{1, 2}, {3, 4}}, result);
+        initialize(new MockRasterDataEndpoint(originalFile, markedFile, 2, 2));
+        assertArrayEquals(new short[]{1, 2, 3, 4}, readMarked(markedFile, 2, 2));
+    }
+
+    @Test
+    public void testThatRedundanciesAreMarked(@TempDir Path path) throws IOException {
+        String originalFile = Files.createFile(path.resolve("original.tif")).toString();
+        String markedFile = path.resolve("markedData.tiles").toString();
+        short[] data = new short[16];
+        Arrays.fill(data, (short) 7);
+        MockRasterDataEndpoint.write(data, originalFile, 4, 4);
+        buildMarkedData(new MockRasterDataEndpoint(originalFile, markedFile, 4, 4));
+        short[] expected = data.clone();
+        expected[5] = expected[6] = expected[9] = expected[10] = Short.MIN_VALUE;
+        assertArrayEquals(expected, readMarked(markedFile, 4, 4));
     }
 
     @Test
@@ -37,6 +65,165 @@ class RasterDataEndpointUnitTest {
         assertArrayEquals(new short[][]{{4}, {6}}, result3);
     }
 
+    @Test
+    public void testThatSparseTilesAreMarked(@TempDir Path path) throws IOException {
+        String originalFile = Files.createFile(path.resolve("original.tif")).toString();
+        String markedFile = path.resolve("markedData.tiles").toString();
+        short[] data = new short[16];
+        Arrays.fill(data, (short) 7);
+        MockRasterDataEndpoint.write(data, originalFile, 4, 4);
+        try (MockRasterDataEndpoint endpoint = new MockRasterDataEndpoint(originalFile, markedFile, 4, 4)) {
+            endpoint.buildMarkedData();
+            ByteBuffer result = endpoint.getTile(endpoint.createKey(TileFormat.SPARSE, 0, 0, 4, 4, 1));
+            ShortBuffer samples = result.position(TileFormat.HEADER_BYTES).slice().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+            short m = TileFormat.MARKER;
+            short[] expected = {7, 7, 7, 7, 7, m, 2, 7, 7, m, 2, 7, 7, 7, 7, 7};
+            short[] actual = new short[samples.remaining()];
+            samples.get(actual);
+            assertArrayEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void testThatSparseTilesAreReadFromTheTiledData(@TempDir Path path) throws IOException {
+        String originalFile = Files.createFile(path.resolve("original.tif")).toString();
+        Path tiledFile = path.resolve("tiledData.tiles");
+        MockRasterDataEndpoint.write(new short[64], originalFile, 8, 8);
+        new TiledElevationStoreBuilder((x, z, width, height, stride) -> {
+            ShortRaster data = new ShortRaster(width / stride, height / stride);
+            Arrays.fill(data.getData(), (short) 7);
+            return data;
+        }, 8, 8, 8).levels(2).build(tiledFile);
+        try (RasterDataEndpoint endpoint = new RasterDataEndpoint(originalFile, null, tiledFile.toString(), 8, 8, null)) {
+            endpoint.initialize();
+            ByteBuffer result = endpoint.getTile(endpoint.createKey(TileFormat.SPARSE, 0, 0, 8, 8, 2));
+            ShortBuffer samples = result.position(TileFormat.HEADER_BYTES).slice().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+            short m = TileFormat.MARKER;
+            short[] expected = {7, 7, 7, 7, 7, m, 2, 7, 7, m, 2, 7, 7, 7, 7, 7};
+            short[] actual = new short[samples.remaining()];
+            samples.get(actual);
+            assertArrayEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void testThatTilesAreServedBeforePreprocessing(@TempDir Path path) throws IOException {
+        String originalFile = Files.createFile(path.resolve("original.tif")).toString();
+        Path markedFile = path.resolve("markedData.tiles");
+        short[] data = new short[16];
+        Arrays.fill(data, (short) 7);
+        MockRasterDataEndpoint.write(data, originalFile, 4, 4);
+        try (MockRasterDataEndpoint endpoint = new MockRasterDataEndpoint(originalFile, markedFile.toString(), 4, 4)) {
+            assertFalse(Files.exists(markedFile));
+            ByteBuffer before = endpoint.getTile(endpoint.createKey(TileFormat.SPARSE, 0, 0, 4, 4, 1));
+            endpoint.buildMarkedData();
+            assertTrue(Files.exists(markedFile));
+            ByteBuffer after = endpoint.getTile(endpoint.createKey(TileFormat.SPARSE, 0, 0, 4, 4, 1));
+            assertEquals(before, after);
+        }
+    }
+
+    @Test
+    public void testThatOverflowingRegionsWrap(@TempDir Path path) throws IOException {
+        String originalFile = Files.createFile(path.resolve("original.tif")).toString();
+        MockRasterDataEndpoint.write(new short[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12}, originalFile, 4, 3);
+        short[][] result = MockRasterDataEndpoint.load(originalFile, 2, 1, 3, 3, 1);
+        assertArrayEquals(new short[][]{{7, 8, 5}, {11, 12, 9}, {11, 12, 0}}, result);
+    }
+
+    @Test
+    public void testThatOverflowingRegionsAreEqualInTheTiledData(@TempDir Path path) throws IOException {
+        String originalFile = Files.createFile(path.resolve("original.tif")).toString();
+        Path tiledFile = path.resolve("tiledData.tiles");
+        short[] data = new short[64];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (short) (i + 1);
+        }
+        MockRasterDataEndpoint.write(data, originalFile, 8, 8);
+        new TiledElevationStoreBuilder((x, z, width, height, stride) -> {
+            ShortRaster raster = new ShortRaster(width / stride, height / stride);
+            for (int row = 0; row < raster.getHeight(); row++) {
+                for (int column = 0; column < raster.getWidth(); column++) {
+                    raster.getData()[row * raster.getWidth() + column] = data[(z + row * stride) * 8 + x + column * stride];
+                }
+            }
+            return raster;
+        }, 8, 8, 4).levels(2).build(tiledFile);
+        try (RasterDataEndpoint original = new RasterDataEndpoint(originalFile, null, null, 8, 8, null);
+             RasterDataEndpoint tiled = new RasterDataEndpoint(originalFile, null, tiledFile.toString(), 8, 8, null)) {
+            tiled.initialize();
+            for (int stride = 1; stride <= 2; stride *= 2) {
+                TileKey key = original.createKey(TileFormat.INT16, 4, 6, 8, 4, stride);
+                assertEquals(original.getTile(key), tiled.getTile(key), key::toString);
+            }
+        }
+    }
+
+    @Test
+    public void testThatUnchangedTilesAreNotSentAgain(@TempDir Path path) throws IOException {
+        String originalFile = Files.createFile(path.resolve("original.tif")).toString();
+        MockRasterDataEndpoint.write(new short[]{1, 2, 3, 4}, originalFile, 2, 2);
+        try (MockRasterDataEndpoint endpoint = new MockRasterDataEndpoint(originalFile, null, 2, 2)) {
+            Undertow server = Undertow.builder()
+                    .addHttpListener(0, "localhost")
+                    .setHandler(new BlockingHandler(endpoint))
+                    .build();
+            server.start();
+            try {
+                InetSocketAddress address = (InetSocketAddress) server.getListenerInfo().get(0).getAddress();
+                URL url = new URL("http://localhost:" + address.getPort() + "?x=0&z=0&width=2&height=2&format=i16");
+                HttpURLConnection first = (HttpURLConnection) url.openConnection();
+                first.setRequestProperty("Accept-Encoding", "gzip");
+                assertEquals(200, first.getResponseCode());
+                assertEquals("gzip", first.getHeaderField("Content-Encoding"));
+                assertTrue(first.getHeaderField("Cache-Control").contains("immutable"));
+                try (InputStream input = new GZIPInputStream(first.getInputStream())) {
+                    assertEquals(TileFormat.HEADER_BYTES + 4 * Short.BYTES, input.readAllBytes().length);
+                }
+                HttpURLConnection second = (HttpURLConnection) url.openConnection();
+                second.setRequestProperty("Accept-Encoding", "gzip");
+                second.setRequestProperty("If-None-Match", first.getHeaderField("ETag"));
+                assertEquals(304, second.getResponseCode());
+                HttpURLConnection third = (HttpURLConnection) url.openConnection();
+                third.setRequestProperty("If-None-Match", first.getHeaderField("ETag"));
+                assertEquals(200, third.getResponseCode());
+                assertNotEquals(first.getHeaderField("ETag"), third.getHeaderField("ETag"));
+            } finally {
+                server.stop();
+            }
+        }
+    }
+
+    @Test
+    public void testThatTiledLevelsDivideTheChunkSize() {
+        int chunk = RasterDataEndpoint.CHUNK_SIZE;
+        assertEquals(1, RasterDataEndpoint.getTiledLevels(chunk, chunk));
+        assertEquals(4, RasterDataEndpoint.getTiledLevels(4 * chunk, 2 * chunk));
+        // 2880 is only divisible by strides up to 64, even though 16 * 8 chunks are requested with a stride of 128
+        assertEquals(7, RasterDataEndpoint.getTiledLevels(16 * chunk, 8 * chunk));
+        assertEquals(7, RasterDataEndpoint.getTiledLevels(128 * chunk, 64 * chunk));
+    }
+
+    private static void initialize(RasterDataEndpoint endpoint) throws IOException {
+        try (endpoint) {
+            endpoint.initialize();
+        }
+    }
+
+    private static void buildMarkedData(RasterDataEndpoint endpoint) throws IOException {
+        try (endpoint) {
+            endpoint.buildMarkedData();
+        }
+    }
+
+    private static short[] readMarked(String markedFile, int width, int height) throws IOException {
+        try (TiledElevationStore store = TiledElevationStore.open(Path.of(markedFile))) {
+            ShortBuffer buffer = ShortBuffer.allocate(width * height);
+            store.read(0, 0, width, height, 1, buffer);
+            return buffer.array();
+        }
+    }
+
     private static final class MockRasterDataEndpoint extends RasterDataEndpoint {
 
         private MockRasterDataEndpoint(String originalDataPath, String markedDataPath, int width, int height) throws IOException {
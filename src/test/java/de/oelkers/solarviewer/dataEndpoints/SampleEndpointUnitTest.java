@@ -0,0 +1,154 @@
+package de.oelkers.solarviewer.dataEndpoints;
+
+import io.undertow.Undertow;
+import io.undertow.server.handlers.BlockingHandler;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SampleEndpointUnitTest {
+
+    private static final short[] DATA = {0, 10, 20, 30, 40, 50, 60, 70};
+
+    @Test
+    public void testThatSamplesAreInterpolatedBilinearly() throws IOException {
+        double[] positions = {0.5, 0.5, 1, 1, 4, 0.5, 1.5, 2, 1.25, 0.5};
+        float[] result = SampleEndpoint.sample(positions, 4, 2, 2, createReader(DATA, 4, new HashMap<>()));
+        // the right border wraps around, the bottom border is clamped
+        assertArrayEquals(new float[]{0, 25, 15, 50, 7.5f}, result);
+    }
+
+    @Test
+    public void testThatEachTileIsReadOnce() throws IOException {
+        short[] data = new short[64];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (short) (i * 3);
+        }
+        Random random = new Random(42);
+        double[] positions = new double[2000];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = random.nextDouble() * 8;
+        }
+        Map<Integer, Integer> reads = new HashMap<>();
+        float[] result = SampleEndpoint.sample(positions, 8, 8, 4, createReader(data, 8, reads));
+        assertEquals(4, reads.size());
+        reads.values().forEach(count -> assertEquals(1, count));
+        for (int i = 0; i < result.length; i++) {
+            float[] single = SampleEndpoint.sample(new double[]{positions[2 * i], positions[2 * i + 1]}, 8, 8, 8, createReader(data, 8, new HashMap<>()));
+            assertEquals(single[0], result[i], 1e-3);
+        }
+    }
+
+    @Test
+    public void testThatSamplesAreSpacedEvenlyAlongPaths() {
+        double[] result = SampleEndpoint.alongPath(new double[]{0, 0, 3, 0, 3, 4}, 8);
+        assertArrayEquals(new double[]{0, 0, 1, 0, 2, 0, 3, 0, 3, 1, 3, 2, 3, 3, 3, 4}, result, 1e-9);
+    }
+
+    @Test
+    public void testThatDegreesAreSampled(@TempDir Path path) throws IOException {
+        String file = path.resolve("original.tif").toString();
+        RasterDataEndpoint.write(DATA, file, 4, 2);
+        try (RasterDataEndpoint endpoint = new RasterDataEndpoint(file, null, 4, 2)) {
+            Undertow server = Undertow.builder()
+                    .addHttpListener(0, "localhost")
+                    .setHandler(new BlockingHandler(new SampleEndpoint(endpoint, 2)))
+                    .build();
+            server.start();
+            try {
+                ByteBuffer response = post(server, "", new double[]{-90, 0, -135, 45});
+                assertEquals(25, response.getFloat(), 1e-3);
+                assertEquals(0, response.getFloat(), 1e-3);
+                response = post(server, "?coordinates=pixels&samples=3", new double[]{0.5, 0.5, 2.5, 0.5});
+                assertEquals(0, response.getFloat(), 1e-3);
+                assertEquals(10, response.getFloat(), 1e-3);
+                assertEquals(20, response.getFloat(), 1e-3);
+                assertEquals(400, getStatus(server, "", new double[]{0, 91}));
+                assertEquals(400, getStatus(server, "?samples=2", new double[]{0, 0}));
+            } finally {
+                server.stop();
+            }
+        }
+    }
+
+    @Test
+    public void testThatTooManyPositionsAreRejected(@TempDir Path path) throws IOException {
+        String file = path.resolve("original.tif").toString();
+        RasterDataEndpoint.write(DATA, file, 4, 2);
+        try (RasterDataEndpoint endpoint = new RasterDataEndpoint(file, null, 4, 2)) {
+            Undertow server = Undertow.builder()
+                    .addHttpListener(0, "localhost")
+                    .setHandler(new BlockingHandler(new SampleEndpoint(endpoint, 2)))
+                    .build();
+            server.start();
+            try {
+                double[] positions = new double[2 * (SampleEndpoint.MAX_SAMPLES + 1)];
+                HttpURLConnection fixed = open(server, "?coordinates=pixels");
+                write(fixed, positions);
+                assertEquals(413, fixed.getResponseCode());
+                HttpURLConnection chunked = open(server, "?coordinates=pixels");
+                chunked.setChunkedStreamingMode(1024);
+                write(chunked, positions);
+                assertEquals(413, chunked.getResponseCode());
+            } finally {
+                server.stop();
+            }
+        }
+    }
+
+    private static SampleEndpoint.TileReader createReader(short[] data, int width, Map<Integer, Integer> reads) {
+        return (x, z, tileWidth, tileHeight) -> {
+            reads.merge(z * width + x, 1, Integer::sum);
+            short[] tile = new short[tileWidth * tileHeight];
+            for (int row = 0; row < tileHeight; row++) {
+                System.arraycopy(data, (z + row) * width + x, tile, row * tileWidth, tileWidth);
+            }
+            return ShortBuffer.wrap(tile);
+        };
+    }
+
+    private static ByteBuffer post(Undertow server, String query, double[] positions) throws IOException {
+        return ByteBuffer.wrap(connect(server, query, positions).getInputStream().readAllBytes()).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int getStatus(Undertow server, String query, double[] positions) throws IOException {
+        return connect(server, query, positions).getResponseCode();
+    }
+
+    private static HttpURLConnection connect(Undertow server, String query, double[] positions) throws IOException {
+        HttpURLConnection connection = open(server, query);
+        write(connection, positions);
+        return connection;
+    }
+
+    private static HttpURLConnection open(Undertow server, String query) throws IOException {
+        InetSocketAddress address = (InetSocketAddress) server.getListenerInfo().get(0).getAddress();
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + address.getPort() + query).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        return connection;
+    }
+
+    private static void write(HttpURLConnection connection, double[] positions) throws IOException {
+        ByteBuffer body = ByteBuffer.allocate(positions.length * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        body.asDoubleBuffer().put(positions);
+        try (OutputStream output = connection.getOutputStream()) {
+            output.write(body.array());
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package de.oelkers.solarviewer.dataEndpoints;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Generates deterministic elevation data with known properties, so the benchmarks and the load test do not depend on the
+ * real datasets.
+ */
+public enum SyntheticTerrain {
+
+    /**
+     * A single elevation everywhere, which is the best case for the redundancy detection.
+     */
+    FLAT {
+        @Override
+        short sample(int x, int z, Random random) {
+            return 100;
+        }
+    },
+
+    /**
+     * Planes with a constant slope, which repeat every 1024 pixels to stay within the range of the samples.
+     */
+    TILTED {
+        @Override
+        short sample(int x, int z, Random random) {
+            return (short) (x % 1024 + 2 * (z % 1024));
+        }
+    },
+
+    /**
+     * Random samples without any planar regions, which is the worst case for the redundancy detection and compression.
+     */
+    NOISY {
+        @Override
+        short sample(int x, int z, Random random) {
+            return (short) (random.nextInt(4000) - 2000);
+        }
+    },
+
+    /**
+     * Blocks of 64 pixels, which are either planes with a random slope or noisy hills, similar to real terrain.
+     */
+    MIXED {
+        @Override
+        short sample(int x, int z, Random random) {
+            int blockX = x / 64, blockZ = z / 64;
+            int block = blockX * 31 + blockZ * 17;
+            if (block % 2 == 0) {
+                return (short) ((block % 5 - 2) * (x % 64) + (block % 3 - 1) * (z % 64) + block % 1000);
+            }
+            return (short) (500 * Math.sin(x / 50.0) * Math.cos(z / 70.0) + random.nextInt(20));
+        }
+    };
+
+    private static final long SEED = 42;
+
+    abstract short sample(int x, int z, Random random);
+
+    /**
+     * @return the samples row by row
+     */
+    public short[] generate(int width, int height) {
+        Random random = new Random(SEED);
+        short[] result = new short[width * height];
+        for (int z = 0; z < height; z++) {
+            for (int x = 0; x < width; x++) {
+                result[z * width + x] = sample(x, z, random);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes the terrain as a GeoTIFF like file into a temporary file, which has to be deleted by the caller.
+     */
+    public Path writeTiff(int width, int height) throws IOException {
+        Path file = Files.createTempFile("terrain-" + name().toLowerCase(), ".tif");
+        writeTiff(file, width, height);
+        return file;
+    }
+
+    /**
+     * Writes the terrain as a GeoTIFF like file, overwriting an existing file.
+     */
+    public void writeTiff(Path file, int width, int height) throws IOException {
+        RasterDataEndpoint.write(generate(width, height), file.toString(), width, height);
+    }
+}
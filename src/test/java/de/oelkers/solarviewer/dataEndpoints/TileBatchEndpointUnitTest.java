@@ -0,0 +1,259 @@
+package de.oelkers.solarviewer.dataEndpoints;
+
+import de.oelkers.solarviewer.storage.OffHeapCache;
+import de.oelkers.solarviewer.utils.Cancellation;
+import io.undertow.Undertow;
+import io.undertow.server.handlers.BlockingHandler;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TileBatchEndpointUnitTest {
+
+    @Test
+    public void testTilesAreStreamedAsFrames(@TempDir Path path) throws IOException {
+        String file = path.resolve("original.tif").toString();
+        RasterDataEndpoint.write(new short[]{1, 2, 3, 4, 5, 6}, file, 3, 2);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try (RasterDataEndpoint endpoint = new RasterDataEndpoint(file, null, 3, 2)) {
+            Undertow server = Undertow.builder()
+                    .addHttpListener(0, "localhost")
+                    .setHandler(new BlockingHandler(new TileBatchEndpoint(endpoint, executor)))
+                    .build();
+            server.start();
+            try {
+                ByteBuffer response = post(server, "", new int[]{0, 0, 2, 2, 1, 1, 1, 2, 1, 1, 0, 0, 5, 5, 1});
+                Map<Integer, Integer> lengths = new HashMap<>();
+                while (response.hasRemaining()) {
+                    int index = response.getInt();
+                    int length = response.getInt();
+                    lengths.put(index, length);
+                    if (length > 0) {
+                        ByteBuffer payload = response.slice().limit(length).order(ByteOrder.LITTLE_ENDIAN);
+                        assertEquals(index == 0 ? 1 : 5, payload.getShort(TileFormat.HEADER_BYTES));
+                        response.position(response.position() + length);
+                    }
+                }
+                assertEquals(TileFormat.HEADER_BYTES + 4 * Short.BYTES, lengths.get(0));
+                assertEquals(TileFormat.HEADER_BYTES + 2 * Short.BYTES, lengths.get(1));
+                assertEquals(-1, lengths.get(2));
+            } finally {
+                server.stop();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testThatTilesOfSupersededViewsAreDropped(@TempDir Path path) throws Exception {
+        String file = path.resolve("original.tif").toString();
+        RasterDataEndpoint.write(new short[]{1, 2, 3, 4, 5, 6}, file, 3, 2);
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) TileBatchEndpoint.createExecutor(1);
+        ExecutorService clients = Executors.newFixedThreadPool(2);
+        CountDownLatch release = new CountDownLatch(1);
+        try (RasterDataEndpoint endpoint = new RasterDataEndpoint(file, null, 3, 2)) {
+            Undertow server = Undertow.builder()
+                    .addHttpListener(0, "localhost")
+                    .setHandler(new BlockingHandler(new TileBatchEndpoint(endpoint, executor)))
+                    .build();
+            server.start();
+            try {
+                // occupies the only worker, so the tiles of both batches are queued
+                executor.execute(() -> awaitUninterruptibly(release));
+                int[] tiles = {0, 0, 2, 2, 1, 1, 1, 2, 1, 1};
+                Future<ByteBuffer> old = clients.submit(() -> post(server, "&view=a&generation=1", tiles));
+                awaitQueued(executor, 2);
+                Future<ByteBuffer> current = clients.submit(() -> post(server, "&view=a&generation=2", tiles));
+                awaitQueued(executor, 4);
+                release.countDown();
+                assertEquals(List.of(-1, -1), getLengths(old.get()));
+                assertFalse(getLengths(current.get()).contains(-1));
+                assertEquals(2, endpoint.getMetrics().getDropped());
+            } finally {
+                server.stop();
+            }
+        } finally {
+            release.countDown();
+            executor.shutdown();
+            clients.shutdown();
+        }
+    }
+
+    @Test
+    public void testThatRunningLoadsOfSupersededViewsAreCancelled(@TempDir Path path) throws Exception {
+        String file = path.resolve("original.tif").toString();
+        RasterDataEndpoint.write(new short[]{1, 2, 3, 4, 5, 6}, file, 3, 2);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        ExecutorService clients = Executors.newFixedThreadPool(2);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch cancelled = new CountDownLatch(1);
+        AtomicBoolean first = new AtomicBoolean(true);
+        try (RasterDataEndpoint endpoint = new RasterDataEndpoint(file, null, 3, 2) {
+            @Override
+            ByteBuffer getTile(TileKey key, Cancellation cancellation) throws IOException {
+                if (first.getAndSet(false)) {
+                    started.countDown();
+                    // blocks like a slow decode, until the load is cancelled
+                    cancellation.onCancel(cancelled::countDown);
+                    awaitUninterruptibly(cancelled);
+                    cancellation.throwIfCancelled();
+                }
+                return super.getTile(key, cancellation);
+            }
+        }) {
+            Undertow server = Undertow.builder()
+                    .addHttpListener(0, "localhost")
+                    .setHandler(new BlockingHandler(new TileBatchEndpoint(endpoint, executor)))
+                    .build();
+            server.start();
+            try {
+                int[] tiles = {0, 0, 2, 2, 1};
+                Future<ByteBuffer> old = clients.submit(() -> post(server, "&view=a&generation=1", tiles));
+                awaitUninterruptibly(started);
+                ByteBuffer current = post(server, "&view=a&generation=2", tiles);
+                assertEquals(List.of(-1), getLengths(old.get()));
+                assertEquals(0, cancelled.getCount());
+                assertFalse(getLengths(current).contains(-1));
+            } finally {
+                server.stop();
+            }
+        } finally {
+            cancelled.countDown();
+            executor.shutdown();
+            clients.shutdown();
+        }
+    }
+
+    @Test
+    public void testThatTheNeighboursOfBatchesArePrefetched(@TempDir Path path) throws Exception {
+        String file = path.resolve("original.tif").toString();
+        RasterDataEndpoint.write(new short[16], file, 4, 4);
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        OffHeapCache<TileKey> cache = new OffHeapCache<>(1024 * 1024, 16);
+        try (RasterDataEndpoint endpoint = new RasterDataEndpoint(file, null, null, 4, 4, cache);
+             TilePrefetcher prefetcher = new TilePrefetcher(1, 16, () -> true, 2)) {
+            endpoint.setPrefetcher(prefetcher);
+            Undertow server = Undertow.builder()
+                    .addHttpListener(0, "localhost")
+                    .setHandler(new BlockingHandler(new TileBatchEndpoint(endpoint, executor)))
+                    .build();
+            server.start();
+            try {
+                // the first of 2 x 2 chunks with a size of 2 pixels, the chunk to its right overlaps it by one stride
+                post(server, "", new int[]{0, 0, 2, 2, 1});
+                long deadline = System.currentTimeMillis() + 10_000;
+                while (prefetcher.getPrefetched() == 0 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                assertTrue(cache.contains(endpoint.createKey(TileFormat.INT16, 1, 0, 4, 2, 1)));
+            } finally {
+                server.stop();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testThatTooManyTilesAreRejected(@TempDir Path path) throws IOException {
+        String file = path.resolve("original.tif").toString();
+        RasterDataEndpoint.write(new short[]{1, 2, 3, 4, 5, 6}, file, 3, 2);
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        try (RasterDataEndpoint endpoint = new RasterDataEndpoint(file, null, 3, 2)) {
+            Undertow server = Undertow.builder()
+                    .addHttpListener(0, "localhost")
+                    .setHandler(new BlockingHandler(new TileBatchEndpoint(endpoint, executor)))
+                    .build();
+            server.start();
+            try {
+                HttpURLConnection fixed = open(server, "");
+                write(fixed, new int[(TileBatchEndpoint.MAX_TILES + 1) * 5]);
+                assertEquals(413, fixed.getResponseCode());
+                HttpURLConnection chunked = open(server, "");
+                chunked.setChunkedStreamingMode(1024);
+                write(chunked, new int[(TileBatchEndpoint.MAX_TILES + 1) * 5]);
+                assertEquals(413, chunked.getResponseCode());
+                HttpURLConnection partial = open(server, "");
+                write(partial, new int[]{0, 0, 2, 2});
+                assertEquals(400, partial.getResponseCode());
+            } finally {
+                server.stop();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static List<Integer> getLengths(ByteBuffer response) {
+        List<Integer> result = new ArrayList<>();
+        while (response.hasRemaining()) {
+            response.getInt();
+            int length = response.getInt();
+            result.add(length);
+            response.position(response.position() + Math.max(0, length));
+        }
+        return result;
+    }
+
+    private static void awaitQueued(ThreadPoolExecutor executor, int count) throws InterruptedException {
+        while (executor.getQueue().size() < count) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        while (true) {
+            try {
+                latch.await();
+                return;
+            } catch (InterruptedException e) {
+                // the worker must stay blocked until the test releases it
+            }
+        }
+    }
+
+    private static ByteBuffer post(Undertow server, String query, int[] tiles) throws IOException {
+        HttpURLConnection connection = open(server, query);
+        write(connection, tiles);
+        return ByteBuffer.wrap(connection.getInputStream().readAllBytes()).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static HttpURLConnection open(Undertow server, String query) throws IOException {
+        InetSocketAddress address = (InetSocketAddress) server.getListenerInfo().get(0).getAddress();
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + address.getPort() + "?format=i16" + query).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        return connection;
+    }
+
+    private static void write(HttpURLConnection connection, int[] tiles) throws IOException {
+        ByteBuffer body = ByteBuffer.allocate(tiles.length * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        body.asIntBuffer().put(tiles);
+        try (OutputStream output = connection.getOutputStream()) {
+            output.write(body.array());
+        }
+    }
+}
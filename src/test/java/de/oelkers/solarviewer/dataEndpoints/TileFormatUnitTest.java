@@ -0,0 +1,84 @@
+package de.oelkers.solarviewer.dataEndpoints;
+
+import de.oelkers.solarviewer.utils.ShortRaster;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class TileFormatUnitTest {
+
+    @Test
+    public void testTextFormat() {
+        ByteBuffer result = TileFormat.TEXT.encode(ShortRaster.of(new short[][]{{1, 2}, {3, 4}}), 0, 0, 1);
+        assertEquals("[1, 2, 3, 4]", StandardCharsets.UTF_8.decode(result).toString());
+    }
+
+    @Test
+    public void testBinaryFormat() {
+        ByteBuffer result = TileFormat.INT16.encode(ShortRaster.of(new short[][]{{1, -2}, {3, 4}}), 5, 6, 2).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(TileFormat.HEADER_BYTES + 4 * Short.BYTES, result.remaining());
+        assertEquals(2, result.getInt());
+        assertEquals(2, result.getInt());
+        assertEquals(2, result.getInt());
+        assertEquals(5, result.getInt());
+        assertEquals(6, result.getInt());
+        assertEquals(1, result.getShort());
+        assertEquals(-2, result.getShort());
+        assertEquals(3, result.getShort());
+        assertEquals(4, result.getShort());
+    }
+
+    @Test
+    public void testBinaryFormatWithRowStride() {
+        ShortRaster raster = new ShortRaster(new short[]{1, 2, 9, 3, 4, 9}, 2, 2, 3);
+        ByteBuffer result = TileFormat.INT16.encode(raster, 0, 0, 1).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(TileFormat.HEADER_BYTES + 4 * Short.BYTES, result.remaining());
+        result.position(TileFormat.HEADER_BYTES);
+        assertEquals(1, result.getShort());
+        assertEquals(2, result.getShort());
+        assertEquals(3, result.getShort());
+        assertEquals(4, result.getShort());
+    }
+
+    @Test
+    public void testSparseFormat() {
+        short m = TileFormat.MARKER;
+        ShortRaster raster = ShortRaster.of(new short[][]{{1, m, m, 4}, {5, 6, m, 8}, {9, 10, 11, 12}});
+        ByteBuffer result = TileFormat.SPARSE.encode(raster, 0, 0, 1).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(TileFormat.HEADER_BYTES + 13 * Short.BYTES, result.remaining());
+        assertEquals(4, result.getInt());
+        assertEquals(3, result.getInt());
+        result.position(TileFormat.HEADER_BYTES);
+        short[] expected = {1, m, 2, 4, 5, 6, m, 1, 8, 9, 10, 11, 12};
+        short[] samples = new short[expected.length];
+        result.slice().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(samples);
+        assertArrayEquals(expected, samples);
+    }
+
+    @Test
+    public void testNegotiate() {
+        assertEquals(TileFormat.SPARSE, negotiate("rle", null));
+        assertEquals(TileFormat.INT16, negotiate(null, "application/octet-stream"));
+        assertEquals(TileFormat.TEXT, negotiate(null, null));
+        assertNull(negotiate("png", null));
+    }
+
+    private static TileFormat negotiate(String format, String accept) {
+        HttpServerExchange exchange = new HttpServerExchange(null);
+        if (format != null) {
+            exchange.addQueryParam("format", format);
+        }
+        if (accept != null) {
+            exchange.getRequestHeaders().put(Headers.ACCEPT, accept);
+        }
+        return TileFormat.negotiate(exchange);
+    }
+}
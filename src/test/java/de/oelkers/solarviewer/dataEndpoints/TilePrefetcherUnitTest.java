@@ -0,0 +1,125 @@
+package de.oelkers.solarviewer.dataEndpoints;
+
+import de.oelkers.solarviewer.storage.OffHeapCache;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TilePrefetcherUnitTest {
+
+    private static final int CHUNK_SIZE = RasterDataEndpoint.CHUNK_SIZE;
+
+    @Test
+    public void testThatNeighboursAndStridesArePredicted() {
+        // the second chunk of the first row of a dataset with 3 x 2 chunks, which overlaps the first chunk by a stride
+        TileKey key = key(CHUNK_SIZE - 2, 0, CHUNK_SIZE + 2, CHUNK_SIZE, 2);
+        List<TileKey> result = TilePrefetcher.predict(key, 3 * CHUNK_SIZE, 2 * CHUNK_SIZE, CHUNK_SIZE);
+        // the last chunk of each row and each chunk of the last row include one more stride of the following ones
+        assertEquals(List.of(key(0, 0, CHUNK_SIZE, CHUNK_SIZE, 2),
+                key(2 * CHUNK_SIZE - 2, 0, CHUNK_SIZE + 4, CHUNK_SIZE, 2),
+                key(0, CHUNK_SIZE - 2, CHUNK_SIZE, CHUNK_SIZE + 4, 2),
+                key(CHUNK_SIZE - 2, CHUNK_SIZE - 2, CHUNK_SIZE + 2, CHUNK_SIZE + 4, 2),
+                key(2 * CHUNK_SIZE - 2, CHUNK_SIZE - 2, CHUNK_SIZE + 4, CHUNK_SIZE + 4, 2),
+                key(CHUNK_SIZE - 1, 0, CHUNK_SIZE + 1, CHUNK_SIZE, 1),
+                key(CHUNK_SIZE - 4, 0, CHUNK_SIZE + 4, CHUNK_SIZE, 4)), result);
+    }
+
+    @Test
+    public void testThatNeighboursWrapAroundHorizontally() {
+        TileKey key = key(0, 0, CHUNK_SIZE, CHUNK_SIZE, 1);
+        List<TileKey> result = TilePrefetcher.predict(key, 3 * CHUNK_SIZE, 2 * CHUNK_SIZE, CHUNK_SIZE);
+        // the chunks above the first row are left out, the ones left of the first column wrap around
+        assertTrue(result.contains(key(2 * CHUNK_SIZE - 1, 0, CHUNK_SIZE + 2, CHUNK_SIZE, 1)));
+        assertEquals(6, result.size());
+    }
+
+    @Test
+    public void testThatStridesCoarserThanTheClientRequestsAreNotPredicted() {
+        TileKey key = key(CHUNK_SIZE - 4, 0, CHUNK_SIZE + 4, CHUNK_SIZE, 4);
+        List<TileKey> result = TilePrefetcher.predict(key, 3 * CHUNK_SIZE, 2 * CHUNK_SIZE, CHUNK_SIZE);
+        assertTrue(result.contains(key(CHUNK_SIZE - 2, 0, CHUNK_SIZE + 2, CHUNK_SIZE, 2)));
+        assertFalse(result.stream().anyMatch(next -> next.getStride() == 8));
+    }
+
+    @Test
+    public void testThatTilesNotShapedLikeChunksAreNotPredicted() {
+        TileKey key = key(CHUNK_SIZE, 0, CHUNK_SIZE, CHUNK_SIZE, 2);
+        assertEquals(List.of(), TilePrefetcher.predict(key, 3 * CHUNK_SIZE, 2 * CHUNK_SIZE, CHUNK_SIZE));
+    }
+
+    @Test
+    public void testThatPredictedTilesAreCached(@TempDir Path path) throws IOException, InterruptedException {
+        String originalFile = Files.createFile(path.resolve("original.tif")).toString();
+        RasterDataEndpoint.write(new short[16], originalFile, 4, 4);
+        OffHeapCache<TileKey> cache = new OffHeapCache<>(1024 * 1024, 16);
+        try (RasterDataEndpoint endpoint = new RasterDataEndpoint(originalFile, null, null, 4, 4, cache);
+             TilePrefetcher prefetcher = new TilePrefetcher(1, 16, () -> true, 2)) {
+            TileKey key = endpoint.createKey(TileFormat.INT16, 0, 0, 2, 2, 1);
+            prefetcher.prefetch(endpoint, List.of(key));
+            List<TileKey> predicted = TilePrefetcher.predict(key, 4, 4, 2);
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (prefetcher.getPrefetched() + prefetcher.getSkipped() < predicted.size() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, cache.getHits() + cache.getMisses());
+            for (TileKey next : predicted) {
+                assertTrue(cache.contains(next), next::toString);
+            }
+            assertFalse(cache.contains(key));
+        }
+    }
+
+    @Test
+    public void testThatPrefetchedTilesReplaceTilesRequestedOnce(@TempDir Path path) throws IOException {
+        String originalFile = Files.createFile(path.resolve("original.tif")).toString();
+        RasterDataEndpoint.write(new short[16], originalFile, 4, 4);
+        int tileBytes = TileFormat.HEADER_BYTES + 2 * 2 * Short.BYTES;
+        OffHeapCache<TileKey> cache = new OffHeapCache<>(2 * tileBytes, 16);
+        try (RasterDataEndpoint endpoint = new RasterDataEndpoint(originalFile, null, null, 4, 4, cache)) {
+            endpoint.getTile(endpoint.createKey(TileFormat.INT16, 0, 0, 2, 2, 1));
+            endpoint.getTile(endpoint.createKey(TileFormat.INT16, 2, 0, 2, 2, 1));
+            assertEquals(2 * tileBytes, cache.getSize());
+            TileKey prefetched = endpoint.createKey(TileFormat.INT16, 0, 2, 2, 2, 1);
+            assertTrue(endpoint.prefetchTile(prefetched));
+            assertTrue(cache.contains(prefetched));
+            assertEquals(2, cache.getMisses());
+            assertEquals(0, cache.getRejections());
+        }
+    }
+
+    @Test
+    public void testThatEncodedPrefetchesAreNotCountedAsRequests(@TempDir Path path) throws IOException {
+        String originalFile = Files.createFile(path.resolve("original.tif")).toString();
+        RasterDataEndpoint.write(new short[16], originalFile, 4, 4);
+        OffHeapCache<TileKey> cache = new OffHeapCache<>(1024 * 1024, 16);
+        try (RasterDataEndpoint endpoint = new RasterDataEndpoint(originalFile, null, null, 4, 4, cache)) {
+            TileKey key = endpoint.createKey(TileFormat.INT16, 0, 0, 2, 2, 1).withEncoding(ContentEncoding.GZIP);
+            assertTrue(endpoint.prefetchTile(key));
+            assertTrue(cache.contains(key));
+            assertTrue(cache.contains(key.withEncoding(ContentEncoding.IDENTITY)));
+            assertEquals(0, cache.getHits() + cache.getMisses());
+        }
+    }
+
+    @Test
+    public void testThatNothingIsPrefetchedIfBusy(@TempDir Path path) throws IOException {
+        String originalFile = Files.createFile(path.resolve("original.tif")).toString();
+        RasterDataEndpoint.write(new short[16], originalFile, 4, 4);
+        OffHeapCache<TileKey> cache = new OffHeapCache<>(1024 * 1024, 16);
+        try (RasterDataEndpoint endpoint = new RasterDataEndpoint(originalFile, null, null, 4, 4, cache);
+             TilePrefetcher prefetcher = new TilePrefetcher(1, 16, () -> false, 2)) {
+            prefetcher.prefetch(endpoint, List.of(endpoint.createKey(TileFormat.INT16, 0, 0, 2, 2, 1)));
+            assertEquals(0, cache.getEntryCount());
+        }
+    }
+
+    private static TileKey key(int x, int z, int width, int height, int stride) {
+        return new TileKey("test", TileFormat.SPARSE, x, z, width, height, stride);
+    }
+}
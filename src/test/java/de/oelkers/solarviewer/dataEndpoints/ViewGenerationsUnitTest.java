@@ -0,0 +1,40 @@
+package de.oelkers.solarviewer.dataEndpoints;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ViewGenerationsUnitTest {
+
+    @Test
+    public void testThatOnlyNewerGenerationsOfTheSameViewSupersede() {
+        ViewGenerations generations = new ViewGenerations();
+        assertFalse(generations.isSuperseded("a", 1));
+        generations.advance("a", 2);
+        generations.advance("a", 1);
+        assertTrue(generations.isSuperseded("a", 1));
+        assertFalse(generations.isSuperseded("a", 2));
+        assertFalse(generations.isSuperseded("b", 1));
+    }
+
+    @Test
+    public void testThatCallbacksRunOnceTheirGenerationIsSuperseded() {
+        ViewGenerations generations = new ViewGenerations();
+        List<String> superseded = new ArrayList<>();
+        generations.advance("a", 1);
+        generations.onSuperseded("a", 1, () -> superseded.add("first"));
+        Runnable unregister = generations.onSuperseded("a", 1, () -> superseded.add("removed"));
+        generations.onSuperseded("a", 2, () -> superseded.add("second"));
+        generations.onSuperseded("b", 1, () -> superseded.add("other"));
+        unregister.run();
+        generations.advance("a", 2);
+        assertEquals(List.of("first"), superseded);
+        generations.onSuperseded("a", 1, () -> superseded.add("late"));
+        assertEquals(List.of("first", "late"), superseded);
+    }
+}
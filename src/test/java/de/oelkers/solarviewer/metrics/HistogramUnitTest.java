@@ -0,0 +1,26 @@
+package de.oelkers.solarviewer.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HistogramUnitTest {
+
+    @Test
+    public void testThatBucketsAreCumulative() {
+        Histogram histogram = new Histogram();
+        histogram.record(100_000);
+        histogram.record(500_000);
+        histogram.record(700_000);
+        histogram.record(Long.MAX_VALUE / 2);
+        StringBuilder builder = new StringBuilder();
+        histogram.writeTo(builder, "test", "a=\"b\"");
+        String result = builder.toString();
+        assertEquals(4, histogram.getCount());
+        assertTrue(result.contains("test_bucket{a=\"b\",le=\"5.0E-4\"} 2\n"));
+        assertTrue(result.contains("test_bucket{a=\"b\",le=\"0.001\"} 3\n"));
+        assertTrue(result.contains("test_bucket{a=\"b\",le=\"+Inf\"} 4\n"));
+        assertTrue(result.contains("test_count{a=\"b\"} 4\n"));
+    }
+}
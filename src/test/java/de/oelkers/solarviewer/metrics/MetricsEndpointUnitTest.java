@@ -0,0 +1,46 @@
+package de.oelkers.solarviewer.metrics;
+
+import io.undertow.Undertow;
+import io.undertow.server.handlers.BlockingHandler;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetricsEndpointUnitTest {
+
+    @Test
+    public void testThatMetricsAreExposed() throws IOException {
+        TileMetrics tileMetrics = new TileMetrics();
+        tileMetrics.record(TileMetrics.Phase.DECODE, 4, 1_000_000);
+        tileMetrics.record(TileMetrics.Phase.DECODE, 3, 1_000_000);
+        tileMetrics.addBytesSent(42);
+        MetricsEndpoint endpoint = new MetricsEndpoint();
+        endpoint.addDataset("test", tileMetrics);
+        endpoint.addGauge("test_gauge", "A gauge", () -> 7);
+        Undertow server = Undertow.builder().addHttpListener(0, "localhost").setHandler(new BlockingHandler(endpoint)).build();
+        server.start();
+        try {
+            InetSocketAddress address = (InetSocketAddress) server.getListenerInfo().get(0).getAddress();
+            HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + address.getPort()).openConnection();
+            String result;
+            try (InputStream input = connection.getInputStream()) {
+                result = new String(input.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            assertTrue(connection.getContentType().startsWith("text/plain; version=0.0.4"));
+            assertTrue(result.contains("# TYPE solarviewer_tile_seconds histogram\n"));
+            assertTrue(result.contains("solarviewer_tile_seconds_count{dataset=\"test\",stride=\"4\",phase=\"decode\"} 1\n"));
+            assertTrue(result.contains("solarviewer_tile_seconds_count{dataset=\"test\",stride=\"other\",phase=\"decode\"} 1\n"));
+            assertTrue(result.contains("solarviewer_tile_sent_bytes_total{dataset=\"test\"} 42\n"));
+            assertTrue(result.contains("# TYPE test_gauge gauge\ntest_gauge 7\n"));
+        } finally {
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package de.oelkers.solarviewer.storage;
+
+import de.oelkers.solarviewer.utils.ShortRaster;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ElevationIndexUnitTest {
+
+    private static final int WIDTH = 37, HEIGHT = 23, CELL_SIZE = 2, CHUNK_SIZE = 8;
+
+    @Test
+    public void testThatAlignedRegionsAreExact() throws IOException {
+        ShortRaster data = createRandom();
+        ElevationIndex index = build(data);
+        assertSummary(data, index.query(0, 0, WIDTH, HEIGHT), 0, 0, WIDTH, HEIGHT);
+        assertSummary(data, index.query(2, 4, 16, 8), 2, 4, 16, 8);
+        assertSummary(data, index.query(6, 10, 31, 13), 6, 10, 31, 13);
+        assertSummary(data, index.query(36, 22, 1, 1), 36, 22, 1, 1);
+    }
+
+    @Test
+    public void testThatExtremaOfPartialCellsAreInside() throws IOException {
+        ShortRaster data = new ShortRaster(WIDTH, HEIGHT);
+        data.set(5, 5, (short) 100);
+        data.set(7, 6, (short) 50);
+        data.set(9, 9, (short) -100);
+        ElevationIndex index = build(data);
+        ElevationIndex.Summary summary = index.query(5, 5, 3, 3);
+        assertEquals(100, summary.getMax());
+        assertEquals(5, summary.getMaxX());
+        assertEquals(5, summary.getMaxZ());
+        assertEquals(0, summary.getMin());
+        summary = index.query(6, 6, 3, 3);
+        // the cell containing (5, 5) overlaps the region, but its maximum is outside of it
+        assertEquals(50, summary.getMax());
+        assertEquals(7, summary.getMaxX());
+        assertEquals(9, summary.getCount());
+    }
+
+    @Test
+    public void testThatWrittenIndexIsEqual(@TempDir Path path) throws IOException {
+        ShortRaster data = createRandom();
+        ElevationIndex index = build(data);
+        index.write(path.resolve("data.index"));
+        ElevationIndex read = ElevationIndex.read(path.resolve("data.index"));
+        assertEquals(WIDTH, read.getWidth());
+        assertEquals(HEIGHT, read.getHeight());
+        assertEquals(CELL_SIZE, read.getCellSize());
+        assertSummary(data, read.query(4, 2, 20, 20), 4, 2, 20, 20);
+    }
+
+    @Test
+    public void testMerge() {
+        ElevationIndex.Summary first = new ElevationIndex.Summary((short) -5, 1, 2, (short) 10, 3, 4, 2, 2);
+        ElevationIndex.Summary second = new ElevationIndex.Summary((short) -1, 5, 6, (short) 20, 7, 8, 5, 1);
+        ElevationIndex.Summary result = first.merge(second);
+        assertEquals(-5, result.getMin());
+        assertEquals(1, result.getMinX());
+        assertEquals(20, result.getMax());
+        assertEquals(8, result.getMaxZ());
+        assertEquals(3, result.getMean(), 1e-9);
+        assertEquals(3, result.getCount());
+    }
+
+    private static ShortRaster createRandom() {
+        Random random = new Random(42);
+        ShortRaster data = new ShortRaster(WIDTH, HEIGHT);
+        for (int z = 0; z < HEIGHT; z++) {
+            for (int x = 0; x < WIDTH; x++) {
+                data.set(x, z, (short) (random.nextInt(20000) - 10000));
+            }
+        }
+        return data;
+    }
+
+    private static ElevationIndex build(ShortRaster data) throws IOException {
+        return ElevationIndex.build((x, z, width, height, stride) -> {
+            ShortRaster result = new ShortRaster(width, height);
+            for (int row = 0; row < height; row++) {
+                for (int column = 0; column < width; column++) {
+                    result.set(column, row, data.get(x + column, z + row));
+                }
+            }
+            return result;
+        }, WIDTH, HEIGHT, CELL_SIZE, CHUNK_SIZE, 2);
+    }
+
+    private static void assertSummary(ShortRaster data, ElevationIndex.Summary summary, int x, int z, int width, int height) {
+        short min = Short.MAX_VALUE, max = Short.MIN_VALUE;
+        long sum = 0;
+        for (int row = z; row < z + height; row++) {
+            for (int column = x; column < x + width; column++) {
+                min = (short) Math.min(min, data.get(column, row));
+                max = (short) Math.max(max, data.get(column, row));
+                sum += data.get(column, row);
+            }
+        }
+        assertEquals(min, summary.getMin());
+        assertEquals(min, data.get(summary.getMinX(), summary.getMinZ()));
+        assertEquals(max, summary.getMax());
+        assertEquals(max, data.get(summary.getMaxX(), summary.getMaxZ()));
+        assertEquals((double) sum / (width * height), summary.getMean(), 1e-9);
+        assertEquals((long) width * height, summary.getCount());
+    }
+}
@@ -0,0 +1,77 @@
+package de.oelkers.solarviewer.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageReaderPoolUnitTest {
+
+    @Test
+    public void testReaderIsReused(@TempDir Path path) throws IOException {
+        try (ImageReaderPool pool = new ImageReaderPool(createImage(path), 2)) {
+            ImageReader first = pool.read(reader -> reader);
+            ImageReader second = pool.read(reader -> reader);
+            assertSame(first, second);
+            int width = pool.read(reader -> reader.getWidth(0));
+            assertEquals(3, width);
+        }
+    }
+
+    @Test
+    public void testFailedReaderIsDiscarded(@TempDir Path path) throws IOException {
+        try (ImageReaderPool pool = new ImageReaderPool(createImage(path), 2)) {
+            ImageReader first = pool.read(reader -> reader);
+            assertThrows(IOException.class, () -> pool.read(reader -> {
+                throw new IOException();
+            }));
+            assertNotSame(first, pool.read(reader -> reader));
+        }
+    }
+
+    @Test
+    public void testAmountOfReadersIsBounded(@TempDir Path path) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        Set<ImageReader> readers = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+        AtomicInteger concurrent = new AtomicInteger();
+        AtomicInteger maxConcurrent = new AtomicInteger();
+        try (ImageReaderPool pool = new ImageReaderPool(createImage(path), 2)) {
+            Future<?>[] futures = new Future<?>[32];
+            for (int i = 0; i < futures.length; i++) {
+                futures[i] = executor.submit(() -> pool.read(reader -> {
+                    maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+                    readers.add(reader);
+                    concurrent.decrementAndGet();
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(maxConcurrent.get() <= 2);
+        assertTrue(readers.size() <= 2);
+    }
+
+    private static String createImage(Path path) throws IOException {
+        Path file = path.resolve("image.png");
+        ImageIO.write(new BufferedImage(3, 2, BufferedImage.TYPE_USHORT_GRAY), "png", file.toFile());
+        return file.toString();
+    }
+}
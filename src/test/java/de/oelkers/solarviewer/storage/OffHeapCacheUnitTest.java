@@ -0,0 +1,124 @@
+package de.oelkers.solarviewer.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffHeapCacheUnitTest {
+
+    @Test
+    public void testHitAndMiss() {
+        OffHeapCache<String> cache = new OffHeapCache<>(100, 10);
+        assertNull(cache.get("a"));
+        ByteBuffer result = cache.put("a", ByteBuffer.wrap(new byte[]{1, 2, 3}));
+        assertTrue(result.isDirect());
+        assertEquals(ByteBuffer.wrap(new byte[]{1, 2, 3}), cache.get("a"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(3, cache.getSize());
+    }
+
+    @Test
+    public void testContainsIsNotCounted() {
+        OffHeapCache<String> cache = new OffHeapCache<>(1024, 16);
+        cache.put("a", ByteBuffer.allocate(4));
+        assertTrue(cache.contains("a"));
+        assertFalse(cache.contains("b"));
+        assertEquals(0, cache.getHits());
+        assertEquals(0, cache.getMisses());
+    }
+
+    @Test
+    public void testBuffersAreIndependent() {
+        OffHeapCache<String> cache = new OffHeapCache<>(100, 10);
+        cache.put("a", ByteBuffer.wrap(new byte[]{1, 2, 3}));
+        cache.get("a").get();
+        assertEquals(3, cache.get("a").remaining());
+    }
+
+    @Test
+    public void testFrequentEntryEvictsLeastRecentlyUsed() {
+        OffHeapCache<String> cache = new OffHeapCache<>(10, 10);
+        cache.get("a");
+        cache.put("a", ByteBuffer.allocate(5));
+        cache.get("b");
+        cache.put("b", ByteBuffer.allocate(5));
+        cache.get("b");
+        for (int i = 0; i < 3; i++) {
+            cache.get("c");
+        }
+        cache.put("c", ByteBuffer.allocate(5));
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertEquals(1, cache.getEvictions());
+        assertEquals(10, cache.getSize());
+    }
+
+    @Test
+    public void testInfrequentEntryIsRejected() {
+        OffHeapCache<String> cache = new OffHeapCache<>(10, 10);
+        for (int i = 0; i < 3; i++) {
+            cache.get("a");
+        }
+        cache.put("a", ByteBuffer.allocate(10));
+        cache.get("b");
+        ByteBuffer result = cache.put("b", ByteBuffer.allocate(5));
+        assertFalse(result.isDirect());
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.getRejections());
+    }
+
+    @Test
+    public void testPrefetchedEntryReplacesEntriesRequestedOnce() {
+        OffHeapCache<String> cache = new OffHeapCache<>(10, 10);
+        cache.get("a");
+        cache.put("a", ByteBuffer.allocate(5));
+        cache.get("b");
+        cache.put("b", ByteBuffer.allocate(5));
+        assertTrue(cache.admitsPrefetched());
+        ByteBuffer result = cache.putPrefetched("c", ByteBuffer.allocate(5));
+        assertTrue(result.isDirect());
+        assertFalse(cache.contains("a"));
+        assertTrue(cache.contains("b"));
+        assertTrue(cache.contains("c"));
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testPrefetchedEntryKeepsFrequentEntries() {
+        OffHeapCache<String> cache = new OffHeapCache<>(10, 10);
+        for (int i = 0; i < 2; i++) {
+            cache.get("a");
+        }
+        cache.put("a", ByteBuffer.allocate(10));
+        assertFalse(cache.admitsPrefetched());
+        ByteBuffer result = cache.putPrefetched("b", ByteBuffer.allocate(5));
+        assertFalse(result.isDirect());
+        assertTrue(cache.contains("a"));
+        assertEquals(1, cache.getRejections());
+    }
+
+    @Test
+    public void testOversizedEntryIsRejected() {
+        OffHeapCache<String> cache = new OffHeapCache<>(10, 10);
+        ByteBuffer result = cache.put("a", ByteBuffer.allocate(11));
+        assertFalse(result.isDirect());
+        assertEquals(0, cache.getSize());
+        assertEquals(1, cache.getRejections());
+    }
+
+    @Test
+    public void testClearReleasesTheBudget() {
+        OffHeapCache<String> cache = new OffHeapCache<>(10, 10);
+        cache.put("a", ByteBuffer.allocate(10));
+        cache.clear();
+        assertEquals(0, cache.getSize());
+        assertTrue(cache.put("b", ByteBuffer.allocate(10)).isDirect());
+        assertEquals(0, cache.getEvictions());
+        assertEquals(10, cache.getSize());
+    }
+}
@@ -0,0 +1,123 @@
+package de.oelkers.solarviewer.storage;
+
+import de.oelkers.solarviewer.utils.ShortRaster;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ShortBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TiledElevationStoreUnitTest {
+
+    private static final short[][] DATA = {
+            {1, 2, 3, 4, 5, 6},
+            {7, 8, 9, 10, 11, 12},
+            {13, 14, 15, 16, 17, 18},
+            {19, 20, 21, 22, 23, 24}
+    };
+
+    @Test
+    public void testReadWithinTiles(@TempDir Path path) throws IOException {
+        try (TiledElevationStore store = build(path, 4, 2)) {
+            assertArrayEquals(new short[]{8, 9, 10, 14, 15, 16}, read(store, 1, 1, 3, 2, 1));
+        }
+    }
+
+    @Test
+    public void testReadAcrossTiles(@TempDir Path path) throws IOException {
+        try (TiledElevationStore store = build(path, 2, 1)) {
+            assertArrayEquals(new short[]{8, 9, 10, 11, 14, 15, 16, 17}, read(store, 1, 1, 4, 2, 1));
+        }
+    }
+
+    @Test
+    public void testReadWithStride(@TempDir Path path) throws IOException {
+        try (TiledElevationStore store = build(path, 2, 2)) {
+            assertArrayEquals(new short[]{1, 3, 5, 13, 15, 17}, read(store, 0, 0, 6, 4, 2));
+            assertArrayEquals(new short[]{15, 17}, read(store, 2, 2, 4, 2, 2));
+        }
+    }
+
+    @Test
+    public void testReadWithOverflow(@TempDir Path path) throws IOException {
+        try (TiledElevationStore store = build(path, 4, 1)) {
+            assertArrayEquals(new short[]{17, 18, 13, 23, 24, 19, 23, 24, 0}, read(store, 4, 2, 3, 3, 1));
+        }
+    }
+
+    @Test
+    public void testCanRead(@TempDir Path path) throws IOException {
+        try (TiledElevationStore store = build(path, 4, 2)) {
+            assertTrue(store.canRead(0, 0, 6, 4, 1));
+            assertTrue(store.canRead(2, 2, 4, 2, 2));
+            assertFalse(store.canRead(1, 0, 2, 2, 2));
+            assertFalse(store.canRead(0, 0, 2, 2, 4));
+            assertFalse(store.canRead(0, 0, 2, 2, 3));
+        }
+    }
+
+    @Test
+    public void testThatFailedBuildIsResumed(@TempDir Path path) throws IOException {
+        Path target = path.resolve("data.tiles");
+        AtomicInteger completed = new AtomicInteger();
+        TiledElevationStoreBuilder.TileSource failing = (x, z, width, height, stride) -> {
+            if (x == 4) {
+                throw new IOException("Failed to read tile");
+            }
+            completed.incrementAndGet();
+            return read(x, z, width, height, stride);
+        };
+        assertThrows(IOException.class, () -> new TiledElevationStoreBuilder(failing, 6, 4, 2).parallelism(1).build(target));
+        assertFalse(Files.exists(target));
+        AtomicInteger reads = new AtomicInteger();
+        TiledElevationStoreBuilder.TileSource counting = (x, z, width, height, stride) -> {
+            reads.incrementAndGet();
+            return read(x, z, width, height, stride);
+        };
+        new TiledElevationStoreBuilder(counting, 6, 4, 2).parallelism(1).build(target);
+        assertEquals(6 - completed.get(), reads.get());
+        try (TiledElevationStore store = TiledElevationStore.open(target)) {
+            assertArrayEquals(new short[]{5, 6, 11, 12, 17, 18, 23, 24}, read(store, 4, 0, 2, 4, 1));
+            assertArrayEquals(new short[]{1, 2, 7, 8}, read(store, 0, 0, 2, 2, 1));
+        }
+    }
+
+    @Test
+    public void testThatTransformIsApplied(@TempDir Path path) throws IOException {
+        Path target = path.resolve("data.tiles");
+        new TiledElevationStoreBuilder(TiledElevationStoreUnitTest::read, 6, 4, 4)
+                .transform((data, x, z) -> data.set(0, 0, (short) -x))
+                .build(target);
+        try (TiledElevationStore store = TiledElevationStore.open(target)) {
+            assertArrayEquals(new short[]{0, 2, 3, 4, -4, 6}, read(store, 0, 0, 6, 1, 1));
+        }
+    }
+
+    private static TiledElevationStore build(Path path, int tileSize, int levels) throws IOException {
+        Path target = path.resolve("data.tiles");
+        new TiledElevationStoreBuilder(TiledElevationStoreUnitTest::read, 6, 4, tileSize).levels(levels).build(target);
+        return TiledElevationStore.open(target);
+    }
+
+    private static ShortRaster read(int x, int z, int width, int height, int stride) {
+        short[][] result = new short[(height + stride - 1) / stride][(width + stride - 1) / stride];
+        for (int row = 0; row < result.length; row++) {
+            for (int column = 0; column < result[row].length; column++) {
+                result[row][column] = DATA[z + row * stride][x + column * stride];
+            }
+        }
+        return ShortRaster.of(result);
+    }
+
+    private static short[] read(TiledElevationStore store, int x, int z, int width, int height, int stride) throws IOException {
+        ShortBuffer buffer = ShortBuffer.allocate(width / stride * (height / stride));
+        store.read(x, z, width, height, stride, buffer);
+        assertFalse(buffer.hasRemaining());
+        return buffer.array();
+    }
+}
@@ -0,0 +1,46 @@
+package de.oelkers.solarviewer.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CancellationUnitTest {
+
+    @Test
+    public void testThatCallbacksRunOnce() {
+        Cancellation cancellation = new Cancellation();
+        AtomicInteger calls = new AtomicInteger();
+        cancellation.onCancel(calls::incrementAndGet);
+        assertDoesNotThrow(cancellation::throwIfCancelled);
+        cancellation.cancel();
+        cancellation.cancel();
+        assertEquals(1, calls.get());
+        assertTrue(cancellation.isCancelled());
+        assertThrows(InterruptedIOException.class, cancellation::throwIfCancelled);
+    }
+
+    @Test
+    public void testThatRemovedCallbacksDoNotRun() {
+        Cancellation cancellation = new Cancellation();
+        AtomicInteger calls = new AtomicInteger();
+        Runnable unregister = cancellation.onCancel(calls::incrementAndGet);
+        unregister.run();
+        cancellation.cancel();
+        assertEquals(0, calls.get());
+    }
+
+    @Test
+    public void testThatCallbacksRunImmediatelyIfAlreadyCancelled() {
+        Cancellation cancellation = new Cancellation();
+        cancellation.cancel();
+        AtomicInteger calls = new AtomicInteger();
+        cancellation.onCancel(calls::incrementAndGet).run();
+        assertEquals(1, calls.get());
+    }
+}
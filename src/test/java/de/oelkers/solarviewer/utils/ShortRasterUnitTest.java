@@ -0,0 +1,37 @@
+package de.oelkers.solarviewer.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ShortBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ShortRasterUnitTest {
+
+    @Test
+    public void testOf() {
+        ShortRaster raster = ShortRaster.of(new short[][]{{1, 2}, {3, 4}, {5, 6}});
+        assertEquals(2, raster.getWidth());
+        assertEquals(3, raster.getHeight());
+        assertEquals(4, raster.get(1, 1));
+        assertArrayEquals(new short[]{1, 2, 3, 4, 5, 6}, raster.getData());
+    }
+
+    @Test
+    public void testRowStride() {
+        ShortRaster raster = new ShortRaster(new short[]{1, 2, 0, 3, 4, 0}, 2, 2, 3);
+        raster.set(1, 1, (short) 5);
+        assertArrayEquals(new short[][]{{1, 2}, {3, 5}}, raster.toArray());
+        ShortBuffer buffer = ShortBuffer.allocate(4);
+        raster.copyTo(buffer);
+        assertArrayEquals(new short[]{1, 2, 3, 5}, buffer.array());
+    }
+
+    @Test
+    public void testFill() {
+        ShortRaster raster = ShortRaster.of(new short[][]{{1, 2, 3}, {4, 5, 6}});
+        raster.fill(1, 0, 2, 2, (short) 0);
+        assertArrayEquals(new short[][]{{1, 0, 0}, {4, 0, 0}}, raster.toArray());
+    }
+}
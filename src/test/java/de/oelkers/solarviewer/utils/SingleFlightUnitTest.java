@@ -0,0 +1,180 @@
+package de.oelkers.solarviewer.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightUnitTest {
+
+    private static final int CALLERS = 8;
+
+    @Test
+    public void testThatConcurrentLoadsAreCoalesced() throws Exception {
+        AtomicInteger coalesced = new AtomicInteger();
+        SingleFlight<String, Object> singleFlight = new SingleFlight<>(10, TimeUnit.SECONDS, coalesced::incrementAndGet, () -> {});
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        Object value = new Object();
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        try {
+            List<Future<Object>> results = new ArrayList<>();
+            for (int i = 0; i < CALLERS; i++) {
+                results.add(executor.submit(() -> singleFlight.load("key", () -> {
+                    loads.incrementAndGet();
+                    awaitUninterruptibly(release);
+                    return value;
+                })));
+            }
+            awaitCount(coalesced, CALLERS - 1);
+            while (!singleFlight.isShared("key")) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+            for (Future<Object> result : results) {
+                assertSame(value, result.get());
+            }
+            assertEquals(1, loads.get());
+            assertEquals(0, singleFlight.getLoading());
+            assertFalse(singleFlight.isShared("key"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testThatFailuresAreSharedAndForgotten() throws Exception {
+        AtomicInteger coalesced = new AtomicInteger();
+        SingleFlight<String, Object> singleFlight = new SingleFlight<>(10, TimeUnit.SECONDS, coalesced::incrementAndGet, () -> {});
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Object> first = executor.submit(() -> singleFlight.load("key", () -> {
+                awaitUninterruptibly(release);
+                throw new IOException("failed");
+            }));
+            while (singleFlight.getLoading() == 0) {
+                Thread.sleep(1);
+            }
+            Future<Object> second = executor.submit(() -> singleFlight.load("key", Object::new));
+            awaitCount(coalesced, 1);
+            release.countDown();
+            assertTrue(assertThrows(ExecutionException.class, first::get).getCause() instanceof IOException);
+            assertTrue(assertThrows(ExecutionException.class, second::get).getCause() instanceof IOException);
+            assertEquals(0, singleFlight.getLoading());
+            assertEquals("value", singleFlight.load("key", () -> "value"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testThatStuckLoadsAreForgottenAfterTimeout() throws Exception {
+        AtomicInteger timeouts = new AtomicInteger();
+        SingleFlight<String, Object> singleFlight = new SingleFlight<>(50, TimeUnit.MILLISECONDS, () -> {}, timeouts::incrementAndGet);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Object> stuck = executor.submit(() -> singleFlight.load("key", () -> {
+                awaitUninterruptibly(release);
+                return "stuck";
+            }));
+            while (singleFlight.getLoading() == 0) {
+                Thread.sleep(1);
+            }
+            assertThrows(IOException.class, () -> singleFlight.load("key", () -> "waiting"));
+            assertEquals(1, timeouts.get());
+            assertEquals("fresh", singleFlight.load("key", () -> "fresh"));
+            release.countDown();
+            assertEquals("stuck", stuck.get());
+            assertEquals(0, singleFlight.getLoading());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testThatCancelledCallersOnlyFailThemselves() throws Exception {
+        AtomicInteger coalesced = new AtomicInteger();
+        SingleFlight<String, Object> singleFlight = new SingleFlight<>(10, TimeUnit.SECONDS, coalesced::incrementAndGet, () -> {});
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean loadCancelled = new AtomicBoolean();
+        Cancellation loader = new Cancellation(), cancelled = new Cancellation();
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            Future<Object> first = executor.submit(() -> singleFlight.load("key", loader, cancellation -> {
+                awaitUninterruptibly(release);
+                loadCancelled.set(cancellation.isCancelled());
+                return "value";
+            }));
+            while (singleFlight.getLoading() == 0) {
+                Thread.sleep(1);
+            }
+            Future<Object> second = executor.submit(() -> singleFlight.load("key", cancelled, cancellation -> "second"));
+            Future<Object> third = executor.submit(() -> singleFlight.load("key", new Cancellation(), cancellation -> "third"));
+            awaitCount(coalesced, 2);
+            cancelled.cancel();
+            assertTrue(assertThrows(ExecutionException.class, second::get).getCause() instanceof InterruptedIOException);
+            // the loading caller stops waiting as well, but the third one still needs the value
+            loader.cancel();
+            release.countDown();
+            assertEquals("value", first.get());
+            assertEquals("value", third.get());
+            assertFalse(loadCancelled.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testThatLoadsAreCancelledOnceNoCallerWaits() throws Exception {
+        SingleFlight<String, Object> singleFlight = new SingleFlight<>(10, TimeUnit.SECONDS, () -> {}, () -> {});
+        CountDownLatch started = new CountDownLatch(1);
+        Cancellation cancellation = new Cancellation();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Object> stopped = executor.submit(() -> singleFlight.load("key", cancellation, shared -> {
+                CountDownLatch cancelled = new CountDownLatch(1);
+                shared.onCancel(cancelled::countDown);
+                started.countDown();
+                awaitUninterruptibly(cancelled);
+                shared.throwIfCancelled();
+                return "stopped";
+            }));
+            started.await();
+            cancellation.cancel();
+            assertTrue(assertThrows(ExecutionException.class, stopped::get).getCause() instanceof InterruptedIOException);
+            assertEquals("fresh", singleFlight.load("key", () -> "fresh"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void awaitCount(AtomicInteger count, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (count.get() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(expected, count.get());
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
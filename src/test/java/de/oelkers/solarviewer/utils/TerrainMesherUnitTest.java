@@ -0,0 +1,110 @@
+package de.oelkers.solarviewer.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TerrainMesherUnitTest {
+
+    @Test
+    public void testThatFlatTerrainNeedsFewTriangles() {
+        TerrainMesher.Mesh mesh = new TerrainMesher(new float[17 * 17], 17).createMesh(0);
+        assertCovered(mesh, 17);
+        // only the triangles connecting the border vertices remain
+        assertTrue(mesh.getIndices().length / 3 < 16 * 16);
+    }
+
+    @Test
+    public void testThatTheToleranceIsRespected() {
+        float[] elevations = createTerrain(33);
+        int uniform = 2 * 32 * 32;
+        int previous = Integer.MAX_VALUE;
+        for (double tolerance : new double[]{0, 1, 5, 20}) {
+            TerrainMesher.Mesh mesh = new TerrainMesher(elevations, 33).createMesh(tolerance);
+            assertCovered(mesh, 33);
+            assertTrue(getMaxError(mesh, elevations, 33) <= tolerance + 1e-3);
+            int triangles = mesh.getIndices().length / 3;
+            assertTrue(triangles <= uniform && triangles <= previous);
+            previous = triangles;
+        }
+        assertTrue(previous < uniform / 2);
+    }
+
+    @Test
+    public void testThatAllBorderVerticesAreKept() {
+        TerrainMesher.Mesh mesh = new TerrainMesher(createTerrain(33), 33).createMesh(1000);
+        boolean[] border = new boolean[33 * 33];
+        for (int vertex = 0; vertex < mesh.getVertexCount(); vertex++) {
+            border[mesh.getZ(vertex) * 33 + mesh.getX(vertex)] = true;
+        }
+        for (int i = 0; i < 33; i++) {
+            assertTrue(border[i] && border[32 * 33 + i] && border[i * 33] && border[i * 33 + 32]);
+        }
+    }
+
+    @Test
+    public void testThatGridsMustBeAPowerOfTwoPlusOne() {
+        assertThrows(IllegalArgumentException.class, () -> new TerrainMesher(new float[16 * 16], 16));
+        assertThrows(IllegalArgumentException.class, () -> new TerrainMesher(new float[16], 5));
+    }
+
+    private static float[] createTerrain(int size) {
+        Random random = new Random(7);
+        float[] result = new float[size * size];
+        for (int z = 0; z < size; z++) {
+            for (int x = 0; x < size; x++) {
+                // a smooth hill with some noise on one side, so both flat and rough areas exist
+                double hill = 100 * Math.exp(-((x - 10) * (x - 10) + (z - 10) * (z - 10)) / 40.0);
+                result[z * size + x] = (float) (hill + (x > size / 2 ? random.nextInt(30) : 0));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Asserts that the triangles cover the whole grid without overlapping, by comparing the sum of their areas.
+     */
+    private static void assertCovered(TerrainMesher.Mesh mesh, int size) {
+        int[] indices = mesh.getIndices();
+        double area = 0;
+        for (int i = 0; i < indices.length; i += 3) {
+            area += Math.abs(cross(mesh, indices[i], indices[i + 1], indices[i + 2])) / 2;
+        }
+        assertEquals((size - 1) * (size - 1), area, 1e-9);
+    }
+
+    private static double getMaxError(TerrainMesher.Mesh mesh, float[] elevations, int size) {
+        int[] indices = mesh.getIndices();
+        double result = 0;
+        for (int i = 0; i < indices.length; i += 3) {
+            int a = indices[i], b = indices[i + 1], c = indices[i + 2];
+            double area = cross(mesh, a, b, c);
+            for (int z = 0; z < size; z++) {
+                for (int x = 0; x < size; x++) {
+                    double wa = cross(mesh.getX(b), mesh.getZ(b), mesh.getX(c), mesh.getZ(c), x, z) / area;
+                    double wb = cross(mesh.getX(c), mesh.getZ(c), mesh.getX(a), mesh.getZ(a), x, z) / area;
+                    double wc = 1 - wa - wb;
+                    if (wa >= 0 && wb >= 0 && wc >= 0) {
+                        double interpolated = wa * elevations[mesh.getZ(a) * size + mesh.getX(a)]
+                                + wb * elevations[mesh.getZ(b) * size + mesh.getX(b)]
+                                + wc * elevations[mesh.getZ(c) * size + mesh.getX(c)];
+                        result = Math.max(result, Math.abs(interpolated - elevations[z * size + x]));
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static double cross(TerrainMesher.Mesh mesh, int a, int b, int c) {
+        return cross(mesh.getX(a), mesh.getZ(a), mesh.getX(b), mesh.getZ(b), mesh.getX(c), mesh.getZ(c));
+    }
+
+    private static double cross(int ax, int az, int bx, int bz, int cx, int cz) {
+        return (double) (bx - ax) * (cz - az) - (double) (bz - az) * (cx - ax);
+    }
+}